@@ -33,6 +33,7 @@ import com.offbynull.actors.shuttle.Shuttle;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
 import org.apache.commons.lang3.Validate;
 import com.offbynull.actors.gateways.actor.stores.memory.MemoryStore;
 import java.io.Closeable;
@@ -271,12 +272,12 @@ public final class ActorSystem implements Closeable {
         }
 
         /**
-         * Equivalent to calling {@code withActorGateway(concurrency, MemoryStore.create(DEFAULT_ACTOR, concurrency)) }.
+         * Equivalent to calling {@code withActorGateway(concurrency, MemoryStore.create(DEFAULT_ACTOR, concurrency, true)) }.
          * @param concurrency number of threads for the actor gateway to use
          * @return this builder
          */
         public Builder withActorGateway(int concurrency) {
-            return withActorGateway(concurrency, MemoryStore.create(DEFAULT_ACTOR, concurrency));
+            return withActorGateway(concurrency, MemoryStore.create(DEFAULT_ACTOR, concurrency, true));
         }
 
         /**
@@ -288,6 +289,17 @@ public final class ActorSystem implements Closeable {
         public Builder withActorGateway(int concurrency, Store store) {
             return withGatewayFactory(() -> ActorGateway.create(DEFAULT_ACTOR, concurrency, store));
         }
+
+        /**
+         * Equivalent to calling {@code withGatewayFactory(() -> ActorGateway.create(DEFAULT_ACTOR, concurrency, store, executor)) }.
+         * @param concurrency number of workers for the actor gateway to use
+         * @param store storage engine for storing/retrieving actors
+         * @param executor executor for the actor gateway to run its workers on
+         * @return this builder
+         */
+        public Builder withActorGateway(int concurrency, Store store, Executor executor) {
+            return withGatewayFactory(() -> ActorGateway.create(DEFAULT_ACTOR, concurrency, store, executor));
+        }
         
         /**
          * Build the actor system.
@@ -17,12 +17,15 @@
 package com.offbynull.actors.address;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.StringJoiner;
 import org.apache.commons.collections4.list.UnmodifiableList;
 import org.apache.commons.lang3.Validate;
@@ -42,7 +45,20 @@ public final class Address implements Serializable {
     private static final char DELIM = ':';
     private static final char ESCAPE = '\\';
 
-    private final UnmodifiableList<String> addressElements;
+    // Serialized form is the same as it was when elements were held in an UnmodifiableList (see writeObject()/readObject())
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("addressElements", UnmodifiableList.class)
+    };
+
+    // Addresses are views over an element array -- addresses derived from other addresses (e.g. removePrefix()/removeSuffix()) share the
+    // same array rather than copying it. The array is never modified once created.
+    private transient String[] elements;
+    private transient int offset;
+    private transient int length;
+    
+    // Lazily computed and cached, like String's hash -- racy but safe because every thread computes the same values
+    private transient int hash; // 0 means not computed yet
+    private transient String string;
 
     /**
      * Converts an escaped address string back in to an {@link Address}. Pass the result of {@link #toString() } in to this method to
@@ -66,6 +82,27 @@ public final class Address implements Serializable {
     public static Address fromString(String textAddress) {
         Validate.notNull(textAddress);
         
+        // Fast path -- nothing escaped, so just split on the delimiter. The text is already in canonical form, so keep it for toString().
+        if (textAddress.indexOf(ESCAPE) == -1) {
+            List<String> elements = new ArrayList<>();
+            int start = 0;
+            int len = textAddress.length();
+            for (int i = 0; i < len; i++) {
+                char ch = textAddress.charAt(i);
+                Validate.isTrue(ch >= 0x20 && ch < 0x7F, "Not printable ASCII"); // this should cause surrogate pairs to fail as well, which
+                // is what we want!
+                if (ch == DELIM) {
+                    elements.add(textAddress.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            elements.add(textAddress.substring(start));
+            
+            Address address = new Address(elements.toArray(new String[elements.size()]));
+            address.string = textAddress;
+            return address;
+        }
+        
         List<String> elements = new ArrayList<>();
         try (StringReader reader = new StringReader(textAddress)) {
             while (true) {
@@ -83,7 +120,7 @@ public final class Address implements Serializable {
             // this should never happen
             throw new IllegalStateException(ioe);
         }
-        return new Address(elements);
+        return new Address(elements.toArray(new String[elements.size()]));
     }
 
     /**
@@ -100,13 +137,15 @@ public final class Address implements Serializable {
         Validate.noNullElements(elements);
         Validate.isTrue(!elements.isEmpty());
         
-        elements.stream().forEach(// is US-ASCII
-                x -> x.chars().forEach(
-                        // this should cause surrogate pairs to fail as well, which is what we want!
-                        ch -> Validate.isTrue(ch >= 0x20 && ch < 0x7F, "Not printable ASCII") 
-                )
-        );
-        return new Address(new ArrayList<>(elements));
+        for (String element : elements) { // is US-ASCII
+            int len = element.length();
+            for (int i = 0; i < len; i++) {
+                char ch = element.charAt(i);
+                // this should cause surrogate pairs to fail as well, which is what we want!
+                Validate.isTrue(ch >= 0x20 && ch < 0x7F, "Not printable ASCII");
+            }
+        }
+        return new Address(elements.toArray(new String[elements.size()]));
     }
 
     /**
@@ -193,8 +232,14 @@ public final class Address implements Serializable {
         return stringBuilder.toString();
     }
 
-    private Address(List<String> addressElements) {
-        this.addressElements = (UnmodifiableList<String>) UnmodifiableList.unmodifiableList(addressElements);
+    private Address(String[] elements) {
+        this(elements, 0, elements.length);
+    }
+
+    private Address(String[] elements, int offset, int length) {
+        this.elements = elements;
+        this.offset = offset;
+        this.length = length;
     }
 
     /**
@@ -202,7 +247,7 @@ public final class Address implements Serializable {
      * @return number of elements that make up this address
      */
     public int size() {
-        return addressElements.size();
+        return length;
     }
     
     /**
@@ -210,7 +255,7 @@ public final class Address implements Serializable {
      * @return elements that make up this address
      */
     public List<String> getElements() {
-        return new ArrayList<>(addressElements);
+        return new ArrayList<>(Arrays.asList(elements).subList(offset, offset + length));
     }
 
     /**
@@ -220,8 +265,51 @@ public final class Address implements Serializable {
      * @throws IllegalArgumentException if {@code idx} is negative or greater than the number of elements that make up this address 
      */
     public String getElement(int idx) {
-        Validate.isTrue(idx >= 0 && idx < addressElements.size());
-        return addressElements.get(idx);
+        Validate.isTrue(idx >= 0 && idx < length);
+        return elements[offset + idx];
+    }
+    
+    /**
+     * Returns {@code true} if the element at {@code idx} in this address is equal to the element at {@code idx} in {@code other}. Unlike
+     * comparing the results of {@link #getElement(int) }, this method returns {@code false} rather than throwing an exception if either
+     * address doesn't have an element at {@code idx}.
+     * @param other address to check against
+     * @param idx element index
+     * @return {@code true} if both addresses have the same element at {@code idx}, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public boolean elementEquals(Address other, int idx) {
+        Validate.notNull(other);
+        if (idx < 0 || idx >= length || idx >= other.length) {
+            return false;
+        }
+        return elements[offset + idx].equals(other.elements[other.offset + idx]);
+    }
+    
+    /**
+     * Get the number of leading elements that this address and {@code other} have in common.
+     * <p>
+     * For example...
+     * {@code Address.of("one", "two", "three").commonPrefixLength(Address.of("one", "two", "xxxxx"))} returns {@code 2}
+     * {@code Address.of("one", "two").commonPrefixLength(Address.of("one", "two", "three"))} returns {@code 2}
+     * {@code Address.of("xxxxx").commonPrefixLength(Address.of("one", "two", "three"))} returns {@code 0}
+     * @param other address to check against
+     * @return number of leading elements in common
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public int commonPrefixLength(Address other) {
+        Validate.notNull(other);
+        
+        int max = Math.min(length, other.length);
+        if (elements == other.elements && offset == other.offset) { // views over the same elements
+            return max;
+        }
+        
+        int i = 0;
+        while (i < max && elements[offset + i].equals(other.elements[other.offset + i])) {
+            i++;
+        }
+        return i;
     }
     
     /**
@@ -245,8 +333,9 @@ public final class Address implements Serializable {
     public Address appendSuffix(Address child) {
         Validate.notNull(child);
         
-        List<String> newElements = new ArrayList<>(addressElements);
-        newElements.addAll(child.addressElements);
+        String[] newElements = new String[length + child.length];
+        System.arraycopy(elements, offset, newElements, 0, length);
+        System.arraycopy(child.elements, child.offset, newElements, length, child.length);
         
         return new Address(newElements);
     }
@@ -270,11 +359,11 @@ public final class Address implements Serializable {
     public boolean isPrefixOf(Address other) {
         Validate.notNull(other);
         
-        if (other.addressElements.size() < addressElements.size()) {
+        if (other.length < length) {
             return false;
         }
         
-        return other.addressElements.subList(0, addressElements.size()).equals(addressElements);
+        return commonPrefixLength(other) == length;
     }
     
     /**
@@ -294,11 +383,9 @@ public final class Address implements Serializable {
     public Address removePrefix(Address prefix) {
         Validate.notNull(prefix);
         Validate.isTrue(prefix.isPrefixOf(this));
+        Validate.isTrue(prefix.length < length);
         
-        // Need to create a new ArrayList instead of passing in subList directly because subList generates a non-serializable list
-        List<String> subList = new ArrayList<>(addressElements.subList(prefix.addressElements.size(), addressElements.size()));
-        Validate.isTrue(!subList.isEmpty());
-        return new Address(subList);
+        return new Address(elements, offset + prefix.length, length - prefix.length);
     }
 
     /**
@@ -311,16 +398,26 @@ public final class Address implements Serializable {
      * {@code removeSuffix >= 0 || removeSuffix < this.length} (if {@code removeSuffix == this.length} the result would have no elements)
      */
     public Address removeSuffix(int count) {
-        Validate.isTrue(count >= 0 && count < addressElements.size());
-        List<String> subList = new ArrayList<>(addressElements.subList(0, addressElements.size() - count));
-        return new Address(subList);
+        Validate.isTrue(count >= 0 && count < length);
+        if (count == 0) {
+            return this;
+        }
+        return new Address(elements, offset, length - count);
     }
     
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 79 * hash + Objects.hashCode(this.addressElements);
-        return hash;
+        int h = hash;
+        if (h == 0) {
+            int listHash = 1; // same as List.hashCode()
+            for (int i = offset; i < offset + length; i++) {
+                listHash = 31 * listHash + elements[i].hashCode();
+            }
+            h = 3;
+            h = 79 * h + listHash;
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -332,16 +429,50 @@ public final class Address implements Serializable {
             return false;
         }
         final Address other = (Address) obj;
-        if (!Objects.equals(this.addressElements, other.addressElements)) {
+        if (this == other) {
+            return true;
+        }
+        if (hash != 0 && other.hash != 0 && hash != other.hash) {
+            return false;
+        }
+        if (length != other.length) {
             return false;
         }
-        return true;
+        return commonPrefixLength(other) == length;
     }
 
     @Override
     public String toString() {
-        StringJoiner joiner = new StringJoiner(String.valueOf(DELIM));
-        addressElements.stream().forEach((element) -> joiner.add(escapeElement(element)));
-        return joiner.toString();
+        String str = string;
+        if (str == null) {
+            StringJoiner joiner = new StringJoiner(String.valueOf(DELIM));
+            for (int i = offset; i < offset + length; i++) {
+                joiner.add(escapeElement(elements[i]));
+            }
+            str = joiner.toString();
+            string = str;
+        }
+        return str;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("addressElements", UnmodifiableList.unmodifiableList(getElements()));
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<String> addressElements = (List<String>) fields.get("addressElements", null);
+        if (addressElements == null || addressElements.isEmpty()) {
+            throw new InvalidObjectException("No address elements");
+        }
+        if (addressElements.contains(null)) {
+            throw new InvalidObjectException("Null address element");
+        }
+        elements = addressElements.toArray(new String[addressElements.size()]);
+        offset = 0;
+        length = elements.length;
     }
 }
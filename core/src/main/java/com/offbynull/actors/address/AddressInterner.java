@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.address;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A bounded table of canonical {@link Address} instances. Parsing the same address text through this table repeatedly returns the same
+ * {@link Address} instance, meaning that after the first time an address is seen, getting it again doesn't parse anything or allocate
+ * anything. Since {@link Address} caches its hash code and string form, those also don't need to be recomputed for interned addresses.
+ * <p>
+ * The table holds at most a fixed number of addresses. Once it fills up, it gets cleared and starts filling up again -- hot addresses
+ * quickly make their way back in.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class AddressInterner {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Address> byString;
+    private final ConcurrentHashMap<Address, Address> byAddress;
+
+    /**
+     * Create an {@link AddressInterner} object.
+     * @param maxSize maximum number of addresses to hold on to
+     * @return new address interner
+     * @throws IllegalArgumentException if {@code maxSize <= 0}
+     */
+    public static AddressInterner create(int maxSize) {
+        Validate.isTrue(maxSize > 0);
+        return new AddressInterner(maxSize);
+    }
+
+    private AddressInterner(int maxSize) {
+        Validate.isTrue(maxSize > 0);
+        this.maxSize = maxSize;
+        this.byString = new ConcurrentHashMap<>();
+        this.byAddress = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Equivalent to {@link Address#fromString(java.lang.String) }, but returns the canonical instance for the address.
+     * @param textAddress address in text-form
+     * @return canonical address
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code textAddress} is malformed (not properly escaped or not printable US-ASCII)
+     */
+    public Address fromString(String textAddress) {
+        Validate.notNull(textAddress);
+
+        Address address = byString.get(textAddress);
+        if (address != null) {
+            return address;
+        }
+
+        address = intern(Address.fromString(textAddress));
+        makeRoom(byString);
+        byString.putIfAbsent(textAddress, address);
+        return address;
+    }
+
+    /**
+     * Get the canonical instance for an address. If the table doesn't have a canonical instance for {@code address} yet,
+     * {@code address} becomes the canonical instance.
+     * @param address address
+     * @return canonical address
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public Address intern(Address address) {
+        Validate.notNull(address);
+
+        Address existing = byAddress.get(address);
+        if (existing != null) {
+            return existing;
+        }
+
+        makeRoom(byAddress);
+        existing = byAddress.putIfAbsent(address, address);
+        return existing == null ? address : existing;
+    }
+
+    /**
+     * Get the number of canonical addresses held by this table.
+     * @return number of canonical addresses
+     */
+    public int size() {
+        return byAddress.size();
+    }
+
+    private void makeRoom(ConcurrentHashMap<?, ?> map) {
+        if (map.size() >= maxSize) {
+            map.clear();
+        }
+    }
+}
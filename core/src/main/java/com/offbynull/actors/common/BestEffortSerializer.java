@@ -17,18 +17,34 @@
 package com.offbynull.actors.common;
 
 import java.io.ByteArrayInputStream;
+import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import static java.util.stream.Collectors.toList;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.io.output.NullOutputStream;
@@ -36,6 +52,7 @@ import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.objenesis.ObjenesisStd;
+import org.objenesis.instantiator.ObjectInstantiator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,7 +66,7 @@ import org.slf4j.LoggerFactory;
  * testing or as a last resort (if nothing else works for you).
  * @author Kasra Faghihi
  */
-public final class BestEffortSerializer {
+public final class BestEffortSerializer implements Serializer {
     
     private static final Logger LOG = LoggerFactory.getLogger(BestEffortSerializer.class);
 
@@ -62,37 +79,94 @@ public final class BestEffortSerializer {
     
     private static final byte PARENT_REFERENCE_MARKER = 100;
     private static final byte NEW_REFERENCE_MARKER = 101;
+
+    // Per-class verdict on whether instances are ALWAYS serializable, regardless of what's in their fields. If true, the trial
+    // serialization in isSerializable() can be skipped. If false, instances may or may not be serializable (e.g. a field declared as List
+    // may hold a non-serializable list) so the trial serialization still needs to happen.
+    private static final ClassValue<Boolean> ALWAYS_SERIALIZABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return isAlwaysSerializable(type, new HashSet<>());
+        }
+    };
+
+    // Per-class field list and accessors for objects that get deconstructed/rebuilt, so reflection lookups only happen once per class
+    private static final ClassValue<ClassPlan> CLASS_PLANS = new ClassValue<ClassPlan>() {
+        @Override
+        protected ClassPlan computeValue(Class<?> type) {
+            return new ClassPlan(type);
+        }
+    };
+
+    // Per-thread output buffer reused by serialize(), so a new buffer doesn't have to be allocated and grown on each call
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFERS = new ThreadLocal<>();
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private final LongAdder fallbackCount = new LongAdder();
+    private final ConcurrentHashMap<String, Class<?>> loadedClasses = new ConcurrentHashMap<>(); // class name -> class (for deserialize)
     
     /**
-     * Serialize an object to a new byte array.
-     * @param obj object to serialize (can be {@code null}
-     * @return {@code obj} serialized as a byte array
-     * @throws IllegalStateException if there was a problem serializing
+     * Get the number of objects that couldn't be written using Java's internal serialization mechanism and fell back to best effort
+     * serialization.
+     * @return fallback count
      */
+    public long getFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+    @Override
     public byte[] serialize(Object obj) {
+        // Take the buffer for this thread out while it's being used -- if serialize() gets called again further down the stack (e.g. from
+        // a custom writeObject()), that call gets its own buffer.
+        ByteArrayOutputStream baos = BUFFERS.get();
+        if (baos == null) {
+            baos = new ByteArrayOutputStream();
+        } else {
+            BUFFERS.remove();
+        }
+
         try {
-            CustomObjectOutputStream coos = new CustomObjectOutputStream();
-            recurseWriteObject(obj, coos, new TraversalPath());
+            serialize(obj, baos);
+            return baos.toByteArray();
+        } finally {
+            if (baos.size() <= MAX_RETAINED_BUFFER_SIZE) { // don't hang on to large buffers
+                baos.reset();
+                BUFFERS.set(baos);
+            }
+        }
+    }
 
-            return coos.toByteArray();
+    @Override
+    public void serialize(Object obj, OutputStream out) {
+        Validate.notNull(out);
+        try {
+            CustomObjectOutputStream coos = new CustomObjectOutputStream(out);
+            recurseWriteObject(obj, coos, new WritePath());
+            coos.flush();
         } catch (IllegalAccessException | IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
-    /**
-     * Deserialize a byte array back into a object.
-     * @param <T> expected type of deserialized object
-     * @param data byte array to deserialize
-     * @return {code data} deserialized back to an object
-     * @throws NullPointerException if any argument is {@code null}
-     * @throws IllegalStateException if there was a problem deserializing
-     */
+    @Override
     public <T> T deserialize(byte[] data) {
         Validate.notNull(data);
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer data) {
+        Validate.notNull(data);
+        InputStream in = data.hasArray()
+                ? new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining()) // read in place
+                : new ByteBufferInputStream(data.duplicate()); // duplicate so the position of the original doesn't move
+        return deserialize(in);
+    }
+
+    private <T> T deserialize(InputStream in) {
         try {
-            CustomObjectInputStream ois = new CustomObjectInputStream(data);
-            return (T) recurseReadObject(BestEffortSerializer.class.getClassLoader(), ois, new TraversalPath());
+            CustomObjectInputStream ois = new CustomObjectInputStream(in);
+            return (T) recurseReadObject(BestEffortSerializer.class.getClassLoader(), ois, new ReadPath());
         } catch (ClassCastException | ClassNotFoundException | IllegalAccessException | IOException e) {
             throw new IllegalStateException(e);
         }
@@ -107,7 +181,7 @@ public final class BestEffortSerializer {
     
     
     
-    private static void recurseWriteObject(Object obj, CustomObjectOutputStream coos, TraversalPath traversalPath)
+    private void recurseWriteObject(Object obj, CustomObjectOutputStream coos, WritePath traversalPath)
             throws IOException, IllegalAccessException {
         int idx = traversalPath.indexOf(obj);
         if (idx != -1) { // is it a reference to a obj we've already written?
@@ -124,8 +198,9 @@ public final class BestEffortSerializer {
             return;
         }
         
-        LOG.warn("{} marked with Serializable but the object graph contains a reference to a non-serializable object, falling back to best"
-                + " effort serialization for this object", obj.getClass().getSimpleName());
+        fallbackCount.increment();
+        LOG.debug("{} marked with Serializable but the object graph contains a reference to a non-serializable object, falling back to"
+                + " best effort serialization for this object", obj.getClass().getSimpleName());
         
         // if isn't serializable, so make a 'best effort' to write it out as-is
         if (obj.getClass().isArray()) {  // best effort to write out obj array
@@ -152,14 +227,12 @@ public final class BestEffortSerializer {
             Class<?> cls = obj.getClass();
             coos.writeUTF(cls.getName());
 
-            List<Field> writableFields = FieldUtils.getAllFieldsList(cls).stream()
-                    .filter(f -> (f.getModifiers() & Modifier.STATIC) == 0) // no static, but yes transient and volatile
-                    .collect(toList());
+            ClassPlan plan = CLASS_PLANS.get(cls);
             
-            coos.writeInt(writableFields.size());
-            for (Field f : writableFields) {
-                String name = f.getName();
-                Object value = FieldUtils.readField(f, obj, true);
+            coos.writeInt(plan.fieldCount());
+            for (int i = 0; i < plan.fieldCount(); i++) {
+                String name = plan.fieldName(i);
+                Object value = plan.readField(i, obj);
                 
                 coos.writeUTF(name);
                 recurseWriteObject(value, coos, traversalPath);
@@ -187,6 +260,10 @@ public final class BestEffortSerializer {
             return false;
         }
 
+        if (ALWAYS_SERIALIZABLE.get(cls)) { // nothing this object can reference would fail, no need to try
+            return true;
+        }
+
         // Try to serialize it into a null buffer -- if it doesn't work, it means we need to use our fallback method of serialization
         try (NullObjectOutputStream innerCoos = new NullObjectOutputStream()) {
             innerCoos.writeObject(obj);
@@ -202,7 +279,7 @@ public final class BestEffortSerializer {
 
 
 
-    private static Object recurseReadObject(ClassLoader classLoader, ObjectInputStream ois, TraversalPath traversalPath)
+    private Object recurseReadObject(ClassLoader classLoader, ObjectInputStream ois, ReadPath traversalPath)
             throws IOException, IllegalAccessException, ClassNotFoundException {
         
         int objectMarker = ois.readByte();
@@ -233,7 +310,7 @@ public final class BestEffortSerializer {
                 String clsName = ois.readUTF();
                 int len = ois.readInt();
                 
-                Class<?> cls = classLoader.loadClass(clsName);
+                Class<?> cls = loadClass(classLoader, clsName);
                 Object obj = Array.newInstance(cls.getComponentType(), len);
                 
                 traversalPath.addLast(obj);
@@ -251,8 +328,9 @@ public final class BestEffortSerializer {
             case DECONSTRUCTED_OBJECT_START: {
                 String clsName = ois.readUTF();
                 
-                Class<?> cls = classLoader.loadClass(clsName);
-                Object obj = new ObjenesisStd().getInstantiatorOf(cls).newInstance();
+                Class<?> cls = loadClass(classLoader, clsName);
+                ClassPlan plan = CLASS_PLANS.get(cls);
+                Object obj = plan.newInstance();
                 
                 traversalPath.addLast(obj);
                 
@@ -262,8 +340,11 @@ public final class BestEffortSerializer {
                     
                     Object value = recurseReadObject(classLoader, ois, traversalPath);
                     
-                    Field field = FieldUtils.getField(cls, fieldName, true);
-                    FieldUtils.writeField(field, obj, value, true);
+                    int fieldIdx = plan.fieldIndex(fieldName);
+                    if (fieldIdx == -1) {
+                        throw new IOException("Unrecognized field " + fieldName + " in " + clsName);
+                    }
+                    plan.writeField(fieldIdx, obj, value);
                 }
                 
                 readAndCheckEndMarker(ois, DECONSTRUCTED_OBJECT_STOP);
@@ -276,6 +357,87 @@ public final class BestEffortSerializer {
         }
     }
     
+    // A class is always serializable if every field that gets serialized is a primitive or has a type that's always serializable. Field
+    // types that aren't final (other than enums) may hold subclasses that aren't serializable. Classes with custom serialization logic may
+    // write out anything.
+    private static boolean isAlwaysSerializable(Class<?> cls, Set<Class<?>> visiting) {
+        if (cls.isPrimitive()
+                || ClassUtils.isPrimitiveWrapper(cls)
+                || cls == String.class
+                || cls == BigDecimal.class
+                || cls == BigInteger.class
+                || cls.isEnum()) {
+            return true;
+        }
+
+        if (cls.isArray()) {
+            Class<?> componentCls = cls.getComponentType();
+            return componentCls.isPrimitive()
+                    || (isFinalType(componentCls) && isAlwaysSerializable(componentCls, visiting));
+        }
+
+        if (!Serializable.class.isAssignableFrom(cls) || Externalizable.class.isAssignableFrom(cls)) {
+            return false;
+        }
+
+        if (!visiting.add(cls)) { // already being checked further up (self-referencing type) -- its answer doesn't depend on this
+            return true;
+        }
+
+        for (Class<?> current = cls; current != null && Serializable.class.isAssignableFrom(current); current = current.getSuperclass()) {
+            if (hasDeclaredMethod(current, "writeObject", ObjectOutputStream.class)
+                    || hasMethod(current, "writeReplace")) {
+                return false;
+            }
+
+            ObjectStreamClass desc = ObjectStreamClass.lookup(current);
+            for (ObjectStreamField field : desc.getFields()) {
+                Class<?> fieldCls = field.getType();
+                if (fieldCls.isPrimitive()) {
+                    continue;
+                }
+                if (!isFinalType(fieldCls) || !isAlwaysSerializable(fieldCls, visiting)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isFinalType(Class<?> cls) {
+        return cls.isEnum() || cls.isArray() || Modifier.isFinal(cls.getModifiers());
+    }
+
+    private static boolean hasDeclaredMethod(Class<?> cls, String name, Class<?>... paramTypes) {
+        try {
+            cls.getDeclaredMethod(name, paramTypes);
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+
+    private static boolean hasMethod(Class<?> cls, String name) {
+        for (Class<?> current = cls; current != null; current = current.getSuperclass()) {
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private Class<?> loadClass(ClassLoader classLoader, String name) throws ClassNotFoundException {
+        Class<?> cls = loadedClasses.get(name);
+        if (cls == null) {
+            cls = Class.forName(name, false, classLoader); // forName() instead of loadClass() -- loadClass() doesn't handle array names
+            loadedClasses.putIfAbsent(name, cls);
+        }
+        return cls;
+    }
+    
     private static void readAndCheckEndMarker(ObjectInputStream ois, int expectedMarker) throws IOException {
         int endMarker = ois.readByte();
         if (endMarker != expectedMarker) {
@@ -295,26 +457,119 @@ public final class BestEffortSerializer {
     
     
     
-    private static final class TraversalPath {
-        private final LinkedList<Object> data = new LinkedList<>();
+    private static final class ClassPlan {
+        private static final ObjenesisStd OBJENESIS = new ObjenesisStd();
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final Class<?> cls;
+        private final String[] fieldNames;
+        private final MethodHandle[] getters;
+        private final MethodHandle[] setters;
+        private final HashMap<String, Integer> fieldIndexes;
+        private volatile ObjectInstantiator<?> instantiator; // created on first use -- not needed if only serializing
+
+        ClassPlan(Class<?> cls) {
+            this.cls = cls;
+
+            List<Field> fields = FieldUtils.getAllFieldsList(cls).stream()
+                    .filter(f -> (f.getModifiers() & Modifier.STATIC) == 0) // no static, but yes transient and volatile
+                    .collect(toList());
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            fieldNames = new String[fields.size()];
+            getters = new MethodHandle[fields.size()];
+            setters = new MethodHandle[fields.size()];
+            fieldIndexes = new HashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                field.setAccessible(true);
+                fieldNames[i] = field.getName();
+                try {
+                    getters[i] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                    setters[i] = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                } catch (IllegalAccessException iae) {
+                    throw new IllegalStateException(iae);
+                }
+                fieldIndexes.putIfAbsent(field.getName(), i); // if a field is shadowed, subclass's field wins (fields listed from subclass up)
+            }
+        }
+
+        int fieldCount() {
+            return fieldNames.length;
+        }
+
+        String fieldName(int idx) {
+            return fieldNames[idx];
+        }
+
+        int fieldIndex(String name) {
+            Integer idx = fieldIndexes.get(name);
+            return idx == null ? -1 : idx;
+        }
+
+        Object readField(int idx, Object obj) {
+            try {
+                return getters[idx].invokeExact(obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t); // should never happen
+            }
+        }
+
+        void writeField(int idx, Object obj, Object value) {
+            try {
+                setters[idx].invokeExact(obj, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t); // should never happen
+            }
+        }
+
+        Object newInstance() {
+            ObjectInstantiator<?> ret = instantiator;
+            if (ret == null) {
+                ret = OBJENESIS.getInstantiatorOf(cls);
+                instantiator = ret;
+            }
+            return ret.newInstance();
+        }
+    }
+    
+    // Objects currently being written, from the root of the graph down to the object being written. An object that references one of
+    // these is a cycle and gets written as a reference to its position. Identity map so lookups are constant time regardless of depth.
+    private static final class WritePath {
+        private final IdentityHashMap<Object, Integer> indexes = new IdentityHashMap<>();
+        private final ArrayList<Object> data = new ArrayList<>();
         
         public void addLast(Object obj) {
+            indexes.put(obj, data.size());
             data.add(obj);
         }
 
         public void removeLast() {
-            data.remove();
+            Object obj = data.remove(data.size() - 1);
+            indexes.remove(obj);
         }
         
         public int indexOf(Object obj) {
-            int idx = 0;
-            for (Object item : data) {
-                if (item == obj) { // USE == INSTEAD OF equals() -- we want to make to look for the same object, not objects that are equal
-                    return idx;
-                }
-                idx++;
-            }
-            return -1;
+            Integer idx = indexes.get(obj); // identity lookup -- we want the same object, not objects that are equal
+            return idx == null ? -1 : idx;
+        }
+    }
+    
+    // Objects currently being read, mirrors WritePath
+    private static final class ReadPath {
+        private final ArrayList<Object> data = new ArrayList<>();
+        
+        public void addLast(Object obj) {
+            data.add(obj);
+        }
+
+        public void removeLast() {
+            data.remove(data.size() - 1);
         }
 
         public int size() {
@@ -324,7 +579,6 @@ public final class BestEffortSerializer {
         public Object get(int index) {
             return data.get(index);
         }
-        
     }
     
     
@@ -339,28 +593,47 @@ public final class BestEffortSerializer {
     
     private static final class CustomObjectInputStream extends ObjectInputStream {
 
-        CustomObjectInputStream(byte[] data) throws IOException {
-            super(new ByteArrayInputStream(data));
+        CustomObjectInputStream(InputStream in) throws IOException {
+            super(in);
         }
     }
     
     private static final class CustomObjectOutputStream extends ObjectOutputStream {
 
-        private final ByteArrayOutputStream cbaos;
+        CustomObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+    }
+    
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
 
-        CustomObjectOutputStream() throws IOException {
-            this(new ByteArrayOutputStream());
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
         }
 
-        private CustomObjectOutputStream(ByteArrayOutputStream cbaos) throws IOException {
-            super(cbaos);
-            this.cbaos = cbaos;
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int readLen = Math.min(len, buffer.remaining());
+            buffer.get(b, off, readLen);
+            return readLen;
         }
 
-        public byte[] toByteArray() throws IOException {
-            flush();
-            cbaos.flush(); // justincase
-            return cbaos.toByteArray();
+        @Override
+        public int available() {
+            return buffer.remaining();
         }
     }
     
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.common;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.shuttle.Message;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static java.util.Collections.emptyList;
+import org.apache.commons.collections4.list.UnmodifiableList;
+import static org.apache.commons.collections4.list.UnmodifiableList.unmodifiableList;
+import org.apache.commons.collections4.map.UnmodifiableMap;
+import static org.apache.commons.collections4.map.UnmodifiableMap.unmodifiableMap;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A serializer that uses Java's internal serialization mechanism, but writes a small numeric ID in place of the class descriptor for
+ * classes that have been registered with it. Java's serialization normally writes out the full class descriptor (class name, serial
+ * version UID, field names, and field types) for each class it encounters in a blob, which makes up much of the size of small blobs
+ * (e.g. messages) and much of the time spent writing/reading them.
+ * <p>
+ * A set of commonly serialized classes (boxed primitives, common collections, {@link Message}, and {@link Address}) is
+ * always registered. Additional classes can be registered when creating the serializer -- the same classes
+ * must be registered in the same order everywhere that data gets written and read, and registered classes must not change between the
+ * write and the read (unlike normal Java serialization, no check is done to see if the class has changed).
+ * <p>
+ * If the object graph contains an object that isn't serializable, this serializer falls back to using {@link BestEffortSerializer}.
+ * @author Kasra Faghihi
+ */
+public final class CompactSerializer implements Serializer {
+
+    private static final byte COMPACT_FORMAT = 1;
+    private static final byte BEST_EFFORT_FORMAT = 2;
+
+    private static final byte REGISTERED_CLASS_MARKER = 1;
+    private static final byte UNREGISTERED_CLASS_MARKER = 2;
+
+    private static final int MAX_CLASSES = 65536; // ids are written as unsigned shorts
+
+    private static final List<Class<?>> DEFAULT_CLASSES = Arrays.asList(
+            // DO NOT REORDER -- ids are based on position, changing the order breaks data that's already been written
+            Object[].class,
+            String[].class,
+            byte[].class,
+            int[].class,
+            long[].class,
+            Number.class,
+            Boolean.class,
+            Byte.class,
+            Short.class,
+            Character.class,
+            Integer.class,
+            Long.class,
+            Float.class,
+            Double.class,
+            Enum.class,
+            ArrayList.class,
+            LinkedList.class,
+            HashMap.class,
+            LinkedHashMap.class,
+            TreeMap.class,
+            HashSet.class,
+            Address.class,
+            Message.class);
+
+    private final UnmodifiableList<ObjectStreamClass> descs; // id -> class descriptor
+    private final UnmodifiableMap<Class<?>, Integer> ids; // class -> id
+    private final BestEffortSerializer fallbackSerializer;
+
+    /**
+     * Creates a {@link CompactSerializer} object. Equivalent to calling {@code create(Collections.emptyList()) }.
+     * @return new compact serializer
+     */
+    public static CompactSerializer create() {
+        return create(emptyList());
+    }
+
+    /**
+     * Creates a {@link CompactSerializer} object.
+     * @param classes additional classes to register (ids are assigned in order, after the default classes)
+     * @return new compact serializer
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code classes} contains duplicates, contains a class that's already registered by default, or
+     * contains a class that isn't serializable
+     */
+    public static CompactSerializer create(List<Class<?>> classes) {
+        Validate.notNull(classes);
+        Validate.noNullElements(classes);
+        return new CompactSerializer(classes);
+    }
+
+    private CompactSerializer(List<Class<?>> classes) {
+        Validate.notNull(classes);
+        Validate.noNullElements(classes);
+
+        List<Class<?>> allClasses = new ArrayList<>(DEFAULT_CLASSES.size() + classes.size());
+        allClasses.addAll(DEFAULT_CLASSES);
+        allClasses.addAll(classes);
+        Validate.isTrue(allClasses.size() <= MAX_CLASSES, "Too many classes registered");
+
+        List<ObjectStreamClass> descList = new ArrayList<>(allClasses.size());
+        Map<Class<?>, Integer> idMap = new HashMap<>();
+        for (Class<?> cls : allClasses) {
+            Validate.isTrue(Serializable.class.isAssignableFrom(cls), "Class not serializable: %s", cls);
+            Integer existingId = idMap.putIfAbsent(cls, descList.size());
+            Validate.isTrue(existingId == null, "Class registered more than once: %s", cls);
+            descList.add(ObjectStreamClass.lookup(cls));
+        }
+
+        this.descs = (UnmodifiableList<ObjectStreamClass>) unmodifiableList(descList);
+        this.ids = (UnmodifiableMap<Class<?>, Integer>) unmodifiableMap(idMap);
+        this.fallbackSerializer = new BestEffortSerializer();
+    }
+
+    @Override
+    public byte[] serialize(Object obj) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(COMPACT_FORMAT);
+            try (CompactObjectOutputStream coos = new CompactObjectOutputStream(baos)) {
+                coos.writeObject(obj);
+            }
+            return baos.toByteArray();
+        } catch (NotSerializableException nse) {
+            // Something in the object graph isn't serializable, fall back to best effort serialization
+            byte[] data = fallbackSerializer.serialize(obj);
+            byte[] ret = new byte[data.length + 1];
+            ret[0] = BEST_EFFORT_FORMAT;
+            System.arraycopy(data, 0, ret, 1, data.length);
+            return ret;
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data) {
+        Validate.notNull(data);
+        Validate.isTrue(data.length > 0, "Empty data");
+        switch (data[0]) {
+            case COMPACT_FORMAT:
+                try (CompactObjectInputStream cois = new CompactObjectInputStream(data)) {
+                    return (T) cois.readObject();
+                } catch (ClassCastException | ClassNotFoundException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            case BEST_EFFORT_FORMAT:
+                return fallbackSerializer.deserialize(Arrays.copyOfRange(data, 1, data.length));
+            default:
+                throw new IllegalStateException("Unexpected format: " + data[0]);
+        }
+    }
+
+
+
+
+
+
+
+
+
+
+    private final class CompactObjectOutputStream extends ObjectOutputStream {
+
+        CompactObjectOutputStream(ByteArrayOutputStream baos) throws IOException {
+            super(baos);
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            // do nothing -- format byte written by serialize() stands in for the header
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Integer id = ids.get(desc.forClass());
+            if (id != null) {
+                writeByte(REGISTERED_CLASS_MARKER);
+                writeShort(id);
+            } else {
+                writeByte(UNREGISTERED_CLASS_MARKER);
+                super.writeClassDescriptor(desc);
+            }
+        }
+    }
+
+    private final class CompactObjectInputStream extends ObjectInputStream {
+
+        CompactObjectInputStream(byte[] data) throws IOException {
+            super(new ByteArrayInputStream(data, 1, data.length - 1));
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {
+            // do nothing -- no header written
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            byte marker = readByte();
+            switch (marker) {
+                case REGISTERED_CLASS_MARKER: {
+                    int id = readUnsignedShort();
+                    if (id >= descs.size()) {
+                        throw new IOException("Unregistered class id: " + id);
+                    }
+                    return descs.get(id);
+                }
+                case UNREGISTERED_CLASS_MARKER:
+                    return super.readClassDescriptor();
+                default:
+                    throw new IOException("Unexpected class marker: " + marker);
+            }
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            Class<?> cls = desc.forClass();
+            if (cls != null && ids.containsKey(cls)) { // registered, no need to look it up
+                return cls;
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
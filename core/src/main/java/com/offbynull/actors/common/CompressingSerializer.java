@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.commons.collections4.map.UnmodifiableMap;
+import static org.apache.commons.collections4.map.UnmodifiableMap.unmodifiableMap;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A serializer that compresses the output of another serializer. Storage engines write out every actor each time it processes a message,
+ * so large actors (e.g. deep coroutine stacks or big collections held in locals) can be costly to ship to and keep in storage. Wrapping
+ * the serializer handed to a storage engine with this class compresses those blobs.
+ * <p>
+ * Only blobs that are at least some threshold size get compressed (compressing small blobs costs CPU time while saving little or no
+ * space), and a blob is only kept compressed if compressing it actually made it smaller. Compression is done using DEFLATE (via
+ * {@link Deflater}). Preset dictionaries can be supplied for specific classes: if the object being serialized is of that class, the
+ * dictionary gets used to prime the compressor. A dictionary that contains data commonly found in instances of that class (e.g. class
+ * names and field names) can dramatically improve compression of small to medium sized blobs. Dictionaries are identified by their
+ * checksum in the compressed data, so the same dictionaries must be supplied everywhere that data gets read.
+ * <p>
+ * Metrics on how much compression is saving and how much time it's taking are available through this class's getters.
+ * @author Kasra Faghihi
+ */
+public final class CompressingSerializer implements Serializer {
+
+    /**
+     * Default minimum size (in bytes) a blob must be before it gets compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    private static final byte UNCOMPRESSED_FORMAT = 0;
+    private static final byte DEFLATE_FORMAT = 1;
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final Serializer backingSerializer;
+    private final int threshold;
+    private final int level;
+    private final UnmodifiableMap<Class<?>, byte[]> dictionariesByClass;
+    private final UnmodifiableMap<Integer, byte[]> dictionariesByChecksum;
+
+    // Deflater/Inflater hold on to native memory and are expensive to create, so they're kept around per thread and reset between uses
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters;
+
+    private final LongAdder compressedCount = new LongAdder();
+    private final LongAdder uncompressedCount = new LongAdder();
+    private final LongAdder bytesBeforeCompression = new LongAdder();
+    private final LongAdder bytesAfterCompression = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+
+    /**
+     * Create a {@link CompressingSerializer} object. Equivalent to calling
+     * {@code create(backingSerializer, DEFAULT_THRESHOLD, Deflater.BEST_SPEED, Collections.emptyMap())}.
+     * @param backingSerializer serializer to compress the output of
+     * @return new serializer
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static CompressingSerializer create(Serializer backingSerializer) {
+        return create(backingSerializer, DEFAULT_THRESHOLD, Deflater.BEST_SPEED, new HashMap<>());
+    }
+
+    /**
+     * Create a {@link CompressingSerializer} object.
+     * @param backingSerializer serializer to compress the output of
+     * @param threshold minimum size (in bytes) a blob must be before it gets compressed
+     * @param level compression level (0 to 9 -- see {@link Deflater})
+     * @param dictionaries preset dictionaries to use for objects of specific classes
+     * @return new serializer
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code threshold} is negative, if {@code level} is out of range, if any dictionary is empty, or
+     * if any two dictionaries have the same checksum
+     */
+    public static CompressingSerializer create(Serializer backingSerializer, int threshold, int level,
+            Map<Class<?>, byte[]> dictionaries) {
+        Validate.notNull(backingSerializer);
+        Validate.notNull(dictionaries);
+        Validate.noNullElements(dictionaries.keySet());
+        Validate.noNullElements(dictionaries.values());
+        Validate.isTrue(threshold >= 0);
+        Validate.isTrue(level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION);
+        return new CompressingSerializer(backingSerializer, threshold, level, dictionaries);
+    }
+
+    private CompressingSerializer(Serializer backingSerializer, int threshold, int level, Map<Class<?>, byte[]> dictionaries) {
+        Validate.notNull(backingSerializer);
+        Validate.notNull(dictionaries);
+        Validate.noNullElements(dictionaries.keySet());
+        Validate.noNullElements(dictionaries.values());
+        Validate.isTrue(threshold >= 0);
+        Validate.isTrue(level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION);
+
+        Map<Class<?>, byte[]> byClass = new HashMap<>();
+        Map<Integer, byte[]> byChecksum = new HashMap<>();
+        for (Entry<Class<?>, byte[]> entry : dictionaries.entrySet()) {
+            byte[] dictionary = entry.getValue();
+            Validate.isTrue(dictionary.length > 0);
+            byte[] copy = Arrays.copyOf(dictionary, dictionary.length);
+
+            Adler32 adler32 = new Adler32(); // same checksum that DEFLATE's zlib wrapper uses to identify a dictionary
+            adler32.update(copy);
+            int checksum = (int) adler32.getValue();
+
+            byte[] existing = byChecksum.putIfAbsent(checksum, copy);
+            Validate.isTrue(existing == null || Arrays.equals(existing, copy), "Dictionary checksum collision");
+            byClass.put(entry.getKey(), byChecksum.get(checksum));
+        }
+
+        this.backingSerializer = backingSerializer;
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionariesByClass = (UnmodifiableMap<Class<?>, byte[]>) unmodifiableMap(byClass);
+        this.dictionariesByChecksum = (UnmodifiableMap<Integer, byte[]>) unmodifiableMap(byChecksum);
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level));
+        this.inflaters = ThreadLocal.withInitial(() -> new Inflater());
+    }
+
+    /**
+     * Get the number of blobs that were written compressed.
+     * @return compressed blob count
+     */
+    public long getCompressedCount() {
+        return compressedCount.sum();
+    }
+
+    /**
+     * Get the number of blobs that were written uncompressed (either because they were under the threshold or because compressing them
+     * didn't make them any smaller).
+     * @return uncompressed blob count
+     */
+    public long getUncompressedCount() {
+        return uncompressedCount.sum();
+    }
+
+    /**
+     * Get the total size of all blobs that compression was attempted on, before compression.
+     * @return byte count
+     */
+    public long getBytesBeforeCompression() {
+        return bytesBeforeCompression.sum();
+    }
+
+    /**
+     * Get the total size of all blobs that compression was attempted on, after compression.
+     * @return byte count
+     */
+    public long getBytesAfterCompression() {
+        return bytesAfterCompression.sum();
+    }
+
+    /**
+     * Get the ratio between the compressed and uncompressed size of all blobs that compression was attempted on (e.g. {@code 0.25} means
+     * that compression reduced size by 75%).
+     * @return compression ratio, or {@code 1.0} if compression hasn't been attempted yet
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.sum();
+        long after = bytesAfterCompression.sum();
+        return before == 0L ? 1.0 : (double) after / before;
+    }
+
+    /**
+     * Get the total amount of time spent compressing.
+     * @return time spent compressing in nanoseconds
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    /**
+     * Get the total amount of time spent decompressing.
+     * @return time spent decompressing in nanoseconds
+     */
+    public long getDecompressionNanos() {
+        return decompressionNanos.sum();
+    }
+
+    @Override
+    public byte[] serialize(Object obj) {
+        byte[] data = backingSerializer.serialize(obj);
+
+        if (data.length >= threshold) {
+            byte[] dictionary = obj == null ? null : dictionariesByClass.get(obj.getClass());
+            long startTime = System.nanoTime();
+            byte[] compressed = compress(data, dictionary);
+            compressionNanos.add(System.nanoTime() - startTime);
+            bytesBeforeCompression.add(data.length);
+            bytesAfterCompression.add(compressed.length);
+
+            if (compressed.length < data.length + 1) {
+                compressedCount.increment();
+                return compressed;
+            }
+        }
+
+        uncompressedCount.increment();
+        byte[] ret = new byte[data.length + 1];
+        ret[0] = UNCOMPRESSED_FORMAT;
+        System.arraycopy(data, 0, ret, 1, data.length);
+        return ret;
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data) {
+        Validate.notNull(data);
+        Validate.isTrue(data.length > 0);
+
+        switch (data[0]) {
+            case UNCOMPRESSED_FORMAT:
+                return backingSerializer.deserialize(ByteBuffer.wrap(data, 1, data.length - 1));
+            case DEFLATE_FORMAT: {
+                long startTime = System.nanoTime();
+                byte[] decompressed = decompress(data);
+                decompressionNanos.add(System.nanoTime() - startTime);
+                return backingSerializer.deserialize(decompressed);
+            }
+            default:
+                throw new IllegalStateException("Unrecognized format: " + data[0]);
+        }
+    }
+
+    private byte[] compress(byte[] data, byte[] dictionary) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        try {
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeByte(DEFLATE_FORMAT);
+            VarInts.writeUnsignedInt(dos, data.length);
+            dos.flush();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        }
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        while (!deflater.finished()) {
+            int len = deflater.deflate(chunk);
+            baos.write(chunk, 0, len);
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] decompress(byte[] data) {
+        try {
+            ByteArrayInputStream bais = new ByteArrayInputStream(data, 1, data.length - 1);
+            int length = VarInts.readUnsignedInt(new DataInputStream(bais));
+            int offset = data.length - bais.available();
+
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(data, offset, data.length - offset);
+
+            byte[] ret = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int len = inflater.inflate(ret, read, length - read);
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] dictionary = dictionariesByChecksum.get(inflater.getAdler());
+                        if (dictionary == null) {
+                            throw new StreamCorruptedException("No dictionary with checksum " + inflater.getAdler());
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new StreamCorruptedException("Compressed data ended early");
+                    }
+                }
+                read += len;
+            }
+            if (!inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                throw new StreamCorruptedException("Compressed data larger than expected");
+            }
+            return ret;
+        } catch (IOException | DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
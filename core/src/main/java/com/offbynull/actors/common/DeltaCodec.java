@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Binary delta encoding. A delta describes how to build some target byte array out of some base byte array, as a sequence of "copy this
+ * range from the base" and "insert these bytes" operations. If the target is a slightly changed version of the base (e.g. an actor's
+ * serialized state after it processed a message vs before), the delta is much smaller than the target.
+ * <p>
+ * Matching regions are found by indexing fixed-size blocks of the base and scanning the target for those blocks using a rolling hash, then
+ * extending each match in both directions. Changes that shift data around (e.g. a string that got longer) are handled fine, but matches
+ * shorter than the block size aren't found.
+ * @author Kasra Faghihi
+ */
+public final class DeltaCodec {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int HASH_MULTIPLIER = 31;
+    private static final int HASH_POWER; // HASH_MULTIPLIER^(BLOCK_SIZE-1), for removing the byte that rolls out of the hash
+    static {
+        int power = 1;
+        for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+            power *= HASH_MULTIPLIER;
+        }
+        HASH_POWER = power;
+    }
+
+    private static final int INSERT_OP = 0;
+    private static final int COPY_OP = 1;
+
+    private DeltaCodec() {
+        // do nothing
+    }
+
+    /**
+     * Create a delta that turns {@code base} into {@code target}.
+     * @param base base bytes
+     * @param target target bytes
+     * @return delta
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        Validate.notNull(base);
+        Validate.notNull(target);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            VarInts.writeUnsignedInt(dos, target.length);
+
+            int[] index = indexBlocks(base);
+            int mask = index.length - 1;
+
+            int literalStart = 0;
+            int pos = 0;
+            int hash = 0;
+            boolean hashValid = false;
+            while (pos + BLOCK_SIZE <= target.length) {
+                if (!hashValid) {
+                    hash = hash(target, pos);
+                    hashValid = true;
+                }
+
+                int candidate = index.length == 0 ? -1 : index[hash & mask] - 1;
+                if (candidate >= 0 && regionMatches(base, candidate, target, pos, BLOCK_SIZE)) {
+                    int matchBaseStart = candidate;
+                    int matchTargetStart = pos;
+                    while (matchTargetStart > literalStart && matchBaseStart > 0
+                            && base[matchBaseStart - 1] == target[matchTargetStart - 1]) {
+                        matchBaseStart--;
+                        matchTargetStart--;
+                    }
+                    int matchBaseEnd = candidate + BLOCK_SIZE;
+                    int matchTargetEnd = pos + BLOCK_SIZE;
+                    while (matchBaseEnd < base.length && matchTargetEnd < target.length
+                            && base[matchBaseEnd] == target[matchTargetEnd]) {
+                        matchBaseEnd++;
+                        matchTargetEnd++;
+                    }
+
+                    writeInsert(dos, target, literalStart, matchTargetStart);
+                    writeCopy(dos, matchBaseStart, matchBaseEnd - matchBaseStart);
+
+                    pos = matchTargetEnd;
+                    literalStart = pos;
+                    hashValid = false;
+                    continue;
+                }
+
+                if (pos + BLOCK_SIZE < target.length) {
+                    hash = (hash - (target[pos] & 0xFF) * HASH_POWER) * HASH_MULTIPLIER + (target[pos + BLOCK_SIZE] & 0xFF);
+                }
+                pos++;
+            }
+            writeInsert(dos, target, literalStart, target.length);
+
+            dos.flush();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Apply a delta created by {@link #encode(byte[], byte[]) } to the same base that was used to create it.
+     * @param base base bytes
+     * @param delta delta
+     * @return target bytes
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code delta} is malformed or doesn't fit {@code base}
+     */
+    public static byte[] decode(byte[] base, byte[] delta) {
+        Validate.notNull(base);
+        Validate.notNull(delta);
+
+        try {
+            ByteArrayInputStream bais = new ByteArrayInputStream(delta);
+            DataInputStream dis = new DataInputStream(bais);
+
+            int length = VarInts.readUnsignedInt(dis);
+            Validate.isTrue(length >= 0, "Bad length");
+            byte[] target = new byte[length];
+
+            int pos = 0;
+            while (pos < length) {
+                int op = VarInts.readUnsignedInt(dis);
+                int opLength = op >>> 1;
+                Validate.isTrue(opLength > 0 && opLength <= length - pos, "Bad operation length");
+                switch (op & 1) {
+                    case INSERT_OP:
+                        dis.readFully(target, pos, opLength);
+                        break;
+                    case COPY_OP: {
+                        int offset = VarInts.readUnsignedInt(dis);
+                        Validate.isTrue(offset >= 0 && offset <= base.length - opLength, "Bad copy offset");
+                        System.arraycopy(base, offset, target, pos, opLength);
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException(); // should never happen
+                }
+                pos += opLength;
+            }
+            Validate.isTrue(bais.available() == 0, "Trailing data");
+
+            return target;
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe);
+        }
+    }
+
+    // Open-addressed table of block hash -> block offset + 1 (0 means empty). Length is a power of 2, or 0 if there are no blocks.
+    private static int[] indexBlocks(byte[] base) {
+        int blockCount = base.length / BLOCK_SIZE;
+        if (blockCount == 0) {
+            return new int[0];
+        }
+
+        int size = Integer.highestOneBit(blockCount) << 2;
+        int[] index = new int[size];
+        int mask = size - 1;
+        for (int i = 0; i < blockCount; i++) {
+            int offset = i * BLOCK_SIZE;
+            int slot = hash(base, offset) & mask;
+            if (index[slot] == 0) { // first block with this hash wins
+                index[slot] = offset + 1;
+            }
+        }
+        return index;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * HASH_MULTIPLIER + (data[offset + i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(DataOutputStream dos, byte[] data, int start, int end) throws IOException {
+        int len = end - start;
+        if (len == 0) {
+            return;
+        }
+        VarInts.writeUnsignedInt(dos, (len << 1) | INSERT_OP);
+        dos.write(data, start, len);
+    }
+
+    private static void writeCopy(DataOutputStream dos, int offset, int len) throws IOException {
+        VarInts.writeUnsignedInt(dos, (len << 1) | COPY_OP);
+        VarInts.writeUnsignedInt(dos, offset);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.common;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.shuttle.Message;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Converts {@link Message}s to bytes and back. Rather than handing the entire message to a {@link Serializer} (which, for Java
+ * serialization, means writing out the class descriptors for {@link Message}, {@link Address}, and the list inside each address), the
+ * source and destination addresses are written out directly and only the payload is handed to the {@link Serializer}.
+ * <p>
+ * Each address element is written as a length-prefixed UTF-8 string (a single byte per character, since address elements are ASCII).
+ * The destination address typically shares a prefix with the source address (e.g. a message between an actor and its child, or between
+ * two actors in the same gateway), so the destination is written as the number of leading elements it shares with the source followed
+ * by only the elements that differ.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class MessageCodec {
+
+    private static final byte FORMAT = 1;
+
+    private final Serializer payloadSerializer;
+
+    /**
+     * Create a {@link MessageCodec} instance.
+     * @param payloadSerializer serializer to use for message payloads
+     * @return new codec
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static MessageCodec create(Serializer payloadSerializer) {
+        Validate.notNull(payloadSerializer);
+        return new MessageCodec(payloadSerializer);
+    }
+
+    private MessageCodec(Serializer payloadSerializer) {
+        Validate.notNull(payloadSerializer);
+        this.payloadSerializer = payloadSerializer;
+    }
+
+    /**
+     * Encode a message.
+     * @param message message to encode
+     * @return {@code message} encoded as a byte array
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if there was a problem serializing the payload
+     */
+    public byte[] encode(Message message) {
+        Validate.notNull(message);
+
+        Address src = message.getSourceAddress();
+        Address dst = message.getDestinationAddress();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(FORMAT);
+
+            VarInts.writeUnsignedInt(dos, src.size());
+            writeElements(dos, src, 0);
+
+            int shared = src.commonPrefixLength(dst);
+            VarInts.writeUnsignedInt(dos, shared);
+            VarInts.writeUnsignedInt(dos, dst.size() - shared);
+            writeElements(dos, dst, shared);
+
+            dos.flush();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        }
+
+        payloadSerializer.serialize(message.getMessage(), baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode a message.
+     * @param data bytes to decode
+     * @return {code data} decoded back to a message
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if there was a problem decoding
+     */
+    public Message decode(byte[] data) {
+        Validate.notNull(data);
+
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        DataInputStream dis = new DataInputStream(bais);
+        Address src;
+        Address dst;
+        try {
+            byte format = dis.readByte();
+            if (format != FORMAT) {
+                throw new StreamCorruptedException("Unrecognized format: " + format);
+            }
+
+            int srcSize = VarInts.readUnsignedInt(dis);
+            List<String> srcElements = new ArrayList<>(Math.min(srcSize, 16));
+            readElements(dis, srcElements, srcSize);
+            src = Address.of(srcElements);
+
+            int shared = VarInts.readUnsignedInt(dis);
+            int remaining = VarInts.readUnsignedInt(dis);
+            if (shared > srcSize) {
+                throw new StreamCorruptedException("Shared prefix longer than source: " + shared);
+            }
+            List<String> dstElements = new ArrayList<>(srcElements.subList(0, shared));
+            readElements(dis, dstElements, remaining);
+            dst = Address.of(dstElements);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int payloadOffset = data.length - bais.available();
+        Object payload = payloadSerializer.deserialize(ByteBuffer.wrap(data, payloadOffset, data.length - payloadOffset));
+        return new Message(src, dst, payload);
+    }
+
+    private static void writeElements(DataOutputStream dos, Address address, int start) throws IOException {
+        for (int i = start; i < address.size(); i++) {
+            byte[] element = address.getElement(i).getBytes(UTF_8);
+            VarInts.writeUnsignedInt(dos, element.length);
+            dos.write(element);
+        }
+    }
+
+    private static void readElements(DataInputStream dis, List<String> elements, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int len = VarInts.readUnsignedInt(dis);
+            if (len < 0 || len > dis.available()) {
+                throw new StreamCorruptedException("Bad element length: " + len);
+            }
+            byte[] element = new byte[len];
+            dis.readFully(element);
+            elements.add(new String(element, UTF_8));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Converts objects to bytes and back. Storage engines use this to write out actors and messages.
+ * <p>
+ * Implementations must be thread-safe.
+ * @author Kasra Faghihi
+ */
+public interface Serializer {
+
+    /**
+     * Serialize an object to a new byte array.
+     * @param obj object to serialize (can be {@code null}
+     * @return {@code obj} serialized as a byte array
+     * @throws IllegalStateException if there was a problem serializing
+     */
+    byte[] serialize(Object obj);
+
+    /**
+     * Serialize an object to an output stream. The stream isn't closed.
+     * <p>
+     * The default implementation serializes to a byte array and writes the byte array out.
+     * @param obj object to serialize (can be {@code null}
+     * @param out stream to write to
+     * @throws NullPointerException if {@code out} is {@code null}
+     * @throws IllegalStateException if there was a problem serializing or writing
+     */
+    default void serialize(Object obj, OutputStream out) {
+        Validate.notNull(out);
+        byte[] data = serialize(obj);
+        try {
+            out.write(data);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    /**
+     * Deserialize a byte array back into a object.
+     * @param <T> expected type of deserialized object
+     * @param data byte array to deserialize
+     * @return {code data} deserialized back to an object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if there was a problem deserializing
+     */
+    <T> T deserialize(byte[] data);
+
+    /**
+     * Deserialize the remaining bytes of a byte buffer back into a object. The position of the byte buffer isn't changed.
+     * <p>
+     * The default implementation copies the remaining bytes to a byte array and deserializes that.
+     * @param <T> expected type of deserialized object
+     * @param data byte buffer to deserialize
+     * @return {code data} deserialized back to an object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if there was a problem deserializing
+     */
+    default <T> T deserialize(ByteBuffer data) {
+        Validate.notNull(data);
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return deserialize(copy);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Variable-length integer encoding. Small values take up fewer bytes: each byte holds 7 bits of the value, and the high bit of each byte
+ * says whether another byte follows. Signed values are zigzag encoded first, so that small negative values are small as well.
+ * @author Kasra Faghihi
+ */
+public final class VarInts {
+
+    private VarInts() {
+        // do nothing
+    }
+
+    /**
+     * Write an int, treated as unsigned. Values between 0 and 127 take up 1 byte, negative values take up 5 bytes.
+     * @param out output to write to
+     * @param value value to write
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeUnsignedInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read an int written by {@link #writeUnsignedInt(java.io.DataOutput, int) }.
+     * @param in input to read from
+     * @return value read
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs or the encoding is bad
+     */
+    public static int readUnsignedInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Variable-length int too long");
+    }
+
+    /**
+     * Write an unsigned long. Values between 0 and 127 take up 1 byte, negative values take up 10 bytes.
+     * @param out output to write to
+     * @param value value to write
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeUnsignedLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.writeByte((int) ((value & 0x7FL) | 0x80L));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a long written by {@link #writeUnsignedLong(java.io.DataOutput, long) }.
+     * @param in input to read from
+     * @return value read
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs or the encoding is bad
+     */
+    public static long readUnsignedLong(DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Variable-length long too long");
+    }
+
+    /**
+     * Write a signed int (zigzag encoded). Values between -64 and 63 take up 1 byte.
+     * @param out output to write to
+     * @param value value to write
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeInt(DataOutput out, int value) throws IOException {
+        writeUnsignedInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Read an int written by {@link #writeInt(java.io.DataOutput, int) }.
+     * @param in input to read from
+     * @return value read
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs or the encoding is bad
+     */
+    public static int readInt(DataInput in) throws IOException {
+        int value = readUnsignedInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a signed long (zigzag encoded). Values between -64 and 63 take up 1 byte.
+     * @param out output to write to
+     * @param value value to write
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeLong(DataOutput out, long value) throws IOException {
+        writeUnsignedLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Read a long written by {@link #writeLong(java.io.DataOutput, long) }.
+     * @param in input to read from
+     * @return value read
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs or the encoding is bad
+     */
+    public static long readLong(DataInput in) throws IOException {
+        long value = readUnsignedLong(in);
+        return (value >>> 1) ^ -(value & 1L);
+    }
+}
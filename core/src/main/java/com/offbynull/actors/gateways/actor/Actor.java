@@ -16,48 +16,91 @@
  */
 package com.offbynull.actors.gateways.actor;
 
+import com.offbynull.coroutines.user.CoroutineReader;
 import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.coroutines.user.SerializedState;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.lang3.Validate;
 
 final class Actor {
     private final Actor parent;
-    private final Map<String, Actor> children; 
+    private final Map<String, Actor> children; // children that have been loaded
+    private final Map<String, SerializableActor> unloadedChildren; // children that haven't been needed yet, kept in serialized form
     
-    private final CoroutineRunner runner;
+    private CoroutineRunner runner; // null until needed
+    private SerializedState unloadedRunner; // runner that hasn't been needed yet, kept in serialized form (null once loaded)
     private final Context context;
 
     Actor(Actor parent, CoroutineRunner runner, Context context) {
         this(parent, runner, new HashMap<>(), context);
     }
 
-    Actor(Actor parent, CoroutineRunner runner, Map<String, Actor> children, Context context) {
+    Actor(Actor parent, CoroutineRunner runner, Map<String, SerializableActor> unloadedChildren, Context context) {
         // parent can be null
         Validate.notNull(runner);
         Validate.notNull(context);
-        Validate.notNull(children);
-        Validate.noNullElements(children.keySet());
-        Validate.noNullElements(children.values());
+        Validate.notNull(unloadedChildren);
+        Validate.noNullElements(unloadedChildren.keySet());
+        Validate.noNullElements(unloadedChildren.values());
         
         this.parent = parent;
         this.runner = runner;
         this.context = context;
-        this.children = children;
+        this.children = new HashMap<>();
+        this.unloadedChildren = unloadedChildren;
+    }
+
+    // The runner isn't reconstructed until it's needed (see runner()) -- messages that are rejected or handled by shortcircuit logic only
+    // need the context
+    Actor(Actor parent, SerializedState unloadedRunner, Map<String, SerializableActor> unloadedChildren, Context context) {
+        // parent can be null
+        Validate.notNull(unloadedRunner);
+        Validate.notNull(context);
+        Validate.notNull(unloadedChildren);
+        Validate.noNullElements(unloadedChildren.keySet());
+        Validate.noNullElements(unloadedChildren.values());
+        
+        this.parent = parent;
+        this.unloadedRunner = unloadedRunner;
+        this.context = context;
+        this.children = new HashMap<>();
+        this.unloadedChildren = unloadedChildren;
     }
 
     Actor parent() {
         return parent;
     }
 
+    // Children that have been loaded -- children that haven't been loaded yet aren't included. Only loaded children can have executed.
     Map<String, Actor> children() {
         return children;
     }
 
+    // Children that haven't been loaded yet. These are written back as-is when this actor is serialized.
+    Map<String, SerializableActor> unloadedChildren() {
+        return unloadedChildren;
+    }
+
+    // Reconstructs the runner if it hasn't been reconstructed yet
     CoroutineRunner runner() {
+        if (runner == null) {
+            CoroutineReader coroutineReader = new CoroutineReader();
+            runner = coroutineReader.reconstruct(unloadedRunner);
+            unloadedRunner = null;
+        }
         return runner;
     }
 
+    // Runner that hasn't been reconstructed yet, or null if it has been. This is written back as-is when this actor is serialized.
+    SerializedState unloadedRunner() {
+        return unloadedRunner;
+    }
+
+    boolean isRunnerLoaded() {
+        return runner != null;
+    }
+
     Context context() {
         return context;
     }
@@ -66,14 +109,36 @@ final class Actor {
         return parent == null;
     }
 
+    // Loads the child if it hasn't been loaded yet
     Actor getChild(String id) {
         Validate.notNull(id);
-        return children.get(id);
+        Actor child = children.get(id);
+        if (child == null) {
+            SerializableActor unloadedChild = unloadedChildren.remove(id);
+            if (unloadedChild != null) {
+                child = SerializableActor.deserialize(this, unloadedChild);
+                children.put(id, child);
+            }
+        }
+        return child;
     }
     
     boolean isChild(String id) {
         Validate.notNull(id);
-        return children.containsKey(id);
+        return children.containsKey(id) || unloadedChildren.containsKey(id);
+    }
+
+    void putChild(String id, Actor child) {
+        Validate.notNull(id);
+        Validate.notNull(child);
+        unloadedChildren.remove(id);
+        children.put(id, child);
+    }
+
+    void removeChild(String id) {
+        Validate.notNull(id);
+        unloadedChildren.remove(id);
+        children.remove(id);
     }
     
 }
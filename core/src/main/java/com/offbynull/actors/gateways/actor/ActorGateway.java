@@ -29,8 +29,12 @@ import com.offbynull.actors.shuttle.Message;
 import com.offbynull.actors.shuttles.pump.PumpShuttle;
 import com.offbynull.actors.shuttles.pump.PumpShuttleController;
 import com.offbynull.coroutines.user.CoroutineRunner;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.io.IOUtils;
 
@@ -73,7 +77,8 @@ public final class ActorGateway implements Gateway, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(ActorGateway.class);
     
     private final AtomicBoolean shutdownFlag;
-    private final Thread[] threads;
+    private final CountDownLatch workersLatch;
+    private final Thread flushThread;
     
     private final String prefix;
     
@@ -82,6 +87,7 @@ public final class ActorGateway implements Gateway, AutoCloseable {
 
     private final ConcurrentHashMap<String, Shuttle> outShuttles;
     private final Store store;
+    private final ResidentCache residentCache;
 
     /**
      * Create a {@link ActorGateway} instance. Equivalent to calling {@code create(CommonAddresses.DEFAULT_ACTOR)}.
@@ -104,7 +110,7 @@ public final class ActorGateway implements Gateway, AutoCloseable {
 
     /**
      * Create an {@link ActorGateway} instance. Equivalent to calling
-     * {@code ActorGateway.create(prefix, threadCount, MemoryStore.create(prefix, threadCount))}.
+     * {@code ActorGateway.create(prefix, threadCount, MemoryStore.create(prefix, threadCount, true))}.
      * @param prefix address prefix to use for actors that get added to this runner
      * @param threadCount number of threads to use for this runner
      * @throws NullPointerException if any argument is {@code null}
@@ -112,11 +118,11 @@ public final class ActorGateway implements Gateway, AutoCloseable {
      * @return new actor runner
      */
     public static ActorGateway create(String prefix, int threadCount) {
-        return ActorGateway.create(prefix, threadCount, MemoryStore.create(prefix, threadCount));
+        return ActorGateway.create(prefix, threadCount, MemoryStore.create(prefix, threadCount, true));
     }
 
     /**
-     * Create an {@link ActorGateway} instance.
+     * Create an {@link ActorGateway} instance. Equivalent to calling {@code ActorGateway.create(prefix, threadCount, store, 1)}.
      * @param prefix address prefix to use for actors that get added to this runner
      * @param threadCount number of threads to use for this runner
      * @param store storage engine
@@ -125,11 +131,126 @@ public final class ActorGateway implements Gateway, AutoCloseable {
      * @return new actor runner
      */
     public static ActorGateway create(String prefix, int threadCount, Store store) {
+        return ActorGateway.create(prefix, threadCount, store, 1);
+    }
+
+    /**
+     * Create an {@link ActorGateway} instance.
+     * <p>
+     * {@code batchSize} controls how many queued messages a thread will pull from {@code store} for an actor at once. The actor is
+     * deserialized once, fed each message in the batch, and then serialized and put back into {@code store} once. Larger batch sizes
+     * reduce the serialization overhead for actors that receive many messages, but an actor's state is only persisted (and checkpointed)
+     * at the end of each batch.
+     * <p>
+     * If a batch pulled from {@code store} isn't full, messages that the actor sends to itself (or to its children) while processing the
+     * batch are added to the end of that same batch rather than going through {@code store}, until the batch is full. This avoids the cost
+     * of serializing those messages and storing them, and of pulling the actor again to process them.
+     * @param prefix address prefix to use for actors that get added to this runner
+     * @param threadCount number of threads to use for this runner
+     * @param store storage engine
+     * @param batchSize maximum number of messages to process for an actor before putting it back into {@code store}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code threadCount < 1} or {@code batchSize < 1}
+     * @return new actor runner
+     */
+    public static ActorGateway create(String prefix, int threadCount, Store store, int batchSize) {
+        return ActorGateway.create(prefix, threadCount, store, batchSize, 0, Duration.ZERO);
+    }
+
+    /**
+     * Create an {@link ActorGateway} instance that keeps actors resident in memory.
+     * <p>
+     * Normally, an actor is deserialized each time it's pulled from {@code store} and serialized each time it's put back in. If
+     * {@code residentCapacity > 0}, up to {@code residentCapacity} of the most recently used actors are kept resident (live, in memory)
+     * between pieces of work, meaning that they don't need to be deserialized again when they're next pulled from {@code store}. The state
+     * of a resident actor is only written back to {@code store} when...
+     * <ul>
+     * <li>it updates its checkpoint.</li>
+     * <li>{@code writeBehindInterval} has elapsed since it was last written.</li>
+     * <li>it's evicted to make room for other actors.</li>
+     * <li>this gateway is closed.</li>
+     * </ul>
+     * Until then, {@code store} holds an older state for that actor. If this gateway dies before that state gets written back, the actor
+     * will continue from that older state. Also, other gateways pulling work from {@code store} will see that older state, so this option
+     * should only be used if this is the only gateway using {@code store}.
+     * <p>
+     * A {@code writeBehindInterval} of {@link Duration#ZERO} writes the state back each time the actor finishes processing (deserialization
+     * is still skipped for resident actors).
+     * <p>
+     * Each of the {@code threadCount} workers runs on its own thread.
+     * @param prefix address prefix to use for actors that get added to this runner
+     * @param threadCount number of threads to use for this runner
+     * @param store storage engine
+     * @param batchSize maximum number of messages to process for an actor before putting it back into {@code store}
+     * @param residentCapacity maximum number of actors to keep resident ({@code 0} to disable)
+     * @param writeBehindInterval maximum amount of time a resident actor's state can go without being written back to {@code store}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code threadCount < 1}, {@code batchSize < 1}, {@code residentCapacity < 0}, or
+     * {@code writeBehindInterval} is negative
+     * @return new actor runner
+     */
+    public static ActorGateway create(String prefix, int threadCount, Store store, int batchSize, int residentCapacity,
+            Duration writeBehindInterval) {
+        return ActorGateway.create(prefix, threadCount, store, batchSize, residentCapacity, writeBehindInterval,
+                r -> new Thread(r).start());
+    }
+
+    /**
+     * Create an {@link ActorGateway} instance that runs its workers on {@code executor}. Equivalent to calling
+     * {@code ActorGateway.create(prefix, workerCount, store, 1, 0, Duration.ZERO, executor)}.
+     * @param prefix address prefix to use for actors that get added to this runner
+     * @param workerCount number of workers to use for this runner
+     * @param store storage engine
+     * @param executor executor to run workers on
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code workerCount < 1}
+     * @return new actor runner
+     */
+    public static ActorGateway create(String prefix, int workerCount, Store store, Executor executor) {
+        return ActorGateway.create(prefix, workerCount, store, 1, 0, Duration.ZERO, executor);
+    }
+
+    /**
+     * Create an {@link ActorGateway} instance that runs its workers on {@code executor}.
+     * <p>
+     * Each worker is a long-running task that repeatedly pulls work from {@code store}, and blocks inside of {@code store} while waiting
+     * for work. {@code executor} must be able to run all {@code workerCount} workers at the same time (e.g. a thread pool with at least
+     * {@code workerCount} threads), otherwise the workers that don't get a thread will never run. Workers are submitted once, when this
+     * method is called, and finish once this gateway is closed.
+     * <p>
+     * Stores that block on network I/O while waiting for work (e.g. Redis and JDBC stores) need many workers to hide that latency. On JDKs
+     * that support virtual threads, passing in an executor that runs each task on its own virtual thread (e.g.
+     * {@code Executors.newVirtualThreadPerTaskExecutor()}) lets this gateway run a large number of workers without needing a large number of
+     * OS threads.
+     * <p>
+     * See {@link #create(java.lang.String, int, com.offbynull.actors.gateways.actor.Store, int, int, java.time.Duration) } for details on
+     * the other parameters.
+     * @param prefix address prefix to use for actors that get added to this runner
+     * @param workerCount number of workers to use for this runner
+     * @param store storage engine
+     * @param batchSize maximum number of messages to process for an actor before putting it back into {@code store}
+     * @param residentCapacity maximum number of actors to keep resident ({@code 0} to disable)
+     * @param writeBehindInterval maximum amount of time a resident actor's state can go without being written back to {@code store}
+     * @param executor executor to run workers on
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code workerCount < 1}, {@code batchSize < 1}, {@code residentCapacity < 0}, or
+     * {@code writeBehindInterval} is negative
+     * @throws java.util.concurrent.RejectedExecutionException if {@code executor} rejects a worker
+     * @return new actor runner
+     */
+    public static ActorGateway create(String prefix, int workerCount, Store store, int batchSize, int residentCapacity,
+            Duration writeBehindInterval, Executor executor) {
         Validate.notNull(prefix);
         Validate.notNull(store);
-        Validate.isTrue(threadCount > 0);
+        Validate.notNull(writeBehindInterval);
+        Validate.notNull(executor);
+        Validate.isTrue(workerCount > 0);
+        Validate.isTrue(batchSize > 0);
+        Validate.isTrue(residentCapacity >= 0);
+        Validate.isTrue(!writeBehindInterval.isNegative());
 
-        ActorGateway ret = new ActorGateway(prefix, threadCount, store);
+        ResidentCache residentCache = residentCapacity > 0 ? new ResidentCache(store, residentCapacity, writeBehindInterval) : null;
+        ActorGateway ret = new ActorGateway(prefix, workerCount, store, residentCache);
         
         // Handler to call if any of the threads encounter a problem while they're running. If any thread encounters a critical error, then
         // all threads must be shut down!
@@ -138,28 +259,56 @@ public final class ActorGateway implements Gateway, AutoCloseable {
             ret.shutdownFlag.set(true);
         };
         
-        // Create and start threads
+        // Create and start workers
+        int startedCount = 0;
         try {
-            for (int i = 0; i < threadCount; i++) {
-                ActorRunnable actorRunnable = new ActorRunnable(ret.prefix, ret.outShuttles, ret.store, failListener, ret.shutdownFlag);
-                ret.threads[i] = new Thread(actorRunnable);
-                ret.threads[i].start();
+            for (int i = 0; i < workerCount; i++) {
+                ActorRunnable actorRunnable = new ActorRunnable(
+                        ret.prefix,
+                        ret.outShuttles,
+                        ret.store,
+                        batchSize,
+                        residentCache,
+                        failListener,
+                        ret.shutdownFlag);
+                executor.execute(() -> {
+                    try {
+                        actorRunnable.run();
+                    } finally {
+                        ret.workersLatch.countDown();
+                    }
+                });
+                startedCount++;
+            }
+            
+            if (ret.flushThread != null) {
+                ret.flushThread.start();
             }
         } catch (RuntimeException e) {
             ret.shutdownFlag.set(true);
+            // workers that never got handed to the executor will never count down, so count down for them -- otherwise join() would hang
+            for (int i = startedCount; i < workerCount; i++) {
+                ret.workersLatch.countDown();
+            }
             throw e;
         }
         
         return ret;
     }
     
-    private ActorGateway(String prefix, int threadCount, Store store) {
+    private ActorGateway(String prefix, int workerCount, Store store, ResidentCache residentCache) {
         Validate.notNull(prefix);
         Validate.notNull(store);
-        Validate.isTrue(threadCount > 0);
+        Validate.isTrue(workerCount > 0);
+        // residentCache can be null (means actors aren't kept resident)
         
         this.prefix = prefix;
-        this.threads = new Thread[threadCount];
+        this.workersLatch = new CountDownLatch(workerCount);
+        this.residentCache = residentCache;
+        // Resident actors only need to be flushed periodically if they aren't being written back on every check in
+        this.flushThread = residentCache != null && !residentCache.writeBehindInterval().isZero()
+                ? new Thread(this::flushResidents)
+                : null;
         this.shutdownFlag = new AtomicBoolean(false);
         this.selfShuttle = new ActorShuttle(prefix, store, shutdownFlag);
         this.pumpShuttleController = PumpShuttle.create(selfShuttle); // safe -- internal thread won't be started if create throws exception
@@ -238,14 +387,44 @@ public final class ActorGateway implements Gateway, AutoCloseable {
     public void close() {
         shutdownFlag.set(true);
         pumpShuttleController.close();
+        if (residentCache != null) {
+            if (flushThread != null) {
+                flushThread.interrupt();
+            }
+            try {
+                residentCache.close();
+            } catch (RuntimeException re) {
+                LOG.error("Unable to write back resident actors", re);
+            }
+        }
         IOUtils.closeQuietly(store);
     }
 
     @Override
     public void join() throws InterruptedException {
         pumpShuttleController.join();
-        for (Thread thread : threads) {
-            thread.join();
+        workersLatch.await();
+        if (flushThread != null) {
+            flushThread.join();
+        }
+    }
+
+    private void flushResidents() {
+        Duration writeBehindInterval = residentCache.writeBehindInterval();
+        long sleepTime = Math.max(1L, writeBehindInterval.toMillis());
+        while (!shutdownFlag.get()) {
+            try {
+                Thread.sleep(sleepTime);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                residentCache.flush(Instant.now().minus(writeBehindInterval));
+            } catch (RuntimeException re) {
+                LOG.error("Unable to write back resident actors", re);
+            }
         }
     }
 }
@@ -50,6 +50,8 @@ final class ActorRunnable implements Runnable {
     private final String prefix;
     private final ConcurrentHashMap<String, Shuttle> outShuttles;
     private final Store store;
+    private final int batchSize;
+    private final ResidentCache residentCache;
     
     private final FailListener failListener;
     private final AtomicBoolean shutdownFlag;
@@ -58,6 +60,8 @@ final class ActorRunnable implements Runnable {
             String prefix,
             ConcurrentHashMap<String, Shuttle> outShuttles,
             Store store,
+            int batchSize,
+            ResidentCache residentCache,
             FailListener failListener,
             AtomicBoolean shutdownFlag) {
         Validate.notNull(prefix);
@@ -67,70 +71,139 @@ final class ActorRunnable implements Runnable {
         Validate.notNull(shutdownFlag);
         // DONT CHECK outShuttles FOR NULL keys/values as there's no point -- map is concurrent, being modified by other threads
         Validate.notEmpty(prefix);
+        Validate.isTrue(batchSize > 0);
+        // residentCache can be null (means actors aren't kept resident)
 
         this.prefix = prefix;
         this.outShuttles = outShuttles;
         this.store = store;
+        this.batchSize = batchSize;
+        this.residentCache = residentCache;
         this.failListener = failListener;
         this.shutdownFlag = shutdownFlag;
     }
 
     @Override
     public void run() {
-        while (!shutdownFlag.get()) {
-            try {
-                processWork();
-            } catch (RuntimeException re) {
-                LOG.error("Internal error encountered", re);
-
+        try {
+            while (!shutdownFlag.get()) {
                 try {
-                    failListener.failed(re);
-                } catch (RuntimeException innerRe) {
-                    LOG.error("Handler failed", innerRe);
+                    processWork();
+                } catch (RuntimeException re) {
+                    LOG.error("Internal error encountered", re);
+
+                    try {
+                        failListener.failed(re);
+                    } catch (RuntimeException innerRe) {
+                        LOG.error("Handler failed", innerRe);
+                    }
                 }
             }
+        } finally {
+            // this thread may get reused by the executor for something else, so let the store drop whatever it kept for this thread
+            try {
+                store.stopTaking();
+            } catch (RuntimeException re) {
+                LOG.error("Unable to detach from store", re);
+            }
         }
     }
 
     private void processWork() {
-        StoredWork work = store.take();
-
-        Message message = work.getMessage();
-        SerializableActor serializableActor = work.getActor();
-
-        Object payload = message.getMessage();
-        Address src = message.getSourceAddress();
-        Address dst = message.getDestinationAddress();
+        StoredWork work = store.takeBatch(batchSize);
 
 
 
-        // deserialie
-        Actor actor = deserialize(serializableActor);
-
-        // reset checkpoint updated flag (user will set it again if they want to checkpoint)
-        actor.context().checkpointUpdated(false);
+        // grab the actor from the resident cache if it's there, otherwise deserialize it
+        Actor actor = null;
+        Instant lastPersistTime = Instant.now();
+        boolean unpersistedChanges = false;
+        if (residentCache != null) {
+            ResidentCache.Entry entry = residentCache.checkout(work.getActorAddress(), work.getCheckpointInstance());
+            if (entry != null) {
+                actor = entry.actor();
+                lastPersistTime = entry.lastPersistTime();
+                unpersistedChanges = !entry.isPersisted();
+            }
+        }
         
-        // fire msg
-        boolean shutdown = fire(actor, src, dst, Instant.now(), payload);
+        if (actor == null) {
+            SerializableActor serializableActor = work.getActor();
+            actor = deserialize(serializableActor);
+        }
         Context ctx = actor.context();
 
+        // Messages this actor tree sends to itself (or its children) can be fired right away without going through the store, so long as
+        // they don't jump ahead of messages already queued in the store for this actor. If the store gave back fewer messages than were
+        // asked for, nothing else was queued at the time this work was pulled -- anything in the store from this actor tree is already in
+        // this batch. These in-process deliveries count towards the batch size.
+        //
+        // A checkpoint hit doesn't drain the queue, so don't deliver locally for those. A checkpoint hit also means the actor was rolled
+        // back, so the store's copy needs to be replaced even if nothing changes from here.
+        boolean checkpointHit = work.isCheckpointHit();
+        int localDeliveriesLeft = checkpointHit ? 0 : batchSize - work.getMessages().size();
 
+        // reset checkpoint updated flag (user will set it again if they want to checkpoint)
+        ctx.checkpointUpdated(false);
         
-        List<Message> newOutgoingMessages = new LinkedList<>();
-        List<SerializableActor> newRootActors = new LinkedList<>();
         
-        // create children BEFORE attempting to store -- children are bundled as part of the main actor
-        //   priming messages for children don't get sent until below
-        List<BatchedCreateChildCommand> newChildCommands = ctx.copyAndClearNewChildren();
-        createChildren(actor, newChildCommands, newOutgoingMessages);
         
-        // create new actors (does not actually store until below)
-        List<BatchedCreateRootCommand> newRootCommands = ctx.copyAndClearNewRoots();
-        createActors(newRootCommands, newOutgoingMessages, newRootActors);
+        List<Message> newOutgoingMessages = new LinkedList<>();
+        List<SerializableActor> newRootActors = new LinkedList<>();
+        List<Message> unprocessedMessages = new LinkedList<>();
         
-        // create outgoing messages (does not actually store until below)
-        List<BatchedOutgoingMessageCommand> newMessageCommands = ctx.copyAndClearOutgoingMessages();
-        createMessages(newMessageCommands, newOutgoingMessages);
+        // fire msgs one after another -- the actor is only put back into storage once the entire batch has been processed (or once a
+        // message sets a checkpoint, see below)
+        boolean shutdown = false;
+        LinkedList<Message> pendingMessages = new LinkedList<>(work.getMessages());
+        while (!pendingMessages.isEmpty()) {
+            Message message = pendingMessages.removeFirst();
+            Object payload = message.getMessage();
+            Address src = message.getSourceAddress();
+            Address dst = message.getDestinationAddress();
+
+            shutdown = fire(actor, src, dst, Instant.now(), payload);
+
+            // create children BEFORE attempting to store -- children are bundled as part of the main actor
+            //   priming messages for children don't get sent until below
+            //   children need to be created before the next message in the batch is fired, because it may be destined for them
+            List<Message> firedMessages = new LinkedList<>();
+            List<BatchedCreateChildCommand> newChildCommands = ctx.copyAndClearNewChildren();
+            createChildren(actor, newChildCommands, firedMessages);
+
+            // create new actors (does not actually store until below)
+            List<BatchedCreateRootCommand> newRootCommands = ctx.copyAndClearNewRoots();
+            createActors(newRootCommands, firedMessages, newRootActors);
+
+            // create outgoing messages (does not actually store until below)
+            List<BatchedOutgoingMessageCommand> newMessageCommands = ctx.copyAndClearOutgoingMessages();
+            createMessages(newMessageCommands, firedMessages);
+
+            // messages to this actor tree get added to the end of this batch if there's room, everything else gets sent out below (once
+            // there's no more room, all remaining messages to this actor tree get sent out as well, so they stay in order)
+            for (Message firedMessage : firedMessages) {
+                if (localDeliveriesLeft > 0 && ctx.self().isPrefixOf(firedMessage.getDestinationAddress())) {
+                    pendingMessages.addLast(firedMessage);
+                    localDeliveriesLeft--;
+                } else {
+                    newOutgoingMessages.add(firedMessage);
+                }
+            }
+            
+            if (shutdown) {
+                // Actor has finished -- any remaining messages in the batch would have been discarded along with the actor anyways
+                break;
+            }
+
+            if (ctx.checkpointUpdated() && !pendingMessages.isEmpty()) {
+                // The checkpoint has to be the state of the actor right after the message that set it (the same as it would be with a
+                // batch size of 1), so end the batch here. The rest of the batch goes back into the store, in order, ahead of anything
+                // this batch is sending to this actor tree.
+                unprocessedMessages.addAll(pendingMessages);
+                pendingMessages.clear();
+                break;
+            }
+        }
         
         
         if (shutdown) {
@@ -144,15 +217,39 @@ final class ActorRunnable implements Runnable {
                     .filter(m -> !ctx.self().isPrefixOf(m.getDestinationAddress()))
                     .collect(toList());
         } else {
-            serializableActor = serialize(actor);
-            boolean stored = store.store(serializableActor);
+            // Only write the actor back if something about it changed. If every message was rejected by the rule set or passed over by
+            // shortcircuit logic, the copy in the store is still good and the actor only needs to be released.
+            boolean filterDirty = checkAndClearFilterDirty(actor);
+            boolean dirty = checkAndClearDirty(actor) || checkpointHit;
+
+            boolean stored;
+            if (residentCache == null) {
+                if (dirty) {
+                    SerializableActor serializableActor = serialize(actor);
+                    serializableActor.setMessageFilterUnchanged(!filterDirty && !checkpointHit);
+                    stored = store.store(serializableActor);
+                } else {
+                    stored = store.release(ctx.self(), ctx.checkpointInstance());
+                }
+            } else {
+                // keep it resident -- only persisted if the checkpoint was updated or the write-behind interval elapsed (or if we're
+                // shutting down). If the rules for accepting messages changed, persist so the store has the right message filter.
+                stored = residentCache.checkin(
+                        actor,
+                        lastPersistTime,
+                        unpersistedChanges || dirty,
+                        shutdownFlag.get() || checkpointHit || filterDirty);
+            }
+
             if (!stored) {
                 // Actor couldn't be stored because it was superseded by a checkpoint (took too long to execute a msg?). This instance of
                 // the actor is no longer valid. Whatever it computed in terms of new messages to send out or new root actors to spawn
-                // should be discarded.
+                // should be discarded. Messages it never got to are still sent back in.
                 newRootActors.clear();
                 newOutgoingMessages.clear();
             }
+
+            newOutgoingMessages.addAll(0, unprocessedMessages);
         }
 
         storeActors(newRootActors);
@@ -205,7 +302,9 @@ final class ActorRunnable implements Runnable {
             Validate.validState(parentActor != null); // sanity test -- should never happen
 
             Actor childActor = new Actor(parentActor, childRunner, childCtx);
-            parentActor.children().put(childId, childActor);
+            parentActor.putChild(childId, childActor);
+            parentActor.context().dirty(true);
+            parentActor.context().filterDirty(true);
 
 
             bccc.getPrimingMessages().stream()
@@ -249,6 +348,33 @@ final class ActorRunnable implements Runnable {
         });
     }
 
+    // Check if any loaded actor in the tree has changed, and reset so the next check only picks up new changes. Unloaded children can't
+    // have changed.
+    private static boolean checkAndClearDirty(Actor actor) {
+        Context ctx = actor.context();
+        boolean dirty = ctx.dirty();
+        ctx.dirty(false);
+
+        for (Actor child : actor.children().values()) {
+            dirty |= checkAndClearDirty(child);
+        }
+
+        return dirty;
+    }
+
+    // Same as checkAndClearDirty(), but for changes that effect which messages the tree accepts.
+    private static boolean checkAndClearFilterDirty(Actor actor) {
+        Context ctx = actor.context();
+        boolean filterDirty = ctx.filterDirty();
+        ctx.filterDirty(false);
+
+        for (Actor child : actor.children().values()) {
+            filterDirty |= checkAndClearFilterDirty(child);
+        }
+
+        return filterDirty;
+    }
+
     private Actor findActorForContext(Actor actor, Context ctx) {
         if (actor.context() == ctx) {
             return actor;
@@ -321,7 +447,7 @@ final class ActorRunnable implements Runnable {
         
         
         // Recurse down 1 level
-        String childId = dst.removePrefix(ctx.self()).getElement(0);
+        String childId = dst.getElement(ctx.self().size());
         Actor childActor = actor.getChild(childId);
         if (childActor != null) {
             fireRecurse(childActor, src, dst, time, payload);
@@ -384,7 +510,7 @@ final class ActorRunnable implements Runnable {
                         break;
                     case PROCESS:
                         // ShortcircuitLogic asked us to run the actor as we normally would
-                        finished = !actor.runner().execute();
+                        finished = !execute(actor);
                         break;
                     case TERMINATE:
                         // ShortcircuitLogic asked us to terminate the actor
@@ -396,7 +522,7 @@ final class ActorRunnable implements Runnable {
                 }
             } else {
                 // No shortcircuit for this msg type -- run the actor as normal
-                finished = !actor.runner().execute();
+                finished = !execute(actor);
             }
             
             // Reset context fields
@@ -418,7 +544,9 @@ final class ActorRunnable implements Runnable {
                 // Child actor finished, remove the child from the parent but return false because the main/root actor isn't effected (it
                 // should keep running)
                 String childId = dst.getElement(dst.size() - 1);
-                actor.parent().children().remove(childId);
+                actor.parent().removeChild(childId);
+                actor.parent().context().dirty(true);
+                actor.parent().context().filterDirty(true);
                 return false;
             }
         } catch (Exception e) {
@@ -427,4 +555,10 @@ final class ActorRunnable implements Runnable {
             return true;
         }
     }
+
+    private static boolean execute(Actor actor) {
+        // coroutine state moves on execution, so the actor has to be written back
+        actor.context().dirty(true);
+        return actor.runner().execute();
+    }
 }
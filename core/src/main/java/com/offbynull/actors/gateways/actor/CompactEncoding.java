@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.actor;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.common.VarInts;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Helpers for the hand-written serialization of Context / RuleSet / SerializableActor. These show up in every stored actor, so they're
+// written out compactly rather than relying on default Java serialization.
+final class CompactEncoding {
+    
+    private static final int ADDRESS_SELF = 0;  // same as the actor's own address
+    private static final int ADDRESS_CHILD = 1; // actor's own address is a prefix, only the remaining elements are written
+    private static final int ADDRESS_FULL = 2;  // written out in full
+
+    private CompactEncoding() {
+        // do nothing
+    }
+
+    // Addresses used by an actor's rules are commonly the actor itself or one of its children, so those get written relative to self
+    // (self can be null if there's no address to be relative to)
+    static void writeAddress(DataOutput out, Address address, Address self) throws IOException {
+        if (self != null && self.equals(address)) {
+            out.writeByte(ADDRESS_SELF);
+        } else if (self != null && self.isPrefixOf(address)) {
+            out.writeByte(ADDRESS_CHILD);
+            writeElements(out, address, self.size());
+        } else {
+            out.writeByte(ADDRESS_FULL);
+            writeElements(out, address, 0);
+        }
+    }
+
+    static Address readAddress(DataInput in, Address self) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case ADDRESS_SELF:
+                checkSelf(self);
+                return self;
+            case ADDRESS_CHILD:
+                checkSelf(self);
+                return self.appendSuffix(Address.of(readElements(in)));
+            case ADDRESS_FULL:
+                return Address.of(readElements(in));
+            default:
+                throw new StreamCorruptedException("Unexpected address type: " + type);
+        }
+    }
+    
+    private static void checkSelf(Address self) throws IOException {
+        if (self == null) {
+            throw new StreamCorruptedException("Relative address encountered with nothing to be relative to");
+        }
+    }
+
+    private static void writeElements(DataOutput out, Address address, int start) throws IOException {
+        VarInts.writeUnsignedInt(out, address.size() - start);
+        for (int i = start; i < address.size(); i++) {
+            out.writeUTF(address.getElement(i));
+        }
+    }
+
+    private static List<String> readElements(DataInput in) throws IOException {
+        int size = VarInts.readUnsignedInt(in);
+        List<String> elements = new ArrayList<>(Math.min(size, 16));
+        for (int i = 0; i < size; i++) {
+            elements.add(in.readUTF());
+        }
+        return elements;
+    }
+
+    static <T extends Enum<T>> T readEnum(DataInput in, T[] values) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= values.length) {
+            throw new StreamCorruptedException("Unexpected ordinal: " + ordinal);
+        }
+        return values[ordinal];
+    }
+}
@@ -22,6 +22,10 @@ import com.offbynull.coroutines.user.Coroutine;
 import com.offbynull.actors.gateways.log.LogMessage;
 import com.offbynull.actors.address.Address;
 import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.actors.common.VarInts;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -30,6 +34,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import org.apache.commons.collections4.list.UnmodifiableList;
 import static org.apache.commons.collections4.list.UnmodifiableList.unmodifiableList;
 import org.apache.commons.lang3.Validate;
@@ -50,29 +55,38 @@ import org.apache.commons.lang3.Validate;
  */
 public final class Context implements Serializable {
     
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
     static final Object DEFAULT_CHECKPOINT_PAYLOAD = new DefaultCheckpointMessage();
     static final long DEFAULT_CHECKPOINT_TIMEOUT = Long.MAX_VALUE;
 
-    private RuleSet ruleSet;
-    private Address self;
-    private Instant time;
-    private Address source;
-    private Address destination;
-    private Object in;
-    private List<BatchedOutgoingMessageCommand> outs;
-    private List<BatchedCreateRootCommand> newRoots;
-    private List<BatchedCreateChildCommand> newChildren;
-    
-    private Map<Class<?>, ShortcircuitLogic> shortcircuits;
-    private Object checkpointPayload;
-    private long checkpointTimeout;
-    private int checkpointInstance; // counter that will inc on checkpoint recovert -- older instances won't be stored
-    private boolean checkpointUpdated; // checkpoint updated by the user
-    
-    private boolean intercept;
-    private SuspendFlag flag;
+    private static final int DEFAULT_CHECKPOINT_PAYLOAD_BIT = 1;
+    private static final int DEFAULT_CHECKPOINT_TIMEOUT_BIT = 1 << 1;
+    private static final int CHECKPOINT_UPDATED_BIT = 1 << 2;
+    private static final int INTERCEPT_BIT = 1 << 3;
+
+    // Everything is written out by hand (see writeObject()/readObject()) -- a context ends up in every stored actor
+    private transient RuleSet ruleSet;
+    private transient Address self;
+    private transient Instant time; // per-message fields (time/source/destination/in) are only set while a message is being processed
+    private transient Address source;
+    private transient Address destination;
+    private transient Object in;
+    private transient List<BatchedOutgoingMessageCommand> outs;
+    private transient List<BatchedCreateRootCommand> newRoots;
+    private transient List<BatchedCreateChildCommand> newChildren;
+    
+    private transient Map<Class<?>, ShortcircuitLogic> shortcircuits;
+    private transient Object checkpointPayload;
+    private transient long checkpointTimeout;
+    private transient int checkpointInstance; // counter that will inc on checkpoint recovert -- older instances won't be stored
+    private transient boolean checkpointUpdated; // checkpoint updated by the user
+    
+    private transient boolean intercept;
+    private transient SuspendFlag flag;
+
+    private transient boolean dirty; // state changed since last put into storage
+    private transient boolean filterDirty; // rules/intercept changed since last put into storage (message filter needs updating)
 
     Context(Address self) {
         Validate.notNull(self);
@@ -150,6 +164,7 @@ public final class Context implements Serializable {
         } else {
             shortcircuits.put(cls, shortcircuit);
         }
+        dirty = true;
     }
 
     /**
@@ -171,6 +186,7 @@ public final class Context implements Serializable {
         this.checkpointPayload = payload;
         this.checkpointTimeout = timeout;
         this.checkpointUpdated = true;
+        this.dirty = true;
     }
 
     /**
@@ -344,6 +360,8 @@ public final class Context implements Serializable {
      */
     public void intercept(boolean intercept) {
         this.intercept = true;
+        this.dirty = true;
+        this.filterDirty = true;
     }
 
     /**
@@ -364,6 +382,8 @@ public final class Context implements Serializable {
      */
     public void allow() {
         ruleSet.allowAll();
+        dirty = true;
+        filterDirty = true;
     }
 
     /**
@@ -377,6 +397,8 @@ public final class Context implements Serializable {
      */
     public void allow(Address source, boolean children, Class<?>... types) {
         ruleSet.allow(source, children, types);
+        dirty = true;
+        filterDirty = true;
     }
     
     /**
@@ -395,6 +417,8 @@ public final class Context implements Serializable {
      */
     public void block() {
         ruleSet.rejectAll();
+        dirty = true;
+        filterDirty = true;
     }
 
     /**
@@ -408,6 +432,8 @@ public final class Context implements Serializable {
      */
     public void block(Address source, boolean children, Class<?>... types) {
         ruleSet.reject(source, children, types);
+        dirty = true;
+        filterDirty = true;
     }
 
     /**
@@ -763,6 +789,23 @@ public final class Context implements Serializable {
         this.checkpointUpdated = checkpointUpdated;
     }
 
+    boolean dirty() {
+        return dirty;
+    }
+
+    void dirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    boolean filterDirty() {
+        return filterDirty;
+    }
+
+    void filterDirty(boolean filterDirty) {
+        this.filterDirty = filterDirty;
+    }
+
+    
     
     
     
@@ -770,6 +813,64 @@ public final class Context implements Serializable {
     
     
     
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        CompactEncoding.writeAddress(out, self, null);
+        ruleSet.writeTo(out, self);
+
+        // Child contexts share these lists with their parent, so they need to go through writeObject() -- sharing is kept intact
+        out.writeObject(outs);
+        out.writeObject(newRoots);
+        out.writeObject(newChildren);
+
+        VarInts.writeUnsignedInt(out, shortcircuits.size());
+        for (Entry<Class<?>, ShortcircuitLogic> entry : shortcircuits.entrySet()) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+
+        boolean defaultCheckpointPayload = checkpointPayload == DEFAULT_CHECKPOINT_PAYLOAD;
+        boolean defaultCheckpointTimeout = checkpointTimeout == DEFAULT_CHECKPOINT_TIMEOUT;
+        int bits = (defaultCheckpointPayload ? DEFAULT_CHECKPOINT_PAYLOAD_BIT : 0)
+                | (defaultCheckpointTimeout ? DEFAULT_CHECKPOINT_TIMEOUT_BIT : 0)
+                | (checkpointUpdated ? CHECKPOINT_UPDATED_BIT : 0)
+                | (intercept ? INTERCEPT_BIT : 0);
+        out.writeByte(bits);
+        out.writeByte(flag.ordinal());
+        if (!defaultCheckpointPayload) {
+            out.writeObject(checkpointPayload);
+        }
+        if (!defaultCheckpointTimeout) {
+            VarInts.writeLong(out, checkpointTimeout);
+        }
+        VarInts.writeInt(out, checkpointInstance);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        self = CompactEncoding.readAddress(in, null);
+        ruleSet = new RuleSet();
+        ruleSet.readFrom(in, self);
+
+        outs = (List<BatchedOutgoingMessageCommand>) in.readObject();
+        newRoots = (List<BatchedCreateRootCommand>) in.readObject();
+        newChildren = (List<BatchedCreateChildCommand>) in.readObject();
+
+        int shortcircuitCount = VarInts.readUnsignedInt(in);
+        shortcircuits = new HashMap<>();
+        for (int i = 0; i < shortcircuitCount; i++) {
+            Class<?> cls = (Class<?>) in.readObject();
+            ShortcircuitLogic shortcircuit = (ShortcircuitLogic) in.readObject();
+            shortcircuits.put(cls, shortcircuit);
+        }
+
+        int bits = in.readUnsignedByte();
+        flag = CompactEncoding.readEnum(in, SuspendFlag.values());
+        checkpointPayload = (bits & DEFAULT_CHECKPOINT_PAYLOAD_BIT) != 0 ? DEFAULT_CHECKPOINT_PAYLOAD : in.readObject();
+        checkpointTimeout = (bits & DEFAULT_CHECKPOINT_TIMEOUT_BIT) != 0 ? DEFAULT_CHECKPOINT_TIMEOUT : VarInts.readLong(in);
+        checkpointUpdated = (bits & CHECKPOINT_UPDATED_BIT) != 0;
+        intercept = (bits & INTERCEPT_BIT) != 0;
+        checkpointInstance = VarInts.readInt(in);
+    }
     
     static final class DefaultCheckpointMessage implements Serializable {
         private static final long serialVersionUID = 1L;
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.actor;
+
+import com.offbynull.actors.address.Address;
+import static com.offbynull.actors.gateways.actor.RuleSet.AccessType.ALLOW;
+import com.offbynull.actors.shuttle.Message;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Compact copy of the rules that an actor (and its children) use to decide which incoming messages get processed. Storage engines can
+ * keep this alongside an actor to drop incoming messages that the actor would reject anyways, without having to load the actor.
+ * <p>
+ * A message filter reflects the actor at the time it was created (see {@link SerializableActor#getMessageFilter() }). It doesn't change
+ * if the actor changes.
+ * @author Kasra Faghihi
+ */
+public final class MessageFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Address self;
+    private final RuleSet ruleSet;
+    private final boolean intercept;
+    private final HashMap<String, MessageFilter> children;
+
+    MessageFilter(Address self, RuleSet ruleSet, boolean intercept, Map<String, MessageFilter> children) {
+        Validate.notNull(self);
+        Validate.notNull(ruleSet);
+        Validate.notNull(children);
+        Validate.noNullElements(children.keySet());
+        Validate.noNullElements(children.values());
+
+        this.self = self;
+        this.ruleSet = new RuleSet(ruleSet); // copy -- the actor may keep changing after this
+        this.intercept = intercept;
+        this.children = new HashMap<>(children);
+    }
+
+    /**
+     * Determine if a message would be rejected without ever being seen by the actor it's destined for (or any of its parents).
+     * <p>
+     * This mirrors how the actor gateway routes an incoming message: the message travels from the root actor down to the destination actor.
+     * If it reaches the destination actor, that actor's rules decide if it's accepted. If a parent along the way intercepts messages to its
+     * children, that parent's rules decide if it's accepted -- if accepted, it's up to the parent to decide what happens to the message so
+     * it can't be determined here. If the destination actor doesn't exist, the message is rejected.
+     * @param message message to check
+     * @return {@code true} if {@code message} would definitely be rejected, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if the destination of {@code message} isn't this actor or one of its children
+     */
+    public boolean isRejected(Message message) {
+        Validate.notNull(message);
+
+        Address src = message.getSourceAddress();
+        Address dst = message.getDestinationAddress();
+        Class<?> type = message.getMessage().getClass();
+        Validate.isTrue(self.isPrefixOf(dst), "Message not destined for this actor: %s", message);
+
+        MessageFilter filter = this;
+        while (true) {
+            if (filter.self.equals(dst) || filter.intercept) {
+                return filter.ruleSet.evaluate(src, type) != ALLOW;
+            }
+
+            String childId = dst.getElement(filter.self.size());
+            filter = filter.children.get(childId);
+            if (filter == null) {
+                return true;
+            }
+        }
+    }
+}
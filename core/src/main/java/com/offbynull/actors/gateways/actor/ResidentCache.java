@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.actor;
+
+import static com.offbynull.actors.gateways.actor.SerializableActor.serialize;
+import com.offbynull.actors.address.Address;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Keeps live actors (runner + context) around between pieces of work so that they don't have to be deserialized every time they're pulled
+// from the store. Entries in this cache are for actors that are idle in the store -- an entry is removed (checked out) when its actor is
+// pulled from the store and added back (checked in) before the actor is put back into the store.
+//
+// While an actor is resident, the store may hold a stale copy of it. The copy in the store is brought up to date when...
+//   the actor updates its checkpoint (the store needs the latest state to checkpoint),
+//   the write-behind interval elapses (on check in or via flush()),
+//   the actor gets evicted to make room for other actors,
+//   the cache is flushed (e.g. on shutdown).
+//
+// Each entry has its own lock, which is held while the entry is being persisted or checked in. Checking out an entry waits on this lock,
+// so a thread that just pulled an actor from the store either gets the cached actor or finds that the cached actor was written back to the
+// store before it was pulled (storeIdle() refuses to write back an actor that's been pulled). Lock order is always entry -> cache.
+//
+// Checkpoint instance fencing is honoured by the store calls themselves (store/storeIdle/release all refuse an old instance) and by
+// checkout, which drops an entry if its checkpoint instance doesn't match the one the store handed out (a checkpoint hit).
+//
+// Closing the cache waits for check ins that are already writing to the store, then writes back everything that's resident. Check ins
+// that come in after the cache is closed go straight to the store (nothing is kept resident), so nothing is left behind unwritten when the
+// store itself gets closed.
+//
+// IMPORTANT: This only works if this gateway is the only one pulling work from the store. If other gateways are pulling from the same
+// store, they'll see stale state for resident actors.
+final class ResidentCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResidentCache.class);
+
+    private final Store store;
+    private final int capacity;
+    private final Duration writeBehindInterval;
+
+    private final LinkedHashMap<Address, Entry> entries; // access-ordered, eldest entry is least recently used
+
+    private final ReadWriteLock closeLock; // read-locked by check ins and flushes, write-locked by close (which waits for them to finish)
+    private boolean closed; // must only be accessed while holding closeLock
+
+    ResidentCache(Store store, int capacity, Duration writeBehindInterval) {
+        Validate.notNull(store);
+        Validate.notNull(writeBehindInterval);
+        Validate.isTrue(capacity > 0);
+        Validate.isTrue(!writeBehindInterval.isNegative());
+
+        this.store = store;
+        this.capacity = capacity;
+        this.writeBehindInterval = writeBehindInterval;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.closeLock = new ReentrantReadWriteLock();
+    }
+
+    Duration writeBehindInterval() {
+        return writeBehindInterval;
+    }
+
+    // Remove the actor for address, or return null if it isn't resident / has a different checkpoint instance than what the store handed
+    // out. If this returns null, the caller should load the actor from the store.
+    Entry checkout(Address address, int checkpointInstance) {
+        Validate.notNull(address);
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(address);
+        }
+
+        if (entry == null) {
+            return null;
+        }
+
+        synchronized (entry) {
+            if (entry.removed) {
+                // persisted and evicted while we were waiting on it -- the store has the latest state
+                return null;
+            }
+
+            entry.removed = true;
+            synchronized (this) {
+                entries.remove(address, entry);
+            }
+
+            int residentCheckpointInstance = entry.actor.context().checkpointInstance();
+            if (residentCheckpointInstance != checkpointInstance) {
+                // checkpoint hit -- the resident actor is no longer valid
+                LOG.debug("Dropping resident actor {} with old checkpoint instance: {} vs {}",
+                        address,
+                        residentCheckpointInstance,
+                        checkpointInstance);
+                return null;
+            }
+        }
+
+        return entry;
+    }
+
+    // Add the actor back in and then put it back into the store -- either in full (if it needs to be persisted) or by releasing it.
+    // Returns false if the store rejected it (old checkpoint instance).
+    //
+    // unpersistedChanges should be true if the actor has changed since it was last written to the store. If it's false, the actor is
+    // never written (the copy in the store is already up to date).
+    boolean checkin(Actor actor, Instant lastPersistTime, boolean unpersistedChanges, boolean forcePersist) {
+        Validate.notNull(actor);
+        Validate.notNull(lastPersistTime);
+        Validate.isTrue(actor.isRoot());
+
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return writeThrough(actor, unpersistedChanges, forcePersist);
+            }
+            return checkinResident(actor, lastPersistTime, unpersistedChanges, forcePersist);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private boolean writeThrough(Actor actor, boolean unpersistedChanges, boolean forcePersist) {
+        Context ctx = actor.context();
+        if (ctx.checkpointUpdated() || unpersistedChanges) {
+            SerializableActor serializableActor = serialize(actor);
+            serializableActor.setMessageFilterUnchanged(!forcePersist);
+            return store.store(serializableActor);
+        } else {
+            return store.release(ctx.self(), ctx.checkpointInstance());
+        }
+    }
+
+    private boolean checkinResident(Actor actor, Instant lastPersistTime, boolean unpersistedChanges, boolean forcePersist) {
+        Context ctx = actor.context();
+        Address address = ctx.self();
+
+        Instant now = Instant.now();
+        boolean persist = ctx.checkpointUpdated()
+                || (unpersistedChanges && forcePersist)
+                || (unpersistedChanges && Duration.between(lastPersistTime, now).compareTo(writeBehindInterval) >= 0);
+
+        Entry entry = new Entry(actor, persist ? now : lastPersistTime, persist || !unpersistedChanges);
+
+        boolean ret;
+        synchronized (entry) {
+            // Add BEFORE putting back into the store -- once it's in the store it can be pulled by another thread, and that thread needs to
+            // find it here
+            synchronized (this) {
+                entries.put(address, entry);
+            }
+
+            try {
+                if (persist) {
+                    // Rule changes always force a persist (see ActorRunnable), so if this one isn't forced the rules are the same as they
+                    // were the last time the actor was written and the store can keep its message filter
+                    SerializableActor serializableActor = serialize(actor);
+                    serializableActor.setMessageFilterUnchanged(!forcePersist);
+                    ret = store.store(serializableActor);
+                } else {
+                    ret = store.release(address, ctx.checkpointInstance());
+                }
+            } catch (RuntimeException re) {
+                remove(entry);
+                throw re;
+            }
+
+            if (!ret) {
+                remove(entry);
+            }
+        }
+
+        evict(capacity);
+
+        return ret;
+    }
+
+    // Write back resident actors that have changes that haven't been persisted since olderThan. Actors currently pulled from the store are
+    // skipped.
+    void flush(Instant olderThan) {
+        Validate.notNull(olderThan);
+
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return; // already written back by close()
+            }
+            writeBack(olderThan);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    // Write back all resident actors that have changes that haven't been persisted.
+    void flush() {
+        flush(Instant.MAX);
+    }
+
+    // Stop keeping actors resident, writing back the ones that have changes that haven't been persisted. Waits for check ins and flushes
+    // that are in progress to finish first.
+    void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        // Actors that can't be written back were pulled by another thread, which is about to check them out -- leave those in
+        evict(0);
+    }
+
+    private void writeBack(Instant olderThan) {
+        List<Entry> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) { // iterating values doesn't count as access, so LRU order isn't effected
+                if (!entry.persisted && entry.lastPersistTime.isBefore(olderThan)) {
+                    candidates.add(entry);
+                }
+            }
+        }
+
+        for (Entry entry : candidates) {
+            synchronized (entry) {
+                if (entry.removed || entry.persisted) {
+                    continue;
+                }
+
+                if (store.storeIdle(serializeUnchangedFilter(entry.actor))) {
+                    entry.lastPersistTime = Instant.now();
+                    entry.persisted = true;
+                }
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict(int keepCount) {
+        int excess;
+        List<Entry> candidates = new ArrayList<>();
+        synchronized (this) {
+            excess = entries.size() - keepCount;
+            Iterator<Entry> it = entries.values().iterator();
+            while (candidates.size() < excess && it.hasNext()) {
+                candidates.add(it.next());
+            }
+        }
+
+        for (Entry entry : candidates) {
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+
+                // If we fail to write it back, the actor was pulled by another thread which is about to check it out (or a checkpoint hit,
+                // in which case checkout will drop it). Leave it in and touch it so it isn't the first candidate for eviction next time.
+                Address address = entry.actor.context().self();
+                if (!entry.persisted && !store.storeIdle(serializeUnchangedFilter(entry.actor))) {
+                    synchronized (this) {
+                        entries.get(address);
+                    }
+                    continue;
+                }
+
+                LOG.debug("Evicted resident actor {}", address);
+                remove(entry);
+            }
+        }
+    }
+
+    // Rule changes always force a persist on checkin, so by the time an entry is written back idle its rules are the same as they were
+    // the last time it was written
+    private static SerializableActor serializeUnchangedFilter(Actor actor) {
+        SerializableActor serializableActor = serialize(actor);
+        serializableActor.setMessageFilterUnchanged(true);
+        return serializableActor;
+    }
+
+    private void remove(Entry entry) {
+        // must be called while holding entry's lock
+        entry.removed = true;
+        synchronized (this) {
+            entries.remove(entry.actor.context().self(), entry);
+        }
+    }
+
+    static final class Entry {
+        private final Actor actor;
+        private volatile Instant lastPersistTime;
+        private volatile boolean persisted; // store has the latest state for actor
+        private boolean removed;
+
+        private Entry(Actor actor, Instant lastPersistTime, boolean persisted) {
+            this.actor = actor;
+            this.lastPersistTime = lastPersistTime;
+            this.persisted = persisted;
+        }
+
+        Actor actor() {
+            return actor;
+        }
+
+        Instant lastPersistTime() {
+            return lastPersistTime;
+        }
+
+        boolean isPersisted() {
+            return persisted;
+        }
+    }
+}
@@ -17,12 +17,21 @@
 package com.offbynull.actors.gateways.actor;
 
 import com.offbynull.actors.address.Address;
+import com.offbynull.actors.common.VarInts;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import org.apache.commons.collections4.set.UnmodifiableSet;
 import org.apache.commons.lang3.Validate;
 
@@ -32,20 +41,29 @@ import org.apache.commons.lang3.Validate;
  */
 public final class RuleSet implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
-    private AccessType defaultAccessType;
-    private final Map<Address, AddressRule> rules;
+    // Written out by hand (see writeTo()/readFrom())
+    private transient AccessType defaultAccessType;
+    private transient Map<Address, AddressRule> rules;
+
+    // Derived from rules, never written out. Compiled lazily on the next evaluate() after rules change, except for copies (see copy
+    // constructor).
+    private transient RuleNode compiledRules;
+    private transient DecisionCache decisionCache;
     
     RuleSet() {
         defaultAccessType = AccessType.REJECT;
         rules = new HashMap<>();
     }
 
-    // deep copy
+    // deep copy -- compiled up front because copies get handed to MessageFilter, which may get evaluated by many threads at once (so
+    // evaluate() can't be left to lazily assign anything)
     RuleSet(RuleSet other) {
         defaultAccessType = other.defaultAccessType;
         rules = new HashMap<>(other.rules);
+        compiledRules = other.compiledRules != null ? other.compiledRules : RuleNode.compile(rules); // immutable, safe to share
+        decisionCache = new DecisionCache();
     }
     
     /**
@@ -54,6 +72,7 @@ public final class RuleSet implements Serializable {
     public void allowAll() {
         defaultAccessType = AccessType.ALLOW;
         rules.clear();
+        invalidate();
     }
 
     /**
@@ -62,6 +81,7 @@ public final class RuleSet implements Serializable {
     public void rejectAll() {
         defaultAccessType = AccessType.REJECT;
         rules.clear();
+        invalidate();
     }
 
     /**
@@ -76,6 +96,7 @@ public final class RuleSet implements Serializable {
         Validate.notNull(types);
         Validate.noNullElements(types);
         rules.put(address, new AddressRule(includeChildren, AccessType.ALLOW, Arrays.asList(types)));
+        invalidate();
     }
 
     /**
@@ -101,6 +122,7 @@ public final class RuleSet implements Serializable {
         Validate.notNull(types);
         Validate.noNullElements(types);
         rules.put(address, new AddressRule(includeChildren, AccessType.REJECT, Arrays.asList(types)));
+        invalidate();
     }
     
     /**
@@ -124,29 +146,90 @@ public final class RuleSet implements Serializable {
         Validate.notNull(address);
         Validate.notNull(type);
         
-        // Find greatest prefix;
+        if (compiledRules == null) {
+            compiledRules = RuleNode.compile(rules);
+        }
+        if (decisionCache == null) {
+            decisionCache = new DecisionCache();
+        }
+
+        // Walk down the trie as far as the address goes, remembering the deepest node that has a rule (root if none do)
+        RuleNode deepest = compiledRules;
+        int deepestSize = 0;
+        RuleNode node = compiledRules;
         for (int i = 0; i < address.size(); i++) {
-            Address foundAddressPrefix = address.removeSuffix(i);
-            AddressRule rule = rules.get(foundAddressPrefix);
-            
-            // If you found a rule prefix, and you're not evaluating a child address of the rule OR you are evaluating a child address of
-            // the rule but the rule applies to child address as well, then return the rule's access type
-            if (rule != null) {
-                boolean evaluatingChildAddress = foundAddressPrefix.size() < address.size();
-                if (!evaluatingChildAddress || (evaluatingChildAddress && rule.includeChildren)) {
-                    // The address matches the address in the rule, but we still have to check the type being evaluated to see if it matches
-                    // Note that an empty type set means that any type is let through
-                    if (rule.getTypes().isEmpty() || rule.getTypes().contains(type)) {
-                        return rule.getAccessType();
-                    }
-                }
+            node = node.getChild(address.getElement(i));
+            if (node == null) {
+                break;
             }
-            
-            // Otherwise keep going up until you find the next rule to evaluate
+            if (node.rule != null) {
+                deepest = node;
+                deepestSize = i + 1;
+            }
+        }
+        
+        // The decision only depends on which node the walk stopped at, whether the address is exactly that node's address (or a child of
+        // it), and the type -- so that's what the cache is keyed on
+        boolean evaluatingChildAddress = deepestSize < address.size();
+        AccessType accessType = decisionCache.get(deepest, evaluatingChildAddress, type);
+        if (accessType == null) {
+            accessType = deepest.evaluate(evaluatingChildAddress, type, defaultAccessType);
+            decisionCache.put(deepest, evaluatingChildAddress, type, accessType);
         }
+        return accessType;
+    }
+    
+    private void invalidate() {
+        compiledRules = null;
+        decisionCache = null;
+    }
+    
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        writeTo(out, null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        readFrom(in, null);
         
-        // No rule found, return the default access type
-        return defaultAccessType;
+        // may be a deserialized MessageFilter copy, so compile up front for the same reason as the copy constructor
+        compiledRules = RuleNode.compile(rules);
+        decisionCache = new DecisionCache();
+    }
+
+    // Addresses in rules are written relative to self where possible (self may be null)
+    void writeTo(ObjectOutput out, Address self) throws IOException {
+        out.writeByte(defaultAccessType.ordinal());
+        VarInts.writeUnsignedInt(out, rules.size());
+        for (Entry<Address, AddressRule> entry : rules.entrySet()) {
+            AddressRule rule = entry.getValue();
+            CompactEncoding.writeAddress(out, entry.getKey(), self);
+            out.writeByte(rule.accessType.ordinal());
+            out.writeBoolean(rule.includeChildren);
+            VarInts.writeUnsignedInt(out, rule.types.size());
+            for (Class<?> type : rule.types) {
+                out.writeObject(type);
+            }
+        }
+    }
+
+    // Replaces whatever's in this rule set
+    void readFrom(ObjectInput in, Address self) throws IOException, ClassNotFoundException {
+        defaultAccessType = CompactEncoding.readEnum(in, AccessType.values());
+        int ruleCount = VarInts.readUnsignedInt(in);
+        rules = new HashMap<>();
+        invalidate();
+        for (int i = 0; i < ruleCount; i++) {
+            Address address = CompactEncoding.readAddress(in, self);
+            AccessType accessType = CompactEncoding.readEnum(in, AccessType.values());
+            boolean includeChildren = in.readBoolean();
+            int typeCount = VarInts.readUnsignedInt(in);
+            List<Class<?>> types = new ArrayList<>(Math.min(typeCount, 16));
+            for (int j = 0; j < typeCount; j++) {
+                types.add((Class<?>) in.readObject());
+            }
+            rules.put(address, new AddressRule(includeChildren, accessType, types));
+        }
     }
     
 
@@ -182,6 +265,114 @@ public final class RuleSet implements Serializable {
         
     }
     
+    // Immutable prefix trie of the rules, keyed by address element. Each node holds the rule for the address it represents (if any) and a
+    // link to the closest node above it that has a rule.
+    private static final class RuleNode {
+        private final Map<String, RuleNode> children;
+        private final AddressRule rule;
+        private final RuleNode parentWithRule;
+
+        private RuleNode(AddressRule rule, RuleNode parentWithRule) {
+            this.children = new HashMap<>();
+            this.rule = rule;
+            this.parentWithRule = parentWithRule;
+        }
+
+        static RuleNode compile(Map<Address, AddressRule> rules) {
+            // Sort by size so that parents get created before their children -- nodes need to know the closest parent with a rule when
+            // they're created
+            List<Entry<Address, AddressRule>> entries = new ArrayList<>(rules.entrySet());
+            entries.sort((x, y) -> Integer.compare(x.getKey().size(), y.getKey().size()));
+
+            RuleNode root = new RuleNode(null, null);
+            for (Entry<Address, AddressRule> entry : entries) {
+                Address address = entry.getKey();
+                RuleNode node = root;
+                RuleNode closestWithRule = null;
+                for (int i = 0; i < address.size(); i++) {
+                    String element = address.getElement(i);
+                    RuleNode child = node.children.get(element);
+                    if (child == null) {
+                        AddressRule childRule = i == address.size() - 1 ? entry.getValue() : null;
+                        child = new RuleNode(childRule, closestWithRule);
+                        node.children.put(element, child);
+                    }
+                    node = child;
+                    if (node.rule != null) {
+                        closestWithRule = node;
+                    }
+                }
+            }
+            return root;
+        }
+
+        RuleNode getChild(String element) {
+            return children.get(element);
+        }
+
+        // Rules closer to the source address win. If the rule doesn't apply to the type (or to children, if a child is being evaluated),
+        // keep moving up to the next rule.
+        AccessType evaluate(boolean evaluatingChildAddress, Class<?> type, AccessType defaultAccessType) {
+            RuleNode node = rule != null ? this : parentWithRule; // root is the only node evaluated that doesn't have a rule
+            boolean child = evaluatingChildAddress;
+            while (node != null) {
+                AddressRule nodeRule = node.rule;
+                if (!child || nodeRule.isIncludeChildren()) {
+                    // Note that an empty type set means that any type is let through
+                    if (nodeRule.getTypes().isEmpty() || nodeRule.getTypes().contains(type)) {
+                        return nodeRule.getAccessType();
+                    }
+                }
+                node = node.parentWithRule;
+                child = true;
+            }
+            return defaultAccessType;
+        }
+    }
+
+    // Small direct-mapped cache of (trie node, child flag, type) -> access type. Colliding entries just overwrite each other.
+    //
+    // Safe to use from multiple threads without locking: each slot holds an immutable entry, so a reader either sees a whole entry or an
+    // older one (or null). Racing writers can only cause cache misses.
+    private static final class DecisionCache {
+        private static final int SIZE = 64; // must be power of 2
+
+        private final Decision[] decisions = new Decision[SIZE];
+
+        AccessType get(RuleNode node, boolean child, Class<?> type) {
+            Decision decision = decisions[index(node, child, type)];
+            if (decision != null && decision.node == node && decision.child == child && decision.type == type) {
+                return decision.accessType;
+            }
+            return null;
+        }
+
+        void put(RuleNode node, boolean child, Class<?> type, AccessType accessType) {
+            decisions[index(node, child, type)] = new Decision(node, child, type, accessType);
+        }
+
+        private static int index(RuleNode node, boolean child, Class<?> type) {
+            int hash = System.identityHashCode(node) * 31 + System.identityHashCode(type);
+            hash = (hash << 1) | (child ? 1 : 0);
+            hash ^= hash >>> 16;
+            return hash & (SIZE - 1);
+        }
+    }
+
+    private static final class Decision {
+        private final RuleNode node;
+        private final boolean child;
+        private final Class<?> type;
+        private final AccessType accessType;
+
+        Decision(RuleNode node, boolean child, Class<?> type, AccessType accessType) {
+            this.node = node;
+            this.child = child;
+            this.type = type;
+            this.accessType = accessType;
+        }
+    }
+    
     /**
      * Access type.
      */
@@ -17,10 +17,12 @@
 package com.offbynull.actors.gateways.actor;
 
 import com.offbynull.actors.address.Address;
-import com.offbynull.coroutines.user.CoroutineReader;
-import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.actors.common.VarInts;
 import com.offbynull.coroutines.user.CoroutineWriter;
 import com.offbynull.coroutines.user.SerializedState;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -32,13 +34,15 @@ import org.apache.commons.lang3.Validate;
  * @author Kasra Faghihi
  */
 public final class SerializableActor implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
-    private final SerializableActor parent;
-    private final Map<String, SerializableActor> children; 
+    // Written out by hand (see writeObject()/readObject()) to keep the per-actor overhead of Java serialization down
+    private transient Map<String, SerializableActor> children; 
     
-    private final SerializedState runner;
-    private final Context context;
+    private transient SerializedState runner;
+    private transient Context context;
+    
+    private transient boolean messageFilterUnchanged; // never written out -- a deserialized actor always has this as false
 
     
     /**
@@ -100,6 +104,38 @@ public final class SerializableActor implements Serializable {
     public void setCheckpointUpdated(boolean checkpointUpdated) {
         context.checkpointUpdated(checkpointUpdated);
     }
+
+    /**
+     * Get message filter unchanged flag for this actor. Indicates that the rules of this actor (and its children) haven't changed since
+     * it was last put into storage, so storage engines can keep using the message filter they already have for it rather than calling
+     * {@link #getMessageFilter() } again. This flag isn't serialized (it's always {@code false} for a deserialized actor).
+     * @return message filter unchanged flag
+     */
+    public boolean getMessageFilterUnchanged() {
+        return messageFilterUnchanged;
+    }
+
+    /**
+     * Set message filter unchanged flag for this actor. Indicates that the rules of this actor (and its children) haven't changed since
+     * it was last put into storage.
+     * @param messageFilterUnchanged message filter unchanged flag
+     */
+    public void setMessageFilterUnchanged(boolean messageFilterUnchanged) {
+        this.messageFilterUnchanged = messageFilterUnchanged;
+    }
+    
+    
+    /**
+     * Get a compact copy of the rules that this actor (and its children) use to decide which incoming messages get processed.
+     * @return message filter
+     */
+    public MessageFilter getMessageFilter() {
+        Map<String, MessageFilter> childFilters = new HashMap<>();
+        for (Entry<String, SerializableActor> child : children.entrySet()) {
+            childFilters.put(child.getKey(), child.getValue().getMessageFilter());
+        }
+        return new MessageFilter(context.self(), context.ruleSet(), context.intercept(), childFilters);
+    }
     
     
     static SerializableActor serialize(Actor actor) {
@@ -108,21 +144,25 @@ public final class SerializableActor implements Serializable {
         
         CoroutineWriter coroutineWriter = new CoroutineWriter();
         
-        return serialize(null, actor, coroutineWriter);
+        return serialize(actor, coroutineWriter);
     }
 
-    private static SerializableActor serialize(SerializableActor parentActor, Actor actorToConvert, CoroutineWriter coroutineWriter) {
-        Map<String, SerializableActor> children = new HashMap<>();
-        SerializedState runner = coroutineWriter.deconstruct(actorToConvert.runner());
+    private static SerializableActor serialize(Actor actorToConvert, CoroutineWriter coroutineWriter) {
+        // Children that were never loaded haven't changed, so write them back as-is
+        Map<String, SerializableActor> children = new HashMap<>(actorToConvert.unloadedChildren());
+        // A runner that was never reconstructed hasn't moved, so write it back as-is
+        SerializedState runner = actorToConvert.isRunnerLoaded()
+                ? coroutineWriter.deconstruct(actorToConvert.runner())
+                : actorToConvert.unloadedRunner();
         Context context = actorToConvert.context();
 
-        SerializableActor actor = new SerializableActor(parentActor, children, runner, context);
+        SerializableActor actor = new SerializableActor(children, runner, context);
         
         for (Entry<String, Actor> childActorToConvertEntry : actorToConvert.children().entrySet()) {
             String childActorId = childActorToConvertEntry.getKey();
             Actor childActorToConvert = childActorToConvertEntry.getValue();
             
-            SerializableActor childActor = serialize(actor, childActorToConvert, coroutineWriter);
+            SerializableActor childActor = serialize(childActorToConvert, coroutineWriter);
             
             children.put(childActorId, childActor);
         }
@@ -139,30 +179,19 @@ public final class SerializableActor implements Serializable {
 
     static Actor deserialize(SerializableActor actor) {
         Validate.notNull(actor);
-        Validate.isTrue(actor.parent == null);
-        
-        CoroutineReader coroutineReader = new CoroutineReader();
         
-        return deserialize(null, actor, coroutineReader);
+        return deserialize(null, actor);
     }
 
-    private static Actor deserialize(Actor parentActor, SerializableActor actorToConvert, CoroutineReader coroutineReader) {
-        Map<String, Actor> children = new HashMap<>();
-        CoroutineRunner runner = coroutineReader.reconstruct(actorToConvert.runner);
+    // Children aren't reconstructed here -- they're reconstructed individually if and when they're needed (see Actor.getChild()). An
+    // actor with many children only pays for the ones that a message gets routed through. The same goes for the runner (see
+    // Actor.runner()) -- messages that are rejected or handled by shortcircuit logic never need the coroutine.
+    static Actor deserialize(Actor parentActor, SerializableActor actorToConvert) {
+        Validate.notNull(actorToConvert);
+
         Context context = actorToConvert.context;
 
-        Actor actor = new Actor(parentActor, runner, children, context);
-        
-        for (Entry<String, SerializableActor> childActorToConvertEntry : actorToConvert.children.entrySet()) {
-            String childActorId = childActorToConvertEntry.getKey();
-            SerializableActor childActorToConvert = childActorToConvertEntry.getValue();
-            
-            Actor childActor = deserialize(actor, childActorToConvert, coroutineReader);
-            
-            children.put(childActorId, childActor);
-        }
-        
-        return actor;
+        return new Actor(parentActor, actorToConvert.runner, new HashMap<>(actorToConvert.children), context);
     }
 
 
@@ -174,10 +203,31 @@ public final class SerializableActor implements Serializable {
     
     
 
-    private SerializableActor(SerializableActor parent, Map<String, SerializableActor> children, SerializedState runner, Context context) {
-        this.parent = parent;
+    private SerializableActor(Map<String, SerializableActor> children, SerializedState runner, Context context) {
         this.children = children;
         this.runner = runner;
         this.context = context;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeObject(context);
+        out.writeObject(runner);
+        VarInts.writeUnsignedInt(out, children.size());
+        for (Entry<String, SerializableActor> child : children.entrySet()) {
+            out.writeUTF(child.getKey());
+            out.writeObject(child.getValue());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        context = (Context) in.readObject();
+        runner = (SerializedState) in.readObject();
+        int childCount = VarInts.readUnsignedInt(in);
+        children = new HashMap<>();
+        for (int i = 0; i < childCount; i++) {
+            String id = in.readUTF();
+            SerializableActor child = (SerializableActor) in.readObject();
+            children.put(id, child);
+        }
+    }
 }
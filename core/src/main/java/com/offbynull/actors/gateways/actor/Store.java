@@ -19,8 +19,13 @@ package com.offbynull.actors.gateways.actor;
 import com.offbynull.actors.address.Address;
 import com.offbynull.actors.shuttle.Message;
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import org.apache.commons.collections4.list.UnmodifiableList;
+import static org.apache.commons.collections4.list.UnmodifiableList.unmodifiableList;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -64,10 +69,14 @@ import org.apache.commons.lang3.Validate;
  * To...
  * <ul>
  * <li>pull an actor along with a message for that actor to execute: {@link #take()}</li>
+ * <li>pull an actor along with multiple messages for that actor to execute: {@link #takeBatch(int)}</li>
  * <li>push an actor that's finished executing a message back in: {@link #store(com.offbynull.actors.gateways.actor.SerializableActor)}</li>
  * <li>push a new actor: {@link #store(com.offbynull.actors.gateways.actor.SerializableActor)}</li>
  * <li>push a new messages for actors: {@link #store(com.offbynull.actors.shuttle.Message...)}</li>
  * <li>remove an actor: {@link #discard(com.offbynull.actors.address.Address)}</li>
+ * <li>push an actor that's finished executing back in without replacing its state:
+ * {@link #release(com.offbynull.actors.address.Address, int)}</li>
+ * <li>replace the state of an idle actor: {@link #storeIdle(com.offbynull.actors.gateways.actor.SerializableActor)}</li>
  * </ul>
  * <p>
  * <strong>Other Details</strong>
@@ -94,6 +103,43 @@ public interface Store extends Closeable {
      */
     boolean store(SerializableActor actor);
 
+    /**
+     * Puts an actor that isn't currently executing back into storage. Unlike {@link #store(SerializableActor)}, this method only replaces
+     * the state of an actor that's already in storage and idle -- it won't insert a new actor, it won't touch an actor that's currently
+     * executing (pulled by {@link #takeBatch(int)} but not yet put back in), and it won't update the actor's checkpoint (the checkpoint
+     * updated flag is ignored).
+     * <p>
+     * The intent of this method is to let the caller persist the latest state of an actor that it's been holding on to, without
+     * interfering with another caller that may have pulled the actor in the meantime.
+     * <p>
+     * Just like {@link #store(SerializableActor)}, the actor must have a checkpoint instance equal to the one in storage.
+     * @param actor actor to store
+     * @return {@code false} if couldn't be stored because {@code actor} doesn't exist, is currently executing, or has an old checkpoint
+     * instance
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if the operation could not complete successfully, or if this storage engine has been closed
+     */
+    boolean storeIdle(SerializableActor actor);
+
+    /**
+     * Marks an actor that was pulled by {@link #takeBatch(int)} as finished executing, but without replacing its state in storage. Once
+     * released, the actor becomes eligible for work again just as if it were put back in with {@link #store(SerializableActor)}.
+     * <p>
+     * The intent of this method is to let the caller hold on to the latest state of an actor (e.g. in memory) and persist it at a later
+     * point, rather than each time the actor finishes executing. Keep in mind that, until it's persisted, the state in storage will be
+     * stale -- anything pulled out of storage for this actor will be its last persisted state.
+     * <p>
+     * Just like {@link #store(SerializableActor)}, the checkpoint instance must be equal to the one in storage. If a checkpoint hit while
+     * the actor was executing, the actor won't be released (it's already been handed out again from its checkpointed state).
+     * @param address address of actor to release
+     * @param checkpointInstance checkpoint instance of the actor being released
+     * @return {@code false} if couldn't be released because the actor doesn't exist or {@code checkpointInstance} is old
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code address} is invalid (bad prefix or unexpected size)
+     * @throws IllegalStateException if the operation could not complete successfully, or if this storage engine has been closed
+     */
+    boolean release(Address address, int checkpointInstance);
+
     /**
      * Equivalent to calling {@code store(Arrays.asList(messages))}.
      * @param messages messages coming from {@code actor}
@@ -133,22 +179,43 @@ public interface Store extends Closeable {
     void discard(Address address);
 
     /**
-     * Pull a piece of work (message along with the actor responsible for executing it) from storage. If no work is available, this
+     * Equivalent to calling {@code takeBatch(1)}.
+     * @return actor and message for actor
+     * @throws IllegalStateException if the operation could not complete successfully, or if this storage engine has been closed
+     */
+    default StoredWork take() {
+        return takeBatch(1);
+    }
+
+    /**
+     * Pull a piece of work (messages along with the actor responsible for executing them) from storage. If no work is available, this
      * method blocks until work becomes available.
      * <p>
      * The returned work will either be ...
      * <ul>
-     * <li><b>an actor in its latest state with the next pending message in its incoming message queue.</b></li>
+     * <li><b>an actor in its latest state with up to {@code maxMessages} of the next pending messages in its incoming message queue.</b>
+     * The messages are returned in the order they were queued.</li>
      * <li><b>an actor in its checkpointed state with its checkpoint message.</b> This only happens if the storage engine determined that
      * the actor's checkpoint timeout elapsed. Both the checkpoint instance of the actor being returned and the checkpoint instance in
      * storage will be incremented, and the checkpoint timeout will be set to infinity so that the checkpoint doesn't get triggered again
-     * (it's up to the actor to reset it).</li>
+     * (it's up to the actor to reset it). Checkpoint work always contains a single message, regardless of {@code maxMessages}.</li>
      * </ul>
-     * The actor returned will not be eligible for work until it either finishes executing or its checkpoint timeout elapses.
-     * @return actor and message for actor
+     * The actor returned will not be eligible for work until it either finishes executing or its checkpoint timeout elapses. Messages
+     * handed out as part of a batch are removed from storage, so the actor must process all of them before being put back in.
+     * @param maxMessages maximum number of messages to pull for the actor
+     * @return actor and messages for actor
+     * @throws IllegalArgumentException if {@code maxMessages <= 0}
      * @throws IllegalStateException if the operation could not complete successfully, or if this storage engine has been closed
      */
-    StoredWork take();
+    StoredWork takeBatch(int maxMessages);
+
+    /**
+     * Notifies this storage engine that the calling thread won't be pulling any more work (e.g. its worker is shutting down). Storage
+     * engines that keep state for each thread that calls {@link #takeBatch(int)} should release it here. Does nothing by default.
+     */
+    default void stopTaking() {
+        // do nothing
+    }
     
     
     
@@ -159,43 +226,144 @@ public interface Store extends Closeable {
     
     
     /**
-     * A piece of work that requires processing (an actor with an incoming message for that actor).
+     * A piece of work that requires processing (an actor with incoming messages for that actor).
      */
     final class StoredWork {
-        private final Message message;
-        private final SerializableActor actor;
+        private final UnmodifiableList<Message> messages;
+        private final Address actorAddress;
+        private final int checkpointInstance;
+        private final boolean checkpointHit;
+        private Supplier<SerializableActor> actorSupplier;
+        private SerializableActor actor;
 
         /**
-         * Constructs a {@link StoredWork} object.
+         * Constructs a {@link StoredWork} object. Equivalent to calling {@code new StoredWork(Arrays.asList(message), actor)}.
          * @param message message to process
          * @param actor actor to process
          * @throws NullPointerException if any argument is {@code null}
+         * @throws IllegalArgumentException if {@code message} isn't destined for {@code actor}
          */
         public StoredWork(Message message, SerializableActor actor) {
-            Validate.notNull(message);
-            Validate.notNull(actor);
+            this(Arrays.asList(message), actor);
+        }
 
-            Address actorAddr = actor.getSelf();
-            Address dstAddr = message.getDestinationAddress();
-            Validate.isTrue(actorAddr.isPrefixOf(dstAddr));
+        /**
+         * Constructs a {@link StoredWork} object. The work is flagged as a checkpoint hit if {@code actor}'s checkpoint updated flag is set
+         * (see {@link SerializableActor#getCheckpointUpdated() }).
+         * @param messages messages to process (in the order they should be processed)
+         * @param actor actor to process
+         * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+         * @throws IllegalArgumentException if {@code messages} is empty, or if any of {@code messages} isn't destined for {@code actor}
+         */
+        public StoredWork(List<Message> messages, SerializableActor actor) {
+            this(messages, actor.getSelf(), actor.getCheckpointInstance(), actor.getCheckpointUpdated(), () -> actor);
+        }
+
+        /**
+         * Constructs a {@link StoredWork} object where the actor is only loaded once it's requested. Storage engines should use this
+         * constructor when loading the actor is expensive (e.g. it needs to be deserialized), as the caller may already have the actor's
+         * latest state on hand and never request it.
+         * @param messages messages to process (in the order they should be processed)
+         * @param actorAddress address of actor to process
+         * @param checkpointInstance checkpoint instance of actor to process
+         * @param actorSupplier loads the actor to process (invoked at most once, and only if {@link #getActor() } is called)
+         * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+         * @throws IllegalArgumentException if {@code messages} is empty, or if any of {@code messages} isn't destined for
+         * {@code actorAddress}
+         */
+        public StoredWork(List<Message> messages, Address actorAddress, int checkpointInstance,
+                Supplier<SerializableActor> actorSupplier) {
+            this(messages, actorAddress, checkpointInstance, false, actorSupplier);
+        }
 
-            this.message = message;
-            this.actor = actor;
+        /**
+         * Constructs a {@link StoredWork} object where the actor is only loaded once it's requested. Same as
+         * {@link #StoredWork(java.util.List, com.offbynull.actors.address.Address, int, java.util.function.Supplier) }, but lets the
+         * storage engine flag the work as a checkpoint hit (the actor was rolled back to its checkpoint and {@code messages} is the
+         * checkpoint message).
+         * @param messages messages to process (in the order they should be processed)
+         * @param actorAddress address of actor to process
+         * @param checkpointInstance checkpoint instance of actor to process
+         * @param checkpointHit {@code true} if this work is for a checkpoint hit
+         * @param actorSupplier loads the actor to process (invoked at most once, and only if {@link #getActor() } is called)
+         * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+         * @throws IllegalArgumentException if {@code messages} is empty, or if any of {@code messages} isn't destined for
+         * {@code actorAddress}
+         */
+        public StoredWork(List<Message> messages, Address actorAddress, int checkpointInstance, boolean checkpointHit,
+                Supplier<SerializableActor> actorSupplier) {
+            Validate.notNull(messages);
+            Validate.notNull(actorAddress);
+            Validate.notNull(actorSupplier);
+            Validate.noNullElements(messages);
+            Validate.isTrue(!messages.isEmpty());
+
+            for (Message message : messages) {
+                Address dstAddr = message.getDestinationAddress();
+                Validate.isTrue(actorAddress.isPrefixOf(dstAddr));
+            }
+
+            this.messages = (UnmodifiableList<Message>) unmodifiableList(new ArrayList<>(messages));
+            this.actorAddress = actorAddress;
+            this.checkpointInstance = checkpointInstance;
+            this.checkpointHit = checkpointHit;
+            this.actorSupplier = actorSupplier;
         }
 
         /**
-         * Get message to process.
-         * @return message
+         * Get the first message to process.
+         * @return first message
          */
         public Message getMessage() {
-            return message;
+            return messages.get(0);
+        }
+
+        /**
+         * Get messages to process.
+         * @return messages (in the order they should be processed)
+         */
+        public UnmodifiableList<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * Get address of actor to process.
+         * @return actor address
+         */
+        public Address getActorAddress() {
+            return actorAddress;
+        }
+
+        /**
+         * Get checkpoint instance of actor to process.
+         * @return actor checkpoint instance
+         */
+        public int getCheckpointInstance() {
+            return checkpointInstance;
+        }
+
+        /**
+         * Get whether this work is for a checkpoint hit. If it is, the actor was rolled back to its checkpoint and the messages being
+         * processed aren't from its message queue.
+         * @return {@code true} if this work is for a checkpoint hit
+         */
+        public boolean isCheckpointHit() {
+            return checkpointHit;
         }
 
         /**
-         * Get actor to process.
+         * Get actor to process. If the actor hasn't been loaded yet, it's loaded by this call.
          * @return actor
+         * @throws IllegalStateException if the loaded actor has a different address than {@link #getActorAddress() }
          */
         public SerializableActor getActor() {
+            if (actor == null) {
+                SerializableActor loadedActor = actorSupplier.get();
+                Validate.validState(loadedActor != null);
+                Validate.validState(actorAddress.equals(loadedActor.getSelf()));
+                actor = loadedActor;
+                actorSupplier = null;
+            }
             return actor;
         }
 
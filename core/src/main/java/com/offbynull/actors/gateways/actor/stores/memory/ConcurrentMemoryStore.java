@@ -0,0 +1,745 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
+import com.offbynull.actors.gateways.actor.MessageFilter;
+import com.offbynull.actors.gateways.actor.SerializableActor;
+import com.offbynull.actors.gateways.actor.Store;
+import com.offbynull.actors.shuttle.Message;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A storage engine that keeps all actors and messages serialized in memory, designed to scale with the number of threads accessing it.
+ * <p>
+ * Unlike {@link MemoryStore}, which funnels all access through a fixed number of locked regions, this storage engine has no shared locks.
+ * Actors are kept in a concurrent map, each actor has its own lock-free incoming message queue (any number of threads can add messages,
+ * only the thread that's pulled the actor removes them), and actors that have messages waiting are handed out through a lock-free ready
+ * queue. The only locking done is on an individual actor when its state is being pulled or replaced (to enforce checkpoint instances),
+ * so threads only ever contend with each other when they're accessing the same actor.
+ * <p>
+ * Each thread that pulls work from this storage engine gets its own ready queue. When an actor becomes ready because of something done
+ * on one of these threads (e.g. an actor sent a message to another actor), the ready actor goes on that thread's queue rather than the
+ * shared one. A thread services its own queue first (most recently readied actor first, except that every so often the least recently
+ * readied actor is taken instead so older entries don't get starved), then the shared queue, and finally steals from the other threads'
+ * queues (least recently readied actor first). The end result is that actors that message each other tend to get processed on the same
+ * thread. A thread's queue is dropped when it calls {@link #stopTaking() } -- anything left in it is moved to the shared queue.
+ * @author Kasra Faghihi
+ */
+public final class ConcurrentMemoryStore implements Store {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentMemoryStore.class);
+
+    private static final int IDLE = 0;       // not processing and no messages waiting
+    private static final int READY = 1;      // not processing, messages waiting, put in ready queue
+    private static final int PROCESSING = 2; // pulled by take()
+    private static final int DISCARDED = 3;  // removed
+
+    private static final int MAX_LIFO_RUN = 8; // max number of back-to-back most-recently-readied takes from a thread's own queue
+
+    private final String prefix;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
+
+    private final ConcurrentHashMap<Address, ActorData> actors;
+    private final ConcurrentLinkedQueue<ActorData> readyQueue; // may contain stale entries -- only valid if actor's state is READY
+    private final CopyOnWriteArrayList<WorkerQueue> workerQueues; // may contain stale entries -- only valid if actor's state is READY
+    private final ThreadLocal<WorkerQueue> localWorkerQueue;
+    private final ConcurrentSkipListSet<Checkpoint> checkpoints;
+    private final AtomicLong checkpointCounter;
+
+    private final WorkSignal workSignal; // take() waits on this when there's no work
+    private final boolean filterMessages;
+    private volatile boolean closed;
+
+    private final LongAdder localTakeCount;
+    private final LongAdder sharedTakeCount;
+    private final LongAdder stealCount;
+
+    /**
+     * Creates a {@link ConcurrentMemoryStore} object. Equivalent to calling {@code create(prefix, false) }.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @return new memory store
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static ConcurrentMemoryStore create(String prefix) {
+        return create(prefix, false);
+    }
+
+    /**
+     * Creates a {@link ConcurrentMemoryStore} object.
+     * <p>
+     * If {@code filterMessages} is set, incoming messages are checked against the rules of the actor they're destined for (see
+     * {@link SerializableActor#getMessageFilter()}) and dropped right away if that actor would reject them. Otherwise, rejected messages
+     * still get queued up and the actor gets loaded just to discard them.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param filterMessages if {@code true}, messages that would be rejected by the destination actor are dropped before being stored
+     * @return new memory store
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static ConcurrentMemoryStore create(String prefix, boolean filterMessages) {
+        return create(prefix, filterMessages, new BestEffortSerializer());
+    }
+
+    /**
+     * Creates a {@link ConcurrentMemoryStore} object.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param filterMessages if {@code true}, messages that would be rejected by the destination actor are dropped before being stored
+     * (see {@link #create(java.lang.String, boolean) })
+     * @param serializer serializer to use for actors and messages
+     * @return new memory store
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static ConcurrentMemoryStore create(String prefix, boolean filterMessages, Serializer serializer) {
+        Validate.notNull(prefix);
+        Validate.notNull(serializer);
+        return new ConcurrentMemoryStore(prefix, filterMessages, serializer);
+    }
+
+    private ConcurrentMemoryStore(String prefix, boolean filterMessages, Serializer serializer) {
+        Validate.notNull(prefix);
+        Validate.notNull(serializer);
+
+        this.prefix = prefix;
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
+        this.actors = new ConcurrentHashMap<>();
+        this.readyQueue = new ConcurrentLinkedQueue<>();
+        this.workerQueues = new CopyOnWriteArrayList<>();
+        this.localWorkerQueue = new ThreadLocal<>();
+        this.checkpoints = new ConcurrentSkipListSet<>();
+        this.checkpointCounter = new AtomicLong();
+        this.workSignal = new WorkSignal();
+        this.filterMessages = filterMessages;
+        this.closed = false;
+        this.localTakeCount = new LongAdder();
+        this.sharedTakeCount = new LongAdder();
+        this.stealCount = new LongAdder();
+    }
+
+    @Override
+    public boolean store(SerializableActor actor) {
+        Validate.notNull(actor);
+
+        Address actorAddr = actor.getSelf();
+        Validate.isTrue(actorAddr.size() == 2, "Actor address has unexpected number of elements: %s", actorAddr);
+        Validate.isTrue(actorAddr.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, actorAddr);
+
+        Validate.validState(!closed, "Store closed");
+
+        if (actor.getCheckpointTimeout() < 0L && actor.getCheckpointPayload() == null) {
+            throw new IllegalStateException("Actor doesn't have checkpoint time/message:"
+                    + ' ' + actorAddr
+                    + ' ' + actor.getCheckpointTimeout()
+                    + ' ' + actor.getCheckpointPayload());
+        }
+
+        byte[] serializedActor = serializer.serialize(actor);
+        // If the actor's rules haven't changed, keep using the filter we already have (building one walks the whole actor tree). A new
+        // actor always needs one built.
+        MessageFilter filter = filterMessages && (!actor.getMessageFilterUnchanged() || !actors.containsKey(actorAddr))
+                ? actor.getMessageFilter()
+                : null;
+        Instant checkpointTime = calculateCheckpointTime(actor.getCheckpointTimeout());
+
+        // Try inserting as a new actor. Fully populate before putting into the map so nothing sees it half-initialized.
+        ActorData newActorData = new ActorData(actorAddr);
+        newActorData.data = serializedActor;
+        newActorData.filter = filter;
+        newActorData.checkpointData = serializedActor;
+        newActorData.checkpointFilter = filter;
+        newActorData.checkpointInstance = actor.getCheckpointInstance();
+
+        ActorData actorData = actors.putIfAbsent(actorAddr, newActorData);
+        if (actorData == null) {
+            synchronized (newActorData) {
+                scheduleCheckpoint(newActorData, checkpointTime);
+            }
+            LOGGER.debug("Stored actor: {} (new)", actorAddr);
+            workSignal.signal(); // next checkpoint time may have changed
+            return true;
+        }
+
+        // Actor already exists, replace it
+        synchronized (actorData) {
+            if (actorData.state.get() == DISCARDED) {
+                LOGGER.warn("Ignoring update for discarded actor: {}", actorAddr);
+                return false;
+            }
+
+            if (actor.getCheckpointInstance() != actorData.checkpointInstance) { // if checkpoint inst is older
+                // This is an old instance -- a checkpoint has already hit so it wouldn't be a good idea to put this back in.
+                LOGGER.warn("Ignoring update for actor with old checkpoint instance: {} vs {} for {}",
+                        actorData.checkpointInstance,
+                        actor.getCheckpointInstance(),
+                        actorAddr);
+                return false;
+            }
+            actorData.data = serializedActor;
+            if (filter != null) {
+                actorData.filter = filter;
+            }
+
+            if (actor.getCheckpointUpdated()) { // if actor should be checkpointed
+                // Update checkpoint details
+                LOGGER.debug("Checkpoint actor: {}", actorAddr);
+                actorData.checkpointData = serializedActor;
+                actorData.checkpointFilter = actorData.filter;
+                scheduleCheckpoint(actorData, checkpointTime);
+            }
+
+            // If is being put back into storage after processing, it's no longer processing
+            actorData.state.compareAndSet(PROCESSING, IDLE);
+        }
+
+        LOGGER.debug("Stored actor: {} (existing)", actorAddr);
+
+        // If msgs came in while it was processing, make it available again
+        readyIfMessagesWaiting(actorData);
+        workSignal.signal(); // next checkpoint time may have changed
+
+        return true;
+    }
+
+    @Override
+    public boolean storeIdle(SerializableActor actor) {
+        Validate.notNull(actor);
+
+        Address actorAddr = actor.getSelf();
+        Validate.isTrue(actorAddr.size() == 2, "Actor address has unexpected number of elements: %s", actorAddr);
+        Validate.isTrue(actorAddr.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, actorAddr);
+
+        Validate.validState(!closed, "Store closed");
+
+        ActorData actorData = actors.get(actorAddr);
+        if (actorData == null) {
+            return false;
+        }
+
+        byte[] serializedActor = serializer.serialize(actor);
+        MessageFilter filter = filterMessages && !actor.getMessageFilterUnchanged() ? actor.getMessageFilter() : null;
+
+        synchronized (actorData) {
+            int state = actorData.state.get();
+            if (state == PROCESSING || state == DISCARDED || actorData.checkpointInstance != actor.getCheckpointInstance()) {
+                LOGGER.debug("Ignoring idle update for actor: {}", actorAddr);
+                return false;
+            }
+
+            // If take() pulls this actor while we're in here, it'll block reading the actor's data until we're done -- it gets what we
+            // just wrote.
+            actorData.data = serializedActor;
+            if (filter != null) {
+                actorData.filter = filter;
+            }
+        }
+
+        LOGGER.debug("Stored idle actor: {}", actorAddr);
+
+        return true;
+    }
+
+    @Override
+    public boolean release(Address address, int checkpointInstance) {
+        Validate.notNull(address);
+        Validate.isTrue(address.size() == 2, "Actor address has unexpected number of elements: %s", address);
+        Validate.isTrue(address.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, address);
+
+        Validate.validState(!closed, "Store closed");
+
+        ActorData actorData = actors.get(address);
+        if (actorData == null) {
+            return false;
+        }
+
+        synchronized (actorData) {
+            if (actorData.state.get() == DISCARDED) {
+                return false;
+            }
+
+            if (checkpointInstance != actorData.checkpointInstance) { // if checkpoint inst is older
+                LOGGER.warn("Ignoring release for actor with old checkpoint instance: {} vs {} for {}",
+                        actorData.checkpointInstance,
+                        checkpointInstance,
+                        address);
+                return false;
+            }
+
+            actorData.state.compareAndSet(PROCESSING, IDLE);
+        }
+
+        LOGGER.debug("Released actor: {}", address);
+
+        // If msgs came in while it was processing, make it available again
+        readyIfMessagesWaiting(actorData);
+
+        return true;
+    }
+
+    @Override
+    public void store(Collection<Message> messages) {
+        Validate.notNull(messages);
+        Validate.noNullElements(messages);
+        Validate.validState(!closed, "Store closed");
+        messages.forEach(m -> {
+            Address dstAddr = m.getDestinationAddress();
+            Validate.isTrue(dstAddr.size() >= 2, "Actor address must have atleast 2 elements: %s", dstAddr);
+            Validate.isTrue(dstAddr.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, dstAddr);
+        });
+
+        for (Message message : messages) {
+            Address dstAddr = message.getDestinationAddress();
+            Address dstActorAddr = Address.of(prefix, dstAddr.getElement(1));
+
+            ActorData dstActorData = actors.get(dstActorAddr);
+            if (dstActorData == null) {
+                continue;
+            }
+
+            // If the actor would reject this message, don't bother queuing it up. Only done if the actor isn't being processed, because
+            // the rules of an actor being processed may be changing. State is read before the filter -- the filter is always set before
+            // the state goes back to IDLE.
+            if (dstActorData.state.get() != PROCESSING) {
+                MessageFilter filter = dstActorData.filter;
+                if (filter != null && filter.isRejected(message)) {
+                    LOGGER.debug("Dropped message rejected by actor: {}", message);
+                    continue;
+                }
+            }
+
+            byte[] serializedMsg = messageCodec.encode(message);
+            dstActorData.msgQueue.offer(serializedMsg);
+            dstActorData.msgCount.incrementAndGet();
+
+            LOGGER.debug("Stored message: {}", message);
+
+            // Mark as ready if idle -- if it's processing, it'll get marked as ready once it's put back in
+            readyIfMessagesWaiting(dstActorData);
+        }
+    }
+
+    @Override
+    public void discard(Address address) {
+        Validate.isTrue(address.size() == 2);
+        Validate.isTrue(address.getElement(0).equals(prefix));
+        Validate.validState(!closed, "Store closed");
+
+        ActorData actorData = actors.remove(address);
+        if (actorData != null) {
+            synchronized (actorData) {
+                actorData.state.set(DISCARDED);
+                if (actorData.checkpoint != null) {
+                    checkpoints.remove(actorData.checkpoint);
+                    actorData.checkpoint = null;
+                }
+            }
+
+            // Any entries for this actor still in the ready queue will get skipped by take() because the state is DISCARDED
+            actorData.msgQueue.clear();
+            actorData.msgCount.set(0);
+        }
+
+        LOGGER.debug("Discarded actor: {}", address);
+    }
+
+    @Override
+    public StoredWork takeBatch(int maxMessages) {
+        Validate.isTrue(maxMessages > 0);
+
+        // Any thread that pulls work becomes a worker -- actors readied by this thread from this point on get put on this thread's queue
+        WorkerQueue workerQueue = localWorkerQueue.get();
+        if (workerQueue == null) {
+            workerQueue = new WorkerQueue();
+            localWorkerQueue.set(workerQueue);
+            workerQueues.add(workerQueue);
+        }
+
+        while (true) {
+            // Read the signal sequence BEFORE looking for work (and before checking if closed). If anything becomes available after this
+            // point, the sequence will have changed by the time we go to wait and we'll loop around instead of waiting.
+            long seq = workSignal.sequence();
+
+            Validate.validState(!closed, "Store closed");
+
+            // Any checkpoints hit? Check these first so they don't get starved out by a busy ready queue
+            Instant now = Instant.now();
+            Checkpoint checkpoint;
+            while ((checkpoint = firstCheckpoint()) != null && !checkpoint.time.isAfter(now)) {
+                StoredWork work = takeCheckpoint(checkpoint);
+                if (work != null) {
+                    return work;
+                }
+            }
+
+            // Any actors ready? Look in this thread's queue first, then the shared queue, then steal from other threads' queues
+            ActorData actorData;
+            while ((actorData = pollLocal(workerQueue)) != null) {
+                StoredWork work = takeMessages(actorData, maxMessages);
+                if (work != null) {
+                    localTakeCount.increment();
+                    return work;
+                }
+            }
+
+            while ((actorData = readyQueue.poll()) != null) {
+                StoredWork work = takeMessages(actorData, maxMessages);
+                if (work != null) {
+                    sharedTakeCount.increment();
+                    return work;
+                }
+            }
+
+            StoredWork stolenWork = steal(workerQueue, maxMessages);
+            if (stolenWork != null) {
+                stealCount.increment();
+                return stolenWork;
+            }
+
+            // Nothing available -- park until something gets signalled or the next checkpoint is due.
+            checkpoint = firstCheckpoint();
+            workSignal.await(seq, checkpoint == null ? Instant.MAX : checkpoint.time);
+        }
+    }
+
+    @Override
+    public void stopTaking() {
+        WorkerQueue workerQueue = localWorkerQueue.get();
+        if (workerQueue == null) {
+            return;
+        }
+
+        // Once removed, actors readied by this thread go to the shared queue. Anything left behind in its queue gets moved there as well
+        // (thieves that grabbed the queue before it was removed may still be pulling from it, but each entry only goes to one of us).
+        localWorkerQueue.remove();
+        workerQueues.remove(workerQueue);
+
+        boolean moved = false;
+        ActorData actorData;
+        while ((actorData = workerQueue.deque.pollLast()) != null) {
+            readyQueue.offer(actorData);
+            moved = true;
+        }
+        if (moved) {
+            workSignal.signal();
+        }
+    }
+
+    private ActorData pollLocal(WorkerQueue workerQueue) {
+        // Most recently readied first (likely still hot in cache), but cap how many of those are taken back-to-back -- an actor that keeps
+        // readying other actors on this thread would otherwise keep the oldest entries in this queue from ever being serviced
+        if (workerQueue.lifoRun >= MAX_LIFO_RUN) {
+            workerQueue.lifoRun = 0;
+            return workerQueue.deque.pollLast();
+        }
+
+        workerQueue.lifoRun++;
+        return workerQueue.deque.pollFirst();
+    }
+
+    private StoredWork steal(WorkerQueue workerQueue, int maxMessages) {
+        // Start at a random victim so that idle threads don't all pile on to the same one
+        Object[] victims = workerQueues.toArray();
+        int start = ThreadLocalRandom.current().nextInt(victims.length);
+        for (int i = 0; i < victims.length; i++) {
+            WorkerQueue victim = (WorkerQueue) victims[(start + i) % victims.length];
+            if (victim == workerQueue) {
+                continue;
+            }
+
+            ActorData actorData;
+            while ((actorData = victim.deque.pollLast()) != null) {
+                StoredWork work = takeMessages(actorData, maxMessages);
+                if (work != null) {
+                    return work;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private StoredWork takeMessages(ActorData actorData, int maxMessages) {
+        // Moving to PROCESSING, draining the messages, and grabbing the data + checkpoint instance all happen under the actor's lock. If a
+        // checkpoint could hit in between (takeCheckpoint() bumps the instance and sets PROCESSING), this thread would end up handing out
+        // the pre-checkpoint data under the new checkpoint instance -- 2 holders of the same instance, and one of their stores would be
+        // silently lost. Messages are only decoded once the lock is released.
+        List<byte[]> serializedMsgs = new ArrayList<>();
+        byte[] serializedActor;
+        int checkpointInstance;
+        synchronized (actorData) {
+            // Only 1 thread can move an actor from READY to PROCESSING -- if this fails, it was a stale entry in the ready queue
+            if (!actorData.state.compareAndSet(READY, PROCESSING)) {
+                return null;
+            }
+
+            // We're the only one pulling messages for this actor now
+            byte[] serializedMsg;
+            while (serializedMsgs.size() < maxMessages && (serializedMsg = actorData.msgQueue.poll()) != null) {
+                actorData.msgCount.decrementAndGet();
+                serializedMsgs.add(serializedMsg);
+            }
+
+            if (serializedMsgs.isEmpty()) { // should never happen, but if it does put it back and move on
+                actorData.state.compareAndSet(PROCESSING, IDLE);
+                readyIfMessagesWaiting(actorData);
+                return null;
+            }
+
+            serializedActor = actorData.data;
+            checkpointInstance = actorData.checkpointInstance;
+        }
+
+        List<Message> msgs = new ArrayList<>(serializedMsgs.size());
+        for (byte[] data : serializedMsgs) {
+            msgs.add(messageCodec.decode(data));
+        }
+
+        LOGGER.debug("Pulling messages for actor: {}", msgs);
+
+        // Actor is only deserialized if it's asked for -- the caller may already have it
+        return new StoredWork(msgs, actorData.address, checkpointInstance, () -> serializer.deserialize(serializedActor));
+    }
+
+    private StoredWork takeCheckpoint(Checkpoint checkpoint) {
+        // Only 1 thread can remove the checkpoint -- if this fails, someone else has it
+        if (!checkpoints.remove(checkpoint)) {
+            return null;
+        }
+
+        ActorData actorData = checkpoint.actorData;
+        byte[] serializedActor;
+        int checkpointInstance;
+        synchronized (actorData) {
+            if (actorData.checkpoint != checkpoint) { // checkpoint was replaced or the actor was discarded
+                return null;
+            }
+            actorData.checkpoint = null;
+
+            // Inc expected checkpointInstance by 1, so any stores for the prev checkpoint instance will be ignored. Put into processing
+            // regardless of what state it was in before -- checkpoints hit even when the actor is in the middle of processing.
+            actorData.checkpointInstance++;
+            actorData.state.set(PROCESSING);
+            actorData.filter = actorData.checkpointFilter; // rules go back to what they were at the checkpoint
+
+            serializedActor = actorData.checkpointData;
+            checkpointInstance = actorData.checkpointInstance;
+        }
+
+        // Set checkpoint updated flag to true, so it'll re-apply the checkpoint message and timeout that was set.
+        SerializableActor actor = serializer.deserialize(serializedActor);
+        actor.setCheckpointInstance(checkpointInstance);
+        actor.setCheckpointUpdated(true);
+
+        Address actorAddr = actor.getSelf();
+        Object checkpointMsg = actor.getCheckpointPayload();
+        Message msg = new Message(actorAddr, actorAddr, checkpointMsg);
+
+        LOGGER.debug("Checkpoint hit for actor: {}", msg);
+
+        return new StoredWork(msg, actor);
+    }
+
+    private void readyIfMessagesWaiting(ActorData actorData) {
+        // Called AFTER a message is added or AFTER an actor is set to IDLE. Whichever thread moves the actor from IDLE to READY gets to
+        // put it in the ready queue, so a message can't be left waiting on an idle actor.
+        if (!actorData.msgQueue.isEmpty() && actorData.state.compareAndSet(IDLE, READY)) {
+            WorkerQueue workerQueue = localWorkerQueue.get();
+            if (workerQueue != null) {
+                workerQueue.deque.offerFirst(actorData);
+            } else {
+                readyQueue.offer(actorData);
+            }
+            workSignal.signal(); // signal even if put on this thread's queue, so idle threads can steal it if this thread is busy
+        }
+    }
+
+    private void scheduleCheckpoint(ActorData actorData, Instant checkpointTime) {
+        // must be called while holding actorData's lock
+        if (actorData.checkpoint != null) {
+            checkpoints.remove(actorData.checkpoint);
+            actorData.checkpoint = null;
+        }
+
+        if (!checkpointTime.equals(Instant.MAX)) {
+            actorData.checkpoint = new Checkpoint(checkpointTime, checkpointCounter.incrementAndGet(), actorData);
+            checkpoints.add(actorData.checkpoint);
+        }
+    }
+
+    private Checkpoint firstCheckpoint() {
+        return checkpoints.isEmpty() ? null : checkpoints.ceiling(Checkpoint.MIN);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        // Wake up everything waiting on take() so they see that the store's closed
+        workSignal.signalAll();
+    }
+
+    /**
+     * Get the number of messages that require processing (approximate).
+     * @return number of messages waiting to be processed
+     * @throws IllegalStateException if storage engine has been closed
+     */
+    public int getStoredMessageCount() {
+        Validate.validState(!closed, "Store closed");
+        return actors.values().stream().mapToInt(x -> x.msgCount.get()).sum();
+    }
+
+    /**
+     * Get the number of actors that are stored -- including those idle, awaiting processing, being processed, and stale (approximate).
+     * @return number of actors stored
+     * @throws IllegalStateException if storage engine has been closed
+     */
+    public int getActorCount() {
+        Validate.validState(!closed, "Store closed");
+        return actors.size();
+    }
+
+    /**
+     * Get the number of actors that are currently processing a message (approximate).
+     * @return number of actors currently processing
+     * @throws IllegalStateException if storage engine has been closed
+     */
+    public int getProcessingActorCount() {
+        Validate.validState(!closed, "Store closed");
+        return (int) actors.values().stream().filter(x -> x.state.get() == PROCESSING).count();
+    }
+
+    /**
+     * Get the number of actors that have pending messages and are awaiting processing (approximate).
+     * @return number of actors awaiting processing
+     * @throws IllegalStateException if storage engine has been closed
+     */
+    public int getReadyActorCount() {
+        Validate.validState(!closed, "Store closed");
+        return (int) actors.values().stream().filter(x -> x.state.get() == READY).count();
+    }
+
+    /**
+     * Get the number of times work was pulled from the pulling thread's own ready queue.
+     * @return number of local takes
+     */
+    public long getLocalTakeCount() {
+        return localTakeCount.sum();
+    }
+
+    /**
+     * Get the number of times work was pulled from the shared ready queue (actors readied by threads that don't pull work, such as
+     * messages coming in from other gateways).
+     * @return number of shared takes
+     */
+    public long getSharedTakeCount() {
+        return sharedTakeCount.sum();
+    }
+
+    /**
+     * Get the number of threads that have their own ready queue (threads that have pulled work and haven't called {@link #stopTaking() }).
+     * @return number of worker threads
+     */
+    public int getWorkerCount() {
+        return workerQueues.size();
+    }
+
+    /**
+     * Get the number of times work was stolen from another thread's ready queue.
+     * @return number of steals
+     */
+    public long getStealCount() {
+        return stealCount.sum();
+    }
+
+    private static Instant calculateCheckpointTime(long timeout) {
+        try {
+            return Instant.now().plusMillis(timeout);
+        } catch (ArithmeticException ae) {
+            return Instant.MAX;
+        }
+    }
+
+
+
+
+    private static final class ActorData {
+        private final Address address;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private final ConcurrentLinkedQueue<byte[]> msgQueue = new ConcurrentLinkedQueue<>(); // many writers, 1 reader (whoever pulled it)
+        private final AtomicInteger msgCount = new AtomicInteger(); // cache of msgQueue's size (size() on msgQueue isn't constant time)
+
+        private volatile MessageFilter filter; // written while holding this, read without
+
+        // guarded by this
+        private byte[] data;
+        private byte[] checkpointData;
+        private MessageFilter checkpointFilter;
+        private int checkpointInstance;
+        private Checkpoint checkpoint;
+
+        ActorData(Address address) {
+            this.address = address;
+        }
+    }
+
+    private static final class WorkerQueue {
+        // owner adds/removes from the head (and periodically removes from the tail), thieves remove from the tail
+        private final ConcurrentLinkedDeque<ActorData> deque = new ConcurrentLinkedDeque<>();
+        private int lifoRun; // only accessed by owner
+    }
+
+    private static final class Checkpoint implements Comparable<Checkpoint> {
+        private static final Checkpoint MIN = new Checkpoint(Instant.MIN, Long.MIN_VALUE, null);
+
+        private final Instant time;
+        private final long counter; // tie-breaker for checkpoints with the same time
+        private final ActorData actorData;
+
+        Checkpoint(Instant time, long counter, ActorData actorData) {
+            this.time = time;
+            this.counter = counter;
+            this.actorData = actorData;
+        }
+
+        @Override
+        public int compareTo(Checkpoint o) {
+            int ret = time.compareTo(o.time);
+            if (ret == 0) {
+                ret = Long.compare(counter, o.counter);
+            }
+            return ret;
+        }
+    }
+}
@@ -17,8 +17,12 @@
 package com.offbynull.actors.gateways.actor.stores.memory;
 
 import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
+import com.offbynull.actors.gateways.actor.MessageFilter;
 import com.offbynull.actors.gateways.actor.SerializableActor;
 import com.offbynull.actors.address.Address;
+import com.offbynull.actors.gateways.actor.stores.memory.TimingWheel.Timeout;
 import com.offbynull.actors.shuttle.Message;
 import java.nio.ByteBuffer;
 import static java.nio.ByteBuffer.wrap;
@@ -29,7 +33,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.collections4.list.UnmodifiableList;
 import static org.apache.commons.collections4.list.UnmodifiableList.unmodifiableList;
@@ -46,12 +51,21 @@ public final class MemoryStore implements Store {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(MemoryStore.class);
     
+    private static final long CHECKPOINT_TICK_MILLIS = 10L;
+    private static final int CHECKPOINT_WHEEL_SLOTS = 512;
+
     private final UnmodifiableList<LockRegion> lockRegions;
     private final String prefix;
     private volatile boolean closed;
+    private final WorkSignal workSignal; // take() waits on this when there's no work
+    private final boolean filterMessages;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
+    private final TimingWheel<Address> checkpointWheel; // checkpoint timeouts for actors in all lock regions
+    private final Thread checkpointTicker;
 
     /**
-     * Creates a {@link MemoryStore} object.
+     * Creates a {@link MemoryStore} object. Equivalent to calling {@code create(prefix, concurrency, false) }.
      * @param prefix prefix for the actor gateway that this storage engine belongs to
      * @param concurrency concurrency level (should be set to number of cores or larger)
      * @return new memory store
@@ -59,13 +73,49 @@ public final class MemoryStore implements Store {
      * @throws IllegalArgumentException if {@code concurrency <= 0}
      */
     public static MemoryStore create(String prefix, int concurrency) {
+        return create(prefix, concurrency, false);
+    }
+
+    /**
+     * Creates a {@link MemoryStore} object.
+     * <p>
+     * If {@code filterMessages} is set, incoming messages are checked against the rules of the actor they're destined for (see
+     * {@link SerializableActor#getMessageFilter()}) and dropped right away if that actor would reject them. Otherwise, rejected messages
+     * still get queued up and the actor gets loaded just to discard them.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param concurrency concurrency level (should be set to number of cores or larger)
+     * @param filterMessages if {@code true}, messages that would be rejected by the destination actor are dropped before being stored
+     * @return new memory store
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code concurrency <= 0}
+     */
+    public static MemoryStore create(String prefix, int concurrency, boolean filterMessages) {
+        return create(prefix, concurrency, filterMessages, new BestEffortSerializer());
+    }
+
+    /**
+     * Creates a {@link MemoryStore} object.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param concurrency concurrency level (should be set to number of cores or larger)
+     * @param filterMessages if {@code true}, messages that would be rejected by the destination actor are dropped before being stored
+     * (see {@link #create(java.lang.String, int, boolean) })
+     * @param serializer serializer to use for actors and messages
+     * @return new memory store
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code concurrency <= 0}
+     */
+    public static MemoryStore create(String prefix, int concurrency, boolean filterMessages, Serializer serializer) {
         Validate.notNull(prefix);
+        Validate.notNull(serializer);
         Validate.isTrue(concurrency > 0);
-        return new MemoryStore(prefix, concurrency);
+        MemoryStore store = new MemoryStore(prefix, concurrency, filterMessages, serializer);
+        store.checkpointTicker.start();
+        return store;
     }
 
-    private MemoryStore(String prefix, int concurrency) {
+    private MemoryStore(String prefix, int concurrency, boolean filterMessages, Serializer serializer) {
         Validate.notNull(prefix);
+        Validate.notNull(serializer);
         Validate.isTrue(concurrency > 0);
 
         LockRegion[] regions = new LockRegion[concurrency];
@@ -76,6 +126,15 @@ public final class MemoryStore implements Store {
         this.prefix = prefix;
         this.lockRegions = (UnmodifiableList<LockRegion>) unmodifiableList(new ArrayList<>(asList(regions)));
         this.closed = false;
+        this.workSignal = new WorkSignal();
+        this.filterMessages = filterMessages;
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
+        this.checkpointWheel = new TimingWheel<>(CHECKPOINT_TICK_MILLIS, TimeUnit.MILLISECONDS, CHECKPOINT_WHEEL_SLOTS,
+                this::checkpointExpired);
+        this.checkpointTicker = new Thread(checkpointWheel);
+        this.checkpointTicker.setDaemon(true);
+        this.checkpointTicker.setName(getClass().getSimpleName() + "-" + prefix);
     }
 
     @Override
@@ -95,29 +154,32 @@ public final class MemoryStore implements Store {
                     + ' ' + actor.getCheckpointPayload());
         }
 
+        // If the actor's rules haven't changed, keep using the filter we already have (building one walks the whole actor tree)
+        MessageFilter filter = filterMessages && !actor.getMessageFilterUnchanged() ? actor.getMessageFilter() : null;
+        byte[] serializedActor = serializer.serialize(actor); // serialize outside of lock so other actors in the region aren't held up
+
         LockRegion lockRegion = getLockRegion(actorAddr);
         synchronized (lockRegion) {
             boolean exists = lockRegion.actors.containsKey(actorAddr);
 
-            byte[] serializedActor = lockRegion.serializer.serialize(actor);
-            
             if (!exists) {
                 ActorData actorData = new ActorData();
                 
+                if (filterMessages && filter == null) { // flagged as unchanged, but we don't have a filter to keep using
+                    filter = actor.getMessageFilter();
+                }
+                
                 actorData.msgQueue = new LinkedList<>();
                 actorData.data = serializedActor;
+                actorData.filter = filter;
+                actorData.checkpointFilter = filter;
                 actorData.checkpointInstance = actor.getCheckpointInstance();
                 actorData.checkpointData = serializedActor;
-                actorData.checkpointTime = calculateCheckpointTime(actor.getCheckpointTimeout());
-                actorData.checkpointInstance = actor.getCheckpointInstance();                
-                lockRegion.actors.put(actorAddr, actorData);
-                lockRegion.timeouts.add(actorData);
-                
+                actorData.checkpointTimeout = scheduleCheckpoint(actorAddr, actor.getCheckpointTimeout());
                 lockRegion.actors.put(actorAddr, actorData);
             } else {
                 ActorData actorData = lockRegion.actors.get(actorAddr);
                 
-                actorData.data = serializedActor;
                 if (actor.getCheckpointInstance() != actorData.checkpointInstance) { // if checkpoint inst is older
                     // This is an old instance -- a checkpoint has already hit so it wouldn't be a good idea to put this back in.
                     LOGGER.warn("Ignoring update for actor with old checkpoint instance: {} vs {} for {}",
@@ -126,15 +188,19 @@ public final class MemoryStore implements Store {
                             actorAddr);
                     return false;
                 }
+                actorData.data = serializedActor;
+                if (filter != null) {
+                    actorData.filter = filter;
+                }
 
                 if (actor.getCheckpointUpdated()) { // if actor should be checkpointed
                     // Update checkpoint details
                     LOGGER.debug("Checkpoint actor: {}", actorAddr);
-                    lockRegion.timeouts.remove(actorData);
+                    cancelCheckpoint(lockRegion, actorAddr, actorData);
                     actorData.checkpointData = serializedActor;
-                    actorData.checkpointTime = calculateCheckpointTime(actor.getCheckpointTimeout());
+                    actorData.checkpointFilter = actorData.filter;
+                    actorData.checkpointTimeout = scheduleCheckpoint(actorAddr, actor.getCheckpointTimeout());
                     actorData.checkpointInstance = actor.getCheckpointInstance();
-                    lockRegion.timeouts.add(actorData);
                 }
                 
                 // If msgs are available, add to availableSet. If is being put back into storage after processing, remove from processingSet
@@ -145,11 +211,88 @@ public final class MemoryStore implements Store {
             }
 
             LOGGER.debug("Stored actor: {} ({})", actorAddr, exists ? "existing" : "new");
+        }
+
+        // Work may now be available (msgs may have come in while processing) or the next checkpoint time may have changed
+        workSignal.signal();
+        
+        return true;
+    }
+
+    @Override
+    public boolean storeIdle(SerializableActor actor) {
+        Validate.notNull(actor);
+        
+        Address actorAddr = actor.getSelf();
+        Validate.isTrue(actorAddr.size() == 2, "Actor address has unexpected number of elements: %s", actorAddr);
+        Validate.isTrue(actorAddr.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, actorAddr);
+
+        Validate.validState(!closed, "Store closed");
+
+        MessageFilter filter = filterMessages && !actor.getMessageFilterUnchanged() ? actor.getMessageFilter() : null;
+
+        LockRegion lockRegion = getLockRegion(actorAddr);
+        synchronized (lockRegion) {
+            ActorData actorData = lockRegion.actors.get(actorAddr);
+            if (actorData == null
+                    || actorData.checkpointInstance != actor.getCheckpointInstance()
+                    || lockRegion.processingSet.contains(actorAddr)) {
+                LOGGER.debug("Ignoring idle update for actor: {}", actorAddr);
+                return false;
+            }
+
+            actorData.data = serializer.serialize(actor);
+            if (filter != null) {
+                actorData.filter = filter;
+            }
+
+            LOGGER.debug("Stored idle actor: {}", actorAddr);
             
             return true;
         }
     }
 
+    @Override
+    public boolean release(Address address, int checkpointInstance) {
+        Validate.notNull(address);
+        Validate.isTrue(address.size() == 2, "Actor address has unexpected number of elements: %s", address);
+        Validate.isTrue(address.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, address);
+
+        Validate.validState(!closed, "Store closed");
+
+        boolean available;
+        LockRegion lockRegion = getLockRegion(address);
+        synchronized (lockRegion) {
+            ActorData actorData = lockRegion.actors.get(address);
+            if (actorData == null) {
+                return false;
+            }
+
+            if (checkpointInstance != actorData.checkpointInstance) { // if checkpoint inst is older
+                LOGGER.warn("Ignoring release for actor with old checkpoint instance: {} vs {} for {}",
+                        actorData.checkpointInstance,
+                        checkpointInstance,
+                        address);
+                return false;
+            }
+
+            // If msgs are available, add to availableSet. Remove from processingSet because it's finished processing
+            available = !actorData.msgQueue.isEmpty();
+            if (available) {
+                lockRegion.availableSet.add(address);
+            }
+            lockRegion.processingSet.remove(address);
+
+            LOGGER.debug("Released actor: {}", address);
+        }
+        
+        if (available) {
+            workSignal.signal();
+        }
+        
+        return true;
+    }
+
     @Override
     public void store(Collection<Message> messages) {
         Validate.notNull(messages);
@@ -165,23 +308,36 @@ public final class MemoryStore implements Store {
             Address dstAddr = message.getDestinationAddress();
             Address dstActorAddr = Address.of(prefix, dstAddr.getElement(1));
 
+            boolean available = false;
             LockRegion lockRegion = getLockRegion(dstActorAddr);
             synchronized (lockRegion) {
                 ActorData dstActorData = lockRegion.actors.get(dstActorAddr);
 
-                if (dstActorData != null) {
-                    byte[] serializedMsg = lockRegion.serializer.serialize(message);
+                if (dstActorData != null
+                        && dstActorData.filter != null
+                        && !lockRegion.processingSet.contains(dstActorAddr)
+                        && dstActorData.filter.isRejected(message)) {
+                    // The actor would reject this message -- don't bother queuing it up. Only done if the actor isn't being processed,
+                    // because the rules of an actor being processed may be changing.
+                    LOGGER.debug("Dropped message rejected by actor: {}", message);
+                } else if (dstActorData != null) {
+                    byte[] serializedMsg = messageCodec.encode(message);
                     dstActorData.msgQueue.addLast(serializedMsg);
                     lockRegion.pendingMsgCount++;
                     
                     // mark as available if not processing
                     if (!lockRegion.processingSet.contains(dstActorAddr)) {
-                        lockRegion.availableSet.add(dstActorAddr);
+                        available = lockRegion.availableSet.add(dstActorAddr);
                     }
                     
                     LOGGER.debug("Stored message: {}", message);
                 }
             }
+            
+            // wake up a thread waiting for work if this actor just became available
+            if (available) {
+                workSignal.signal();
+            }
         }
     }
     
@@ -197,7 +353,7 @@ public final class MemoryStore implements Store {
             Address actorAddr = address;
             ActorData actorData = lockRegion.actors.remove(actorAddr);
             if (actorData != null) {
-                lockRegion.timeouts.remove(actorData);
+                cancelCheckpoint(lockRegion, actorAddr, actorData);
                 lockRegion.availableSet.remove(actorAddr);
                 lockRegion.processingSet.remove(actorAddr);
             }
@@ -207,82 +363,100 @@ public final class MemoryStore implements Store {
     }
 
     @Override
-    public StoredWork take() {
+    public StoredWork takeBatch(int maxMessages) {
+        Validate.isTrue(maxMessages > 0);
         while (true) {
+            // Read the signal sequence BEFORE looking for work (and before checking if closed). If anything becomes available after this
+            // point, the sequence will have changed by the time we go to wait and we'll loop around instead of waiting.
+            long seq = workSignal.sequence();
+
             Validate.validState(!closed, "Store closed");
+            
+            // Look through each lock region for work, starting at a random lock region so that threads don't all pile on the first one.
+            int startIdx = randomizeLockRegionIndex();
+            for (int i = 0; i < lockRegions.size(); i++) {
+                LockRegion lockRegion = lockRegions.get((startIdx + i) % lockRegions.size());
+                Address checkpointActorAddr;
+                byte[] checkpointData;
+                int checkpointHitInstance;
+                synchronized (lockRegion) {
+                    if (!lockRegion.availableSet.isEmpty()) { // something waiting? if so, grab it and return it
+                        // Get next available
+                        Address actorAddr = lockRegion.availableSet.iterator().next();
+
+                        // Remove messages and deserialize them
+                        ActorData actorData = lockRegion.actors.get(actorAddr);
+                        List<Message> msgs = new ArrayList<>(Math.min(maxMessages, actorData.msgQueue.size()));
+                        while (msgs.size() < maxMessages && !actorData.msgQueue.isEmpty()) {
+                            byte[] serializedMsg = actorData.msgQueue.removeFirst();
+                            Message msg = messageCodec.decode(serializedMsg);
+                            msgs.add(msg);
+                        }
+                        byte[] serializedActor = actorData.data;
+                        int checkpointInstance = actorData.checkpointInstance;
+
+                        lockRegion.pendingMsgCount -= msgs.size();
+
+                        // Remove from available and add to processing. Don't cancel the checkpoint timeout -- we want checkpoints to hit
+                        // even when we're processing
+                        lockRegion.availableSet.remove(actorAddr);
+                        lockRegion.processingSet.add(actorAddr);
 
-            LockRegion lockRegion = randomizeLockRegion();
-            synchronized (lockRegion) {
-                if (!lockRegion.availableSet.isEmpty()) { // something waiting? if so, grab it and return it
-                    // Get next available
-                    Address actorAddr = lockRegion.availableSet.iterator().next();
-
-                    // Remove message and deserialize it + deserialize the actor
-                    ActorData actorData = lockRegion.actors.get(actorAddr);
-                    byte[] serializedMsg = actorData.msgQueue.removeFirst();
-                    byte[] serializedActor = actorData.data;
-                    Message msg = lockRegion.serializer.deserialize(serializedMsg);
-                    SerializableActor actor = lockRegion.serializer.deserialize(serializedActor);
-
-                    lockRegion.pendingMsgCount--;
-
-                    // Remove from available and add to processing, also remove from timeouts because we don't want the actor triggering the
-                    // stale message while it's processing
-                    lockRegion.availableSet.remove(actorAddr);
-                    // lockRegion.timeouts.remove(actorData); // DONT DO THIS -- we want checkpoints to hit even when we're processing a msg
-                    lockRegion.processingSet.add(actorAddr);
-                    
-                    LOGGER.debug("Pulling message for actor: {}", msg);
-                    
-                    return new StoredWork(msg, actor);
-                } else if (!lockRegion.timeouts.isEmpty()) { // otherwise, any stale actors? timeouts only contain non-processing actors
-                    ActorData actorData = lockRegion.timeouts.first();
-                    
-                    Instant now = Instant.now();
-                    Instant checkpointTime = actorData.checkpointTime;
-
-                    if (now.isAfter(checkpointTime) || now.equals(checkpointTime)) {
-                        byte[] serializedActor = actorData.checkpointData;
-                        SerializableActor actor = lockRegion.serializer.deserialize(serializedActor);
-                        
-                        // Inc expected checkpointInstance by 1, so any stores for the prev checkpoint instance will be ignored. Also, set
-                        // checkpoint updated flag to true, so it'll re-apply the checkpoint message and timeout that was set.
+                        LOGGER.debug("Pulling messages for actor: {}", msgs);
+
+                        // Actor is only deserialized if it's asked for -- the caller may already have it. No need to lock when it is:
+                        // serializedActor was grabbed while locked and serialized actor arrays get replaced, never modified.
+                        return new StoredWork(msgs, actorAddr, checkpointInstance, () -> serializer.deserialize(serializedActor));
+                    } else if (!lockRegion.expiredSet.isEmpty()) { // otherwise, any actors that the checkpoint ticker found stale?
+                        Address actorAddr = lockRegion.expiredSet.iterator().next();
+                        lockRegion.expiredSet.remove(actorAddr);
+
+                        ActorData actorData = lockRegion.actors.get(actorAddr);
+
+                        // Inc expected checkpointInstance by 1, so any stores for the prev checkpoint instance will be ignored.
                         actorData.checkpointInstance++;
-                        actor.setCheckpointInstance(actorData.checkpointInstance);
-                        actor.setCheckpointUpdated(true);
-                        
-                        // Remove from timeouts so this checkpoint doesn't get hit again.
-                        lockRegion.timeouts.remove(actorData);
-                        
-                        Address actorAddr = actor.getSelf();
-                        Object checkpointMsg = actor.getCheckpointPayload();
-                        Message msg = new Message(actorAddr, actorAddr, checkpointMsg);
+                        actorData.filter = actorData.checkpointFilter; // rules go back to what they were at the checkpoint
 
                         // Remove from availableSet and put in processingSet, because we are processing now.
                         lockRegion.availableSet.remove(actorAddr);
                         lockRegion.processingSet.add(actorAddr);
 
-                        LOGGER.debug("Checkpoint hit for actor: {}", msg);
-
-                        return new StoredWork(msg, actor);
+                        checkpointActorAddr = actorAddr;
+                        checkpointData = actorData.checkpointData;
+                        checkpointHitInstance = actorData.checkpointInstance;
+                    } else {
+                        continue;
                     }
                 }
-            }
 
-            // Since this method is being called in a tight loop by the actor system we need to add in a Thread.sleep() here or something to
-            // stop the CPU usage from spiking out of control... note that we're out of the synchronized block so we aren't causing an
-            // unnessecary delay with the lock (maybe someone was trying to put stuff into this lock region)
-            try {
-                Thread.sleep(0);
-            } catch (InterruptedException ie) {
-                throw new IllegalStateException(ie);
+                // Checkpoint hit -- deserialize outside of lock so other actors in the region aren't held up. Set checkpoint updated flag
+                // to true, so it'll re-apply the checkpoint message and timeout that was set.
+                SerializableActor actor = serializer.deserialize(checkpointData);
+                actor.setCheckpointInstance(checkpointHitInstance);
+                actor.setCheckpointUpdated(true);
+
+                Object checkpointMsg = actor.getCheckpointPayload();
+                Message msg = new Message(checkpointActorAddr, checkpointActorAddr, checkpointMsg);
+
+                LOGGER.debug("Checkpoint hit for actor: {}", msg);
+
+                return new StoredWork(msg, actor);
             }
+
+            // Nothing available -- rather than spinning, park until something gets signalled (the checkpoint ticker signals when a
+            // checkpoint hits). Note that we're out of the synchronized blocks so we aren't holding up anyone trying to put stuff into the
+            // lock regions.
+            workSignal.await(seq, Instant.MAX);
         }
     }
 
     @Override
     public void close() {
         closed = true;
+        checkpointWheel.close();
+        
+        // Wake up everything waiting on take() so they see that the store's closed
+        workSignal.signalAll();
     }
 
     /**
@@ -357,6 +531,31 @@ public final class MemoryStore implements Store {
         return ret;
     }
 
+    // Called by the checkpoint ticker
+    private void checkpointExpired(Timeout<Address> timeout) {
+        Address actorAddr = timeout.getValue();
+        LockRegion lockRegion = getLockRegion(actorAddr);
+        synchronized (lockRegion) {
+            ActorData actorData = lockRegion.actors.get(actorAddr);
+            if (actorData == null || actorData.checkpointTimeout != timeout) { // discarded or re-checkpointed after the timeout fired
+                return;
+            }
+            actorData.checkpointTimeout = null;
+            lockRegion.expiredSet.add(actorAddr);
+        }
+
+        workSignal.signal();
+    }
+
+    // Returns null if the checkpoint will never hit (the default timeout is Long.MAX_VALUE) -- those don't go into the wheel, otherwise the
+    // ticker would keep waking up for them
+    private Timeout<Address> scheduleCheckpoint(Address actorAddr, long timeout) {
+        if (timeout == Long.MAX_VALUE || calculateCheckpointTime(timeout).equals(Instant.MAX)) {
+            return null;
+        }
+        return checkpointWheel.schedule(actorAddr, timeout);
+    }
+
     private static Instant calculateCheckpointTime(long timeout) {
         try {
             return Instant.now().plusMillis(timeout);
@@ -365,6 +564,14 @@ public final class MemoryStore implements Store {
         }
     }
 
+    private void cancelCheckpoint(LockRegion lockRegion, Address actorAddr, ActorData actorData) {
+        if (actorData.checkpointTimeout != null) {
+            checkpointWheel.cancel(actorData.checkpointTimeout);
+            actorData.checkpointTimeout = null;
+        }
+        lockRegion.expiredSet.remove(actorAddr);
+    }
+
 
 
 
@@ -383,7 +590,7 @@ public final class MemoryStore implements Store {
         return lockRegions.get(idx);
     }
     
-    private LockRegion randomizeLockRegion() {
+    private int randomizeLockRegionIndex() {
         long nanoTime = System.nanoTime();
         int threadHashCode = Thread.currentThread().hashCode();
         ByteBuffer byteBuffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
@@ -393,25 +600,15 @@ public final class MemoryStore implements Store {
         byte[] dataToHash = byteBuffer.array();
         byte[] hash = DigestUtils.md5(dataToHash);
         
-        int idx = Math.abs(wrap(hash).getInt() % lockRegions.size());
-        
-        return lockRegions.get(idx);
+        return Math.abs(wrap(hash).getInt() % lockRegions.size());
     }
 
 
 
 
     private static final class LockRegion {
-        private final BestEffortSerializer serializer = new BestEffortSerializer();
         private final HashMap<Address, ActorData> actors = new HashMap<>();         // actor addr -> stored actor obj
-        private final TreeSet<ActorData> timeouts = new TreeSet<>((x, y) -> {
-            int ret = x.checkpointTime.compareTo(y.checkpointTime);
-            if (ret == 0 && x != y) { // if we ever encounter the same time (but different objs), treat it as less-than -- we do this
-                                      // because we're using this set just to order (we still want duplicates showing up)
-                ret = -1;
-            }
-            return ret;
-        }); // timeout -> actor addr
+        private final LinkedHashSet<Address> expiredSet = new LinkedHashSet<>();    // actors whose checkpoint hit, not yet picked up
         
         private int pendingMsgCount; // cache of messages waiting to be processed
         
@@ -421,10 +618,12 @@ public final class MemoryStore implements Store {
     
     private static final class ActorData {
         private byte[] data;
+        private MessageFilter filter;
         private LinkedList<byte[]> msgQueue;
         
         private byte[] checkpointData;
-        private Instant checkpointTime;
+        private MessageFilter checkpointFilter;
+        private Timeout<Address> checkpointTimeout; // null if fired, if never going to fire, or if actor discarded
         private int checkpointInstance;
     }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.Validate;
+
+// Hashed timing wheel. Scheduling and cancelling are O(1): a timeout gets linked into the slot for the tick it's due on (slots wrap
+// around, so a slot can hold timeouts that are due several rotations later -- those are skipped over until their tick comes up).
+//
+// Timeouts are fired by whichever thread calls run() (the ticker). The ticker sleeps while the wheel is empty. While it isn't, the ticker
+// sleeps until the next tick that has a timeout due on it, or for one full rotation if nothing's due before then (timeouts further out
+// than that get found on a later rotation). Expired timeouts are handed to the expiry handler outside of the wheel's lock, so the handler is free to take other locks
+// (and to schedule/cancel) -- but that also means a timeout may get passed to the handler right after it was cancelled. Handlers have to
+// check that the timeout they're given is still the one they care about.
+final class TimingWheel<T> implements Runnable {
+    private final Object lock = new Object();
+    private final Slot<T>[] slots;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Consumer<Timeout<T>> expiryHandler;
+
+    private long currentTick; // last tick that was processed
+    private long wakeTick = Long.MAX_VALUE; // tick the ticker is sleeping until
+    private int count;
+    private boolean closed;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickDuration, TimeUnit tickUnit, int slotCount, Consumer<Timeout<T>> expiryHandler) {
+        Validate.isTrue(tickDuration > 0L);
+        Validate.notNull(tickUnit);
+        Validate.isTrue(slotCount > 0 && Integer.bitCount(slotCount) == 1, "Slot count must be a power of 2");
+        Validate.notNull(expiryHandler);
+
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot<>();
+        }
+        this.tickNanos = tickUnit.toNanos(tickDuration);
+        this.startNanos = System.nanoTime();
+        this.expiryHandler = expiryHandler;
+    }
+
+    // Timeout fires on the first tick boundary after delayMillis elapses (a delay of 0 or less fires on the next tick)
+    Timeout<T> schedule(T value, long delayMillis) {
+        Validate.notNull(value);
+
+        long delayNanos = Math.max(0L, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        long delayTicks = delayNanos / tickNanos + (delayNanos % tickNanos == 0L ? 0L : 1L);
+        synchronized (lock) {
+            Validate.validState(!closed, "Wheel closed");
+
+            long nowTick = elapsedTicks();
+            if (count == 0) {
+                currentTick = nowTick; // ticker doesn't advance while the wheel is empty -- skip it ahead rather than have it catch up
+            }
+
+            Timeout<T> timeout = new Timeout<>(value, nowTick + 1L + delayTicks);
+            slots[(int) (timeout.deadlineTick & (slots.length - 1))].add(timeout);
+            count++;
+
+            if (timeout.deadlineTick < wakeTick) {
+                lock.notifyAll(); // ticker is sleeping past when this is due (or sleeping because the wheel was empty)
+            }
+            return timeout;
+        }
+    }
+
+    // Returns false if the timeout already fired or was already cancelled
+    boolean cancel(Timeout<T> timeout) {
+        Validate.notNull(timeout);
+
+        synchronized (lock) {
+            if (timeout.slot == null) {
+                return false;
+            }
+            timeout.slot.remove(timeout);
+            count--;
+            return true;
+        }
+    }
+
+    int size() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Timeout<T>> expired = new ArrayList<>();
+        while (true) {
+            synchronized (lock) {
+                try {
+                    while (!closed) {
+                        if (count == 0) {
+                            wakeTick = Long.MAX_VALUE;
+                            lock.wait();
+                            continue;
+                        }
+
+                        // recalculated every time we wake up, schedule() wakes us up if it adds something due before wakeTick
+                        wakeTick = nextWakeTick();
+                        long waitNanos = startNanos + wakeTick * tickNanos - System.nanoTime();
+                        if (waitNanos <= 0L) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (closed) {
+                    return;
+                }
+
+                // Go through every tick that passed (the ticker may have fallen behind), but never loop over the same slot twice
+                long lastTick = elapsedTicks();
+                long endTick = Math.min(lastTick, currentTick + slots.length);
+                while (currentTick < endTick) {
+                    currentTick++;
+                    slots[(int) (currentTick & (slots.length - 1))].removeExpired(lastTick, expired);
+                }
+                currentTick = lastTick;
+                count -= expired.size();
+            }
+
+            for (Timeout<T> timeout : expired) {
+                expiryHandler.accept(timeout);
+            }
+            expired.clear();
+        }
+    }
+
+    // First tick within the next rotation that has a timeout due on it, or the end of the next rotation if there isn't one
+    private long nextWakeTick() {
+        for (int i = 1; i <= slots.length; i++) {
+            long tick = currentTick + i;
+            if (slots[(int) (tick & (slots.length - 1))].hasDue(tick)) {
+                return tick;
+            }
+        }
+        return currentTick + slots.length;
+    }
+
+    private long elapsedTicks() {
+        return (System.nanoTime() - startNanos) / tickNanos;
+    }
+
+    static final class Timeout<T> {
+        private final T value;
+        private final long deadlineTick;
+        private Slot<T> slot; // null if not in the wheel (fired or cancelled)
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        T getValue() {
+            return value;
+        }
+    }
+
+    // Intrusive doubly-linked list so that removal doesn't need a search
+    private static final class Slot<T> {
+        private Timeout<T> head;
+
+        void add(Timeout<T> timeout) {
+            timeout.slot = this;
+            timeout.prev = null;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout<T> timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.slot = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        boolean hasDue(long tick) {
+            for (Timeout<T> timeout = head; timeout != null; timeout = timeout.next) {
+                if (timeout.deadlineTick <= tick) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void removeExpired(long tick, List<Timeout<T>> out) {
+            Timeout<T> timeout = head;
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadlineTick <= tick) {
+                    remove(timeout);
+                    out.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+    }
+}
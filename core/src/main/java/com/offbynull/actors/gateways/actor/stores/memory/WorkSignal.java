@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.Validate;
+
+// Lets threads looking for work park until work may be available, rather than spinning.
+//
+// Usage: read sequence() BEFORE looking for work. If no work was found, call await() with that sequence. If signal() was called at any
+// point after the sequence was read, await() returns immediately (the caller should look for work again) -- this prevents lost wakeups.
+final class WorkSignal {
+    private final Object lock = new Object();
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicInteger waiters = new AtomicInteger(); // threads waiting (or about to wait) on lock
+
+    long sequence() {
+        return seq.get();
+    }
+
+    // Call when work may have become available (or the time the next piece of work will be available changed) -- wakes up 1 waiter
+    void signal() {
+        seq.incrementAndGet();
+        if (waiters.get() > 0) {
+            synchronized (lock) {
+                lock.notify();
+            }
+        }
+    }
+
+    // Wakes up all waiters
+    void signalAll() {
+        seq.incrementAndGet();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    // Waits until signalled or until wakeTime (Instant.MAX to wait indefinitely)
+    void await(long startSeq, Instant wakeTime) {
+        Validate.notNull(wakeTime);
+
+        // Must inc waiters BEFORE checking the sequence, otherwise signal() may skip the notify when it shouldn't
+        waiters.incrementAndGet();
+        try {
+            synchronized (lock) {
+                if (seq.get() != startSeq) { // something was signalled while the caller was looking for work, go look again
+                    return;
+                }
+
+                if (wakeTime.equals(Instant.MAX)) {
+                    lock.wait();
+                } else {
+                    long waitTime = Duration.between(Instant.now(), wakeTime).toMillis() + 1L; // +1 to round up
+                    if (waitTime > 0L) {
+                        lock.wait(waitTime);
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ie);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.actors.gateways.direct;
+
+import com.offbynull.actors.address.Address;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.Validate;
+
+// Concurrent prefix trie keyed by address elements. Lookups walk down the trie one element at a time, so finding the listeners for an
+// address doesn't have to build an Address for each of its prefixes. Lookups don't lock and are safe to run while values are being added
+// and removed.
+//
+// Removing a value prunes the nodes that are left without a value and without children, so short-lived registrations (e.g. a listen
+// address per request) don't leave nodes behind. Structural changes to a node (adding a child, setting its value, pruning it) happen while
+// holding that node's lock -- a pruned node is flagged so that a put that walked into it before it was detached starts over from the root.
+final class AddressTrie<V> {
+    private final Node<V> root = new Node<>();
+
+    // Returns existing value if one was already there (new value isn't set), otherwise returns null
+    V putIfAbsent(Address address, V value) {
+        Validate.notNull(address);
+        Validate.notNull(value);
+
+        restart:
+        while (true) {
+            Node<V> node = root;
+            for (int i = 0; i < address.size(); i++) {
+                synchronized (node) {
+                    if (node.pruned) {
+                        continue restart;
+                    }
+                    node = node.children.computeIfAbsent(address.getElement(i), k -> new Node<>());
+                }
+            }
+
+            synchronized (node) {
+                if (node.pruned) {
+                    continue;
+                }
+                // a remove can clear the value between a failed set and the read that follows it, so keep going until one of them sticks
+                while (true) {
+                    if (node.value.compareAndSet(null, value)) {
+                        return null;
+                    }
+                    V existing = node.value.get();
+                    if (existing != null) {
+                        return existing;
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns removed value, or null if there was nothing to remove
+    V remove(Address address) {
+        Validate.notNull(address);
+
+        int size = address.size();
+        @SuppressWarnings("unchecked")
+        Node<V>[] path = new Node[size + 1];
+        path[0] = root;
+        for (int i = 0; i < size; i++) {
+            path[i + 1] = path[i].children.get(address.getElement(i));
+            if (path[i + 1] == null) {
+                return null;
+            }
+        }
+
+        V removed = path[size].value.getAndSet(null);
+        if (removed == null) {
+            return null;
+        }
+
+        // prune from the bottom up, stopping at the first node that's still in use (root is never pruned)
+        for (int i = size; i > 0; i--) {
+            Node<V> node = path[i];
+            synchronized (node) {
+                if (node.pruned || node.value.get() != null || !node.children.isEmpty()) {
+                    break;
+                }
+                node.pruned = true;
+                path[i - 1].children.remove(address.getElement(i - 1), node);
+            }
+        }
+
+        return removed;
+    }
+
+    V get(Address address) {
+        Validate.notNull(address);
+
+        Node<V> node = find(address, address.size());
+        return node == null ? null : node.value.get();
+    }
+
+    // Value at the longest prefix of address (including address itself) that has a value, or null if no prefix has a value
+    V getLongestPrefix(Address address) {
+        Validate.notNull(address);
+
+        V found = null;
+        Node<V> node = root;
+        for (int i = 0; i < address.size(); i++) {
+            node = node.children.get(address.getElement(i));
+            if (node == null) {
+                break;
+            }
+            V value = node.value.get();
+            if (value != null) {
+                found = value;
+            }
+        }
+        return found;
+    }
+
+    // Calls consumer with the value of every prefix of address (including address itself) that has a value, longest prefix first
+    void forEachPrefix(Address address, Consumer<V> consumer) {
+        Validate.notNull(address);
+        Validate.notNull(consumer);
+
+        forEachPrefix(root, address, 0, consumer);
+    }
+
+    private void forEachPrefix(Node<V> parent, Address address, int idx, Consumer<V> consumer) {
+        if (idx == address.size()) {
+            return;
+        }
+
+        Node<V> node = parent.children.get(address.getElement(idx));
+        if (node == null) {
+            return;
+        }
+
+        forEachPrefix(node, address, idx + 1, consumer);
+        V value = node.value.get();
+        if (value != null) {
+            consumer.accept(value);
+        }
+    }
+
+    // True if there are no nodes left in the trie (every value has been removed and its nodes pruned)
+    boolean isEmpty() {
+        return root.children.isEmpty();
+    }
+
+    void clear() {
+        root.children.clear();
+    }
+
+    private Node<V> find(Address address, int depth) {
+        Node<V> node = root;
+        for (int i = 0; i < depth && node != null; i++) {
+            node = node.children.get(address.getElement(i));
+        }
+        return node;
+    }
+
+    private static final class Node<V> {
+        private final ConcurrentHashMap<String, Node<V>> children = new ConcurrentHashMap<>();
+        private final AtomicReference<V> value = new AtomicReference<>();
+        private boolean pruned; // detached from the trie, must only be accessed while holding this node's lock
+    }
+}
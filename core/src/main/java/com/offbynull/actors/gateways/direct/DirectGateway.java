@@ -42,7 +42,7 @@ public final class DirectGateway implements Gateway {
 
 
     private final String prefix;
-    private final ConcurrentHashMap<Address, Bus> readQueues;
+    private final AddressTrie<Bus> readQueues;
     private final ConcurrentHashMap<String, Shuttle> outShuttles;
     private final DirectShuttle shuttle;
     
@@ -71,7 +71,7 @@ public final class DirectGateway implements Gateway {
         Validate.notNull(prefix);
         
         this.prefix = prefix;
-        this.readQueues = new ConcurrentHashMap<>();
+        this.readQueues = new AddressTrie<>();
         this.outShuttles = new ConcurrentHashMap<>();
         this.shuttle = new DirectShuttle(prefix, readQueues);
         
@@ -293,21 +293,15 @@ public final class DirectGateway implements Gateway {
             throw new IllegalStateException();
         }
 
-        Address next = listenAddress;
-        do {
-            Bus queue = readQueues.get(next);
-            if (queue != null) {
-                List<Object> messageList = queue.pull(1, timeout, unit);
-                if (joinerLatch.getCount() == 0L) { // latch will be at 0 when closed
-                    throw new IllegalStateException();
-                }
-
-                return messageList.isEmpty() ? null : (Message) messageList.get(0);
-            }
-            next = next.removeSuffix(1);
-        } while (next.size() >= 1);
-
-        throw new IllegalArgumentException(listenAddress + " not registered for listening");
+        Bus queue = readQueues.getLongestPrefix(listenAddress);
+        Validate.isTrue(queue != null, "%s not registered for listening", listenAddress);
+
+        List<Object> messageList = queue.pull(1, timeout, unit);
+        if (joinerLatch.getCount() == 0L) { // latch will be at 0 when closed
+            throw new IllegalStateException();
+        }
+
+        return messageList.isEmpty() ? null : (Message) messageList.get(0);
     }
 
     /**
@@ -21,7 +21,6 @@ import com.offbynull.actors.shuttle.Message;
 import com.offbynull.actors.shuttle.Shuttle;
 import com.offbynull.actors.shuttles.simple.Bus;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,12 +30,12 @@ final class DirectShuttle implements Shuttle {
     private static final Logger LOG = LoggerFactory.getLogger(DirectShuttle.class);
     
     private final String prefix;
-    private final ConcurrentHashMap<Address, Bus> readQueues;
+    private final AddressTrie<Bus> readQueues;
 
-    DirectShuttle(String prefix, ConcurrentHashMap<Address, Bus> readQueues) {
+    DirectShuttle(String prefix, AddressTrie<Bus> readQueues) {
         Validate.notNull(prefix);
         Validate.notNull(readQueues);
-        // don't null check outShuttle keys/values -- this is a concurrent map that gets modified elsewhere, so we have no control
+        // don't check readQueues contents -- this is a concurrent trie that gets modified elsewhere, so we have no control
 
         this.prefix = prefix;
         this.readQueues = readQueues;
@@ -62,17 +61,7 @@ final class DirectShuttle implements Shuttle {
                 LOG.error("Error shuttling message: " + m, e);
             }
                 
-            Address next = dst;
-            while (true) {
-                Bus queue = readQueues.get(next);
-                if (queue != null) {
-                    queue.add(m);
-                }
-                if (next.size() == 1) {
-                    break;
-                }
-                next = next.removeSuffix(1);
-            }
+            readQueues.forEachPrefix(dst, queue -> queue.add(m));
         });
     }
     
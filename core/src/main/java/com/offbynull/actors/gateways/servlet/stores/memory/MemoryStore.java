@@ -17,6 +17,8 @@
 package com.offbynull.actors.gateways.servlet.stores.memory;
 
 import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
 import com.offbynull.actors.gateways.servlet.Store;
 import com.offbynull.actors.address.Address;
 import com.offbynull.actors.shuttle.Message;
@@ -45,11 +47,13 @@ public final class MemoryStore implements Store {
     private final LockRegion[] regions;
     private final Duration timeoutDuration;
     private final Clock clock;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
     
     private volatile boolean closed;
     
     /**
-     * Creates a {@link MemoryStore} object.
+     * Creates a {@link MemoryStore} object. Equivalent to calling {@code create(prefix, concurrency, timeout, new BestEffortSerializer()) }.
      * @param prefix prefix for the servlet gateway that this storage engine belongs to
      * @param concurrency concurrency level (should be set to number of cores or larger)
      * @param timeout timeout duration -- if messages are read by the time this timeout hits, they are discarded
@@ -58,19 +62,39 @@ public final class MemoryStore implements Store {
      * @throws IllegalArgumentException if {@code concurrency <= 0}
      */
     public static MemoryStore create(String prefix, int concurrency, Duration timeout) {
+        return create(prefix, concurrency, timeout, new BestEffortSerializer());
+    }
+    
+    /**
+     * Creates a {@link MemoryStore} object.
+     * @param prefix prefix for the servlet gateway that this storage engine belongs to
+     * @param concurrency concurrency level (should be set to number of cores or larger)
+     * @param timeout timeout duration -- if messages are read by the time this timeout hits, they are discarded
+     * @param serializer serializer to use for messages
+     * @return new memory store
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code concurrency <= 0}
+     */
+    public static MemoryStore create(String prefix, int concurrency, Duration timeout, Serializer serializer) {
         Validate.notNull(prefix);
+        Validate.notNull(serializer);
         Validate.isTrue(concurrency > 0);
         Validate.isTrue(!timeout.isNegative() && !timeout.isZero());
-        return new MemoryStore(prefix, concurrency, timeout);
+        return new MemoryStore(prefix, concurrency, timeout, serializer);
     }
     
-    MemoryStore(String prefix, int concurrency, Duration timeout) {
-        this(prefix, concurrency, timeout, Clock.systemDefaultZone());
+    MemoryStore(String prefix, int concurrency, Duration timeout, Serializer serializer) {
+        this(prefix, concurrency, timeout, serializer, Clock.systemDefaultZone());
     }
     
     MemoryStore(String prefix, int concurrency, Duration timeout, Clock clock) {
+        this(prefix, concurrency, timeout, new BestEffortSerializer(), clock);
+    }
+    
+    MemoryStore(String prefix, int concurrency, Duration timeout, Serializer serializer, Clock clock) {
         Validate.notNull(prefix);
         Validate.notNull(timeout);
+        Validate.notNull(serializer);
         Validate.notNull(clock);
         Validate.isTrue(concurrency > 0);
         Validate.isTrue(!timeout.isNegative() && !timeout.isZero());
@@ -84,6 +108,8 @@ public final class MemoryStore implements Store {
         
         timeoutDuration = timeout;
         this.clock = clock;
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
     }
     
     
@@ -115,7 +141,7 @@ public final class MemoryStore implements Store {
             lockRegion.timeouts.add(queue);
 
             List<byte[]> serializedMessages = messages.stream()
-                    .map(m -> lockRegion.serializer.serialize(m))
+                    .map(m -> messageCodec.encode(m))
                     .collect(toList());
             queue.outQueue.queue(serializedMessages);
         }
@@ -139,7 +165,7 @@ public final class MemoryStore implements Store {
 
             List<byte[]> serializedMessages = queue.outQueue.dequeue(offset);
             List<Message> messages = serializedMessages.stream()
-                    .map(d -> (Message) lockRegion.serializer.deserialize(d))
+                    .map(d -> messageCodec.decode(d))
                     .collect(toList());
             
             return messages;
@@ -176,7 +202,7 @@ public final class MemoryStore implements Store {
             lockRegion.timeouts.add(queue);
 
             List<byte[]> serializedMessages = messages.stream()
-                    .map(m -> lockRegion.serializer.serialize(m))
+                    .map(m -> messageCodec.encode(m))
                     .collect(toList());
             queue.inQueue.queue(offset, serializedMessages);
         }
@@ -199,7 +225,7 @@ public final class MemoryStore implements Store {
 
             List<byte[]> serializedMessages = queue.inQueue.dequeue();
             List<Message> messages = serializedMessages.stream()
-                    .map(d -> (Message) lockRegion.serializer.deserialize(d))
+                    .map(d -> messageCodec.decode(d))
                     .collect(toList());
             
             return messages;
@@ -245,7 +271,6 @@ public final class MemoryStore implements Store {
     
 
     private static final class LockRegion {
-        private final BestEffortSerializer serializer = new BestEffortSerializer();
         private final HashMap<String, Queues> queues = new HashMap<>();         // actor addr -> stored actor obj
         private final TreeSet<Queues> timeouts = new TreeSet<>((x, y) -> {
             int ret = x.lastAccessTime.compareTo(y.lastAccessTime);
@@ -0,0 +1,38 @@
+package com.offbynull.actors.address;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AddressInternerTest {
+
+    @Test
+    public void mustReturnSameInstanceForSameText() {
+        AddressInterner fixture = AddressInterner.create(10);
+        Address address = fixture.fromString("one:two");
+        assertEquals(Address.of("one", "two"), address);
+        assertSame(address, fixture.fromString("one:two"));
+    }
+
+    @Test
+    public void mustReturnSameInstanceForEquivalentTextAndAddresses() {
+        AddressInterner fixture = AddressInterner.create(10);
+        Address address = fixture.intern(Address.of("one", "t:wo"));
+        assertSame(address, fixture.fromString("one:t\\:wo"));
+        assertSame(address, fixture.intern(Address.of("one", "t:wo")));
+    }
+
+    @Test
+    public void mustStayBounded() {
+        AddressInterner fixture = AddressInterner.create(10);
+        Address first = fixture.fromString("actor:0");
+        for (int i = 1; i < 100; i++) {
+            fixture.fromString("actor:" + i);
+        }
+        assertTrue(fixture.size() <= 10);
+        assertNotSame(first, fixture.fromString("actor:0"));
+        assertEquals(first, fixture.fromString("actor:0"));
+    }
+}
@@ -1,8 +1,15 @@
 package com.offbynull.actors.address;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang3.SerializationUtils;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Rule;
 import org.junit.Test;
@@ -149,4 +156,89 @@ public class AddressTest {
     }
     
     
+
+    @Test
+    public void mustParseUnescapedStringSameAsEscapedString() {
+        Address fixture = Address.fromString("::one:two:");
+        assertEquals(Arrays.asList("", "", "one", "two", ""), fixture.getElements());
+        assertEquals(Address.of("", "", "one", "two", ""), fixture);
+        assertEquals(Address.of("", "", "one", "two", "").hashCode(), fixture.hashCode());
+        assertEquals("::one:two:", fixture.toString());
+    }
+
+    @Test
+    public void mustFailToParseNonAsciiUnescapedString() {
+        exception.expect(IllegalArgumentException.class);
+        Address.fromString("one:tw\u00e9o");
+    }
+
+    @Test
+    public void mustCacheStringForm() {
+        Address fixture = Address.of("one", "t:wo");
+        assertSame(fixture.toString(), fixture.toString());
+        assertEquals("one:t\\:wo", fixture.toString());
+    }
+
+    @Test
+    public void mustKeepEqualityAndHashAfterSerialization() {
+        Address fixture = Address.fromString("one:two");
+        int hash = fixture.hashCode();
+        Address copy = SerializationUtils.roundtrip(fixture);
+        assertEquals(fixture, copy);
+        assertEquals(hash, copy.hashCode());
+        assertEquals("one:two", copy.toString());
+    }
+
+    @Test
+    public void mustComputeCommonPrefixLength() {
+        Address fixture = Address.of("one", "two", "three");
+        assertEquals(2, fixture.commonPrefixLength(Address.of("one", "two", "xxxxx")));
+        assertEquals(2, fixture.commonPrefixLength(Address.of("one", "two")));
+        assertEquals(3, fixture.commonPrefixLength(Address.of("one", "two", "three", "four")));
+        assertEquals(0, fixture.commonPrefixLength(Address.of("xxxxx", "two", "three")));
+        assertEquals(2, fixture.commonPrefixLength(fixture.removeSuffix(1)));
+    }
+
+    @Test
+    public void mustCheckElementEquality() {
+        Address fixture = Address.of("one", "two", "three");
+        assertTrue(fixture.elementEquals(Address.of("xxxxx", "two"), 1));
+        assertFalse(fixture.elementEquals(Address.of("one", "xxxxx"), 1));
+        assertFalse(fixture.elementEquals(Address.of("one", "two"), 2));
+        assertFalse(fixture.elementEquals(Address.of("one", "two"), -1));
+    }
+
+    @Test
+    public void mustTreatDerivedAddressesSameAsNewAddresses() {
+        Address fixture = Address.of("zero", "one", "two", "three", "four");
+        Address derived = fixture.removePrefix(Address.of("zero")).removeSuffix(1);
+        Address expected = Address.of("one", "two", "three");
+
+        assertEquals(expected, derived);
+        assertEquals(expected.hashCode(), derived.hashCode());
+        assertEquals("one:two:three", derived.toString());
+        assertEquals(Arrays.asList("one", "two", "three"), derived.getElements());
+        assertEquals("two", derived.getElement(1));
+        assertTrue(derived.isPrefixOf(Address.of("one", "two", "three", "four")));
+        assertEquals(Address.of("one", "two", "three", "x"), derived.appendSuffix("x"));
+        assertEquals(expected, SerializationUtils.roundtrip(derived));
+    }
+
+    @Test
+    public void mustFailToDeserializeAddressWithNullElement() throws Exception {
+        byte[] data = SerializationUtils.serialize(Address.of("one", "two"));
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) throws IOException {
+                return obj instanceof List ? Arrays.asList("one", null) : obj; // swap in a tampered element list
+            }
+        }) {
+            exception.expect(InvalidObjectException.class);
+            in.readObject();
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package com.offbynull.actors.gateways.actor;
+
+import com.offbynull.actors.gateways.actor.stores.memory.MemoryStore;
+import com.offbynull.actors.gateways.direct.DirectGateway;
+import com.offbynull.coroutines.user.Coroutine;
+import java.time.Duration;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.Before;
+
+public class ActorBatchTest {
+    
+    private ActorGateway actor;
+    private DirectGateway direct;
+
+    @Before
+    public void setUp() {
+        actor = ActorGateway.create("runner", 1, MemoryStore.create("runner", 1), 10, 0, Duration.ZERO);
+        direct = DirectGateway.create("direct");
+        
+        direct.addOutgoingShuttle(actor.getIncomingShuttle());
+        actor.addOutgoingShuttle(direct.getIncomingShuttle());
+        
+        direct.listen("direct");
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        actor.close();
+        direct.close();
+    }
+    
+    @Test(timeout = 2000L)
+    public void mustCheckpointStateRightAfterMessageThatSetCheckpointWhenBatching() throws Exception {
+        Coroutine actor0 = cnt -> {
+            Context ctx = (Context) cnt.getContext();
+            ctx.allow();
+
+            int count = 0;
+            while (true) {
+                Object msg = ctx.in();
+                if ("checkpoint".equals(msg)) {
+                    ctx.checkpoint("restored", 200L);
+                } else if ("increment".equals(msg)) {
+                    count++;
+                } else if ("restored".equals(msg)) {
+                    ctx.checkpoint("restored", Long.MAX_VALUE);
+                    ctx.out("direct", count);
+                }
+                cnt.suspend();
+            }
+        };
+        
+        // all 3 priming messages get pulled in a single batch -- the increments come after the checkpoint, so they must not be part of it
+        actor.addActor("actor0", actor0, "checkpoint", "increment", "increment");
+        
+        assertEquals(0, (int) direct.readMessagePayloadOnly("direct"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.offbynull.actors.gateways.actor;
+
+import com.offbynull.actors.gateways.actor.stores.memory.MemoryStore;
+import com.offbynull.actors.gateways.direct.DirectGateway;
+import com.offbynull.coroutines.user.Coroutine;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.Before;
+
+public class ActorExecutorTest {
+    
+    private ExecutorService executor;
+    private AtomicInteger executedCount;
+    private ActorGateway actor;
+    private DirectGateway direct;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        executedCount = new AtomicInteger();
+        actor = ActorGateway.create("runner", 4, MemoryStore.create("runner", 4), r -> {
+            executedCount.incrementAndGet();
+            executor.execute(r);
+        });
+        direct = DirectGateway.create("direct");
+        
+        direct.addOutgoingShuttle(actor.getIncomingShuttle());
+        actor.addOutgoingShuttle(direct.getIncomingShuttle());
+        
+        direct.listen("direct");
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        actor.close();
+        direct.close();
+        executor.shutdownNow();
+    }
+    
+    @Test(timeout = 2000L)
+    public void mustRunWorkersOnSuppliedExecutor() throws Exception {
+        Coroutine actor0 = cnt -> {
+            Context ctx = (Context) cnt.getContext();
+            ctx.allow();
+
+            ctx.out("direct", "ready");
+            
+            while (true) {
+                cnt.suspend();
+                ctx.out("direct", ctx.in());
+            }
+        };
+        
+        actor.addActor("actor0", actor0, new Object());
+        
+        assertEquals(4, executedCount.get());
+        assertEquals("ready", direct.readMessagePayloadOnly("direct"));
+        
+        direct.writeMessage("runner:actor0", "hi!");
+        assertEquals("hi!", direct.readMessagePayloadOnly("direct"));
+    }
+    
+    @Test(timeout = 2000L)
+    public void mustFinishWorkersOnClose() throws Exception {
+        actor.close();
+        actor.join();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1000L, TimeUnit.MILLISECONDS));
+    }
+}
@@ -4,6 +4,7 @@ import com.offbynull.actors.gateways.actor.Context.BatchedOutgoingMessageCommand
 import com.offbynull.actors.address.Address;
 import java.util.List;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
@@ -65,5 +66,24 @@ public class ContextTest {
         assertEquals(Address.fromString("test3"), outgoingMsgs.get(2).getDestination());
         assertEquals("3", outgoingMsgs.get(2).getMessage());
     }
-    
+
+    @Test
+    public void mustOnlyMarkDirtyWhenPersistedStateChanges() {
+        fixture.dirty(false);
+
+        fixture.out("test1", "1");
+        fixture.mode(Context.SuspendFlag.FORWARD_AND_RETURN);
+        assertFalse(fixture.dirty());
+
+        fixture.allow();
+        assertTrue(fixture.dirty());
+        fixture.dirty(false);
+
+        fixture.checkpoint("checkpoint", 1000L);
+        assertTrue(fixture.dirty());
+        fixture.dirty(false);
+
+        fixture.shortcircuit(String.class, ctx -> Context.ShortcircuitAction.PASS);
+        assertTrue(fixture.dirty());
+    }
 }
@@ -0,0 +1,254 @@
+package com.offbynull.actors.gateways.actor;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.gateways.actor.Store.StoredWork;
+import com.offbynull.actors.gateways.actor.stores.memory.MemoryStore;
+import com.offbynull.actors.shuttle.Message;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResidentCacheTest {
+
+    private MemoryStore store;
+
+    @Before
+    public void before() {
+        store = MemoryStore.create("actor", 1);
+    }
+
+    @After
+    public void after() throws Exception {
+        store.close();
+    }
+
+    @Test(timeout = 2000L)
+    public void mustKeepActorResidentAfterRelease() {
+        ResidentCache fixture = new ResidentCache(store, 10, Duration.ofDays(1L));
+        Actor actor = addActor("actor:a");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        StoredWork work = store.take();
+        assertNull(fixture.checkout(work.getActorAddress(), work.getCheckpointInstance()));
+
+        actor.context().checkpointUpdated(false);
+        assertTrue(fixture.checkin(actor, Instant.now(), true, false));
+        assertEquals(1, fixture.size());
+        assertEquals(0, store.getProcessingActorCount());
+
+        store.store(new Message("actor:a", "actor:a", "payload2"));
+        work = store.take();
+        ResidentCache.Entry entry = fixture.checkout(work.getActorAddress(), work.getCheckpointInstance());
+        assertNotNull(entry);
+        assertSame(actor, entry.actor());
+        assertEquals(0, fixture.size());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustDropResidentActorWithOldCheckpointInstance() {
+        ResidentCache fixture = new ResidentCache(store, 10, Duration.ofDays(1L));
+        Actor actor = addActor("actor:a");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        store.take();
+        actor.context().checkpointUpdated(false);
+        assertTrue(fixture.checkin(actor, Instant.now(), true, false));
+
+        assertNull(fixture.checkout(Address.fromString("actor:a"), actor.context().checkpointInstance() + 1));
+        assertEquals(0, fixture.size());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustNotReleaseActorWithOldCheckpointInstance() {
+        ResidentCache fixture = new ResidentCache(store, 10, Duration.ofDays(1L));
+        Actor actor = addActor("actor:a");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        store.take();
+        actor.context().checkpointUpdated(false);
+        actor.context().checkpointInstance(actor.context().checkpointInstance() + 1);
+
+        assertFalse(fixture.checkin(actor, Instant.now(), true, false));
+        assertEquals(0, fixture.size());
+        assertEquals(1, store.getProcessingActorCount());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustWriteBackActorOnEviction() {
+        ResidentCache fixture = new ResidentCache(store, 1, Duration.ofDays(1L));
+        Actor actorA = addActor("actor:a");
+        Actor actorB = addActor("actor:b");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        store.take();
+        actorA.context().checkpointUpdated(false);
+        actorA.context().checkpointPayload("updated");
+        assertTrue(fixture.checkin(actorA, Instant.now(), true, false));
+
+        store.store(new Message("actor:b", "actor:b", "payload1"));
+        store.take();
+        actorB.context().checkpointUpdated(false);
+        assertTrue(fixture.checkin(actorB, Instant.now(), true, false));
+        assertEquals(1, fixture.size());
+
+        store.store(new Message("actor:a", "actor:a", "payload2"));
+        StoredWork work = store.take();
+        assertNull(fixture.checkout(work.getActorAddress(), work.getCheckpointInstance()));
+        assertEquals("updated", work.getActor().getCheckpointPayload());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustWriteBackActorOnFlush() {
+        ResidentCache fixture = new ResidentCache(store, 10, Duration.ofDays(1L));
+        Actor actor = addActor("actor:a");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        store.take();
+        actor.context().checkpointUpdated(false);
+        actor.context().checkpointPayload("updated");
+        assertTrue(fixture.checkin(actor, Instant.now(), true, false));
+
+        fixture.flush();
+        assertEquals(1, fixture.size());
+
+        assertTrue(store.storeIdle(SerializableActorHelper.createFake("actor:a"))); // clobber, flushed actor must not be written again
+        fixture.flush();
+
+        store.store(new Message("actor:a", "actor:a", "payload2"));
+        StoredWork work = store.take();
+        assertNotEquals("updated", work.getActor().getCheckpointPayload());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustNotWriteBackUnchangedActor() {
+        ResidentCache fixture = new ResidentCache(store, 10, Duration.ZERO);
+        Actor actor = addActor("actor:a");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        store.take();
+        actor.context().checkpointUpdated(false);
+        actor.context().checkpointPayload("updated");
+        assertTrue(fixture.checkin(actor, Instant.now(), false, false));
+        assertEquals(0, store.getProcessingActorCount());
+
+        fixture.flush();
+
+        store.store(new Message("actor:a", "actor:a", "payload2"));
+        StoredWork work = store.take();
+        assertNotEquals("updated", work.getActor().getCheckpointPayload());
+    }
+
+    @Test(timeout = 5000L)
+    public void mustWaitForInProgressCheckinBeforeClosing() throws Exception {
+        CountDownLatch storeEnteredLatch = new CountDownLatch(1);
+        CountDownLatch storeResumeLatch = new CountDownLatch(1);
+        Store blockingStore = new BlockingStore(store, storeEnteredLatch, storeResumeLatch);
+        ResidentCache fixture = new ResidentCache(blockingStore, 10, Duration.ofDays(1L));
+        Actor actorA = addActor("actor:a");
+        Actor actorB = addActor("actor:b");
+
+        store.store(new Message("actor:a", "actor:a", "payload1"));
+        store.take();
+        actorA.context().checkpointUpdated(false);
+        actorA.context().checkpointPayload("updated");
+        Thread checkinThread = new Thread(() -> fixture.checkin(actorA, Instant.now(), true, true)); // forced, so it blocks in store()
+        checkinThread.start();
+        storeEnteredLatch.await();
+
+        Thread closeThread = new Thread(fixture::close);
+        closeThread.start();
+        closeThread.join(500L);
+        assertTrue(closeThread.isAlive()); // waiting on the checkin that's mid-store
+
+        storeResumeLatch.countDown();
+        checkinThread.join();
+        closeThread.join();
+        assertEquals(0, fixture.size());
+
+        // checkins after close go straight to the store
+        store.store(new Message("actor:b", "actor:b", "payload1"));
+        store.take();
+        actorB.context().checkpointUpdated(false);
+        actorB.context().checkpointPayload("updated");
+        assertTrue(fixture.checkin(actorB, Instant.now(), true, false));
+        assertEquals(0, fixture.size());
+
+        store.store(new Message("actor:b", "actor:b", "payload2"));
+        StoredWork work = store.take();
+        assertEquals("updated", work.getActor().getCheckpointPayload());
+    }
+
+    private Actor addActor(String address) {
+        Context context = new Context(Address.fromString(address));
+        CoroutineRunner runner = new CoroutineRunner(cnt -> {});
+        Actor actor = new Actor(null, runner, context);
+        store.store(SerializableActor.serialize(actor));
+        return actor;
+    }
+
+    private static final class BlockingStore implements Store {
+        private final Store backingStore;
+        private final CountDownLatch storeEnteredLatch;
+        private final CountDownLatch storeResumeLatch;
+
+        BlockingStore(Store backingStore, CountDownLatch storeEnteredLatch, CountDownLatch storeResumeLatch) {
+            this.backingStore = backingStore;
+            this.storeEnteredLatch = storeEnteredLatch;
+            this.storeResumeLatch = storeResumeLatch;
+        }
+
+        @Override
+        public boolean store(SerializableActor actor) {
+            storeEnteredLatch.countDown();
+            try {
+                storeResumeLatch.await();
+            } catch (InterruptedException ie) {
+                throw new IllegalStateException(ie);
+            }
+            return backingStore.store(actor);
+        }
+
+        @Override
+        public boolean storeIdle(SerializableActor actor) {
+            return backingStore.storeIdle(actor);
+        }
+
+        @Override
+        public boolean release(Address address, int checkpointInstance) {
+            return backingStore.release(address, checkpointInstance);
+        }
+
+        @Override
+        public void store(Collection<Message> messages) {
+            backingStore.store(messages);
+        }
+
+        @Override
+        public void discard(Address address) {
+            backingStore.discard(address);
+        }
+
+        @Override
+        public StoredWork takeBatch(int maxMessages) {
+            return backingStore.takeBatch(maxMessages);
+        }
+
+        @Override
+        public void close() throws IOException {
+            backingStore.close();
+        }
+    }
+}
@@ -2,6 +2,13 @@ package com.offbynull.actors.gateways.actor;
 
 import com.offbynull.actors.gateways.actor.RuleSet.AccessType;
 import com.offbynull.actors.address.Address;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -419,4 +426,107 @@ public class RuleSetTest {
                 fixture.evaluate(Address.fromString("addr1:addr2"), String.class)
         );        
     }
+
+    @Test
+    public void mustFallThroughToParentRuleWhenTypeDoesNotMatch() {
+        fixture.rejectAll();
+        fixture.allow(Address.fromString("addr1"), true, String.class);
+        fixture.reject(Address.fromString("addr1:addr2"), true, Integer.class);
+        assertEquals(
+                AccessType.ALLOW,
+                fixture.evaluate(Address.fromString("addr1:addr2:addr3"), String.class)
+        );
+        assertEquals(
+                AccessType.REJECT,
+                fixture.evaluate(Address.fromString("addr1:addr2:addr3"), Integer.class)
+        );
+        assertEquals(
+                AccessType.REJECT,
+                fixture.evaluate(Address.fromString("addr1:addr2:addr3"), Object.class)
+        );
+    }
+
+    @Test
+    public void mustReevaluateAfterRulesChange() {
+        fixture.rejectAll();
+        fixture.allow(Address.fromString("addr1"), true);
+        assertEquals(
+                AccessType.ALLOW,
+                fixture.evaluate(Address.fromString("addr1:addr2"), Object.class)
+        );
+
+        fixture.reject(Address.fromString("addr1"), true);
+        assertEquals(
+                AccessType.REJECT,
+                fixture.evaluate(Address.fromString("addr1:addr2"), Object.class)
+        );
+
+        fixture.allowAll();
+        assertEquals(
+                AccessType.ALLOW,
+                fixture.evaluate(Address.fromString("addr1:addr2"), Object.class)
+        );
+    }
+
+    @Test
+    public void mustEvaluateSameAfterSerialization() {
+        fixture.rejectAll();
+        fixture.allow(Address.fromString("addr1"), true);
+        fixture.reject(Address.fromString("addr1:addr2"), false, String.class);
+        assertEquals(
+                AccessType.REJECT,
+                fixture.evaluate(Address.fromString("addr1:addr2"), String.class)
+        );
+
+        RuleSet copy = SerializationUtils.clone(fixture);
+        assertEquals(
+                AccessType.REJECT,
+                copy.evaluate(Address.fromString("addr1:addr2"), String.class)
+        );
+        assertEquals(
+                AccessType.ALLOW,
+                copy.evaluate(Address.fromString("addr1:addr2"), Object.class)
+        );
+        assertEquals(
+                AccessType.ALLOW,
+                copy.evaluate(Address.fromString("addr1:addr2:addr3"), String.class)
+        );
+        assertEquals(
+                AccessType.REJECT,
+                copy.evaluate(Address.fromString("addr2"), Object.class)
+        );
+    }
+
+    @Test(timeout = 10000L)
+    public void mustEvaluateCopyConcurrently() throws Exception {
+        Class<?>[] types = new Class<?>[] { String.class, Integer.class, Long.class, Double.class };
+        fixture.rejectAll();
+        for (int i = 0; i < 100; i++) {
+            fixture.allow(Address.of("src", "" + i), true, types[i % types.length]);
+        }
+        
+        RuleSet copy = new RuleSet(fixture); // same as what MessageFilter holds on to and shares between threads
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int n = 0; n < 20000; n++) {
+                        int i = random.nextInt(100);
+                        int j = random.nextInt(types.length);
+                        AccessType expected = i % types.length == j ? AccessType.ALLOW : AccessType.REJECT;
+                        assertEquals(expected, copy.evaluate(Address.of("src", "" + i, "child"), types[j]));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -16,6 +16,15 @@ public final class SerializableActorHelper {
         return SerializableActor.serialize(actor);        
     }
     
+    public static SerializableActor createFakeAcceptingAll(String address) {
+        Context context = new Context(Address.fromString(address));
+        context.allow();
+        CoroutineRunner runner = new CoroutineRunner(cnt -> {});
+        Actor actor = new Actor(null, runner, context);
+        
+        return SerializableActor.serialize(actor);
+    }
+    
     public static SerializableActor createFake(String address, Object checkpointMsg, long checkpointTimeout) {
         Context context = new Context(Address.fromString(address));
         context.checkpointTimeout(checkpointTimeout);
@@ -0,0 +1,118 @@
+package com.offbynull.actors.gateways.actor;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.gateways.actor.RuleSet.AccessType;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+public class SerializableActorTest {
+
+    @Test
+    public void mustNotLoadChildrenUntilNeeded() {
+        SerializableActor serializableActor = SerializableActor.serialize(createActorWithChildren("actor:a", "c1", "c2"));
+
+        Actor actor = SerializableActor.deserialize(serializableActor);
+        assertTrue(actor.children().isEmpty());
+        assertEquals(2, actor.unloadedChildren().size());
+        assertTrue(actor.isChild("c1"));
+        assertTrue(actor.isChild("c2"));
+
+        Actor child = actor.getChild("c1");
+        assertNotNull(child);
+        assertSame(actor, child.parent());
+        assertEquals(Address.fromString("actor:a:c1"), child.context().self());
+        assertEquals(1, actor.children().size());
+        assertEquals(1, actor.unloadedChildren().size());
+
+        assertNull(actor.getChild("c3"));
+        assertFalse(actor.isChild("c3"));
+    }
+
+    @Test
+    public void mustWriteBackUnloadedChildrenAsIs() {
+        SerializableActor serializableActor = SerializableActor.serialize(createActorWithChildren("actor:a", "c1", "c2"));
+
+        Actor actor = SerializableActor.deserialize(serializableActor);
+        SerializableActor unloadedChild = actor.unloadedChildren().get("c2");
+        actor.getChild("c1");
+
+        Actor reloadedActor = SerializableActor.deserialize(SerializableActor.serialize(actor));
+        assertEquals(2, reloadedActor.unloadedChildren().size());
+        assertSame(unloadedChild, reloadedActor.unloadedChildren().get("c2"));
+        assertEquals(Address.fromString("actor:a:c1"), reloadedActor.getChild("c1").context().self());
+    }
+
+    @Test
+    public void mustRemoveUnloadedChild() {
+        SerializableActor serializableActor = SerializableActor.serialize(createActorWithChildren("actor:a", "c1"));
+
+        Actor actor = SerializableActor.deserialize(serializableActor);
+        actor.removeChild("c1");
+        assertFalse(actor.isChild("c1"));
+
+        Actor reloadedActor = SerializableActor.deserialize(SerializableActor.serialize(actor));
+        assertFalse(reloadedActor.isChild("c1"));
+    }
+
+    @Test
+    public void mustNotReconstructRunnerUntilNeeded() {
+        SerializableActor serializableActor = SerializableActor.serialize(createActorWithChildren("actor:a"));
+
+        Actor actor = SerializableActor.deserialize(serializableActor);
+        assertFalse(actor.isRunnerLoaded());
+
+        Actor reloadedActor = SerializableActor.deserialize(SerializableActor.serialize(actor));
+        assertFalse(reloadedActor.isRunnerLoaded());
+        assertNotNull(reloadedActor.runner());
+        assertTrue(reloadedActor.isRunnerLoaded());
+    }
+
+    @Test
+    public void mustRoundTripThroughJavaSerialization() {
+        Actor original = createActorWithChildren("actor:a", "c1");
+        Context context = original.context();
+        context.allow("actor:b", true, String.class);
+        context.block("actor:a:c1", false);
+        context.intercept(true);
+        context.checkpointTimeout(5000L);
+        context.checkpointInstance(-3);
+        context.checkpointUpdated(false);
+
+        SerializableActor copy = SerializationUtils.roundtrip(SerializableActor.serialize(original));
+        assertEquals(Address.fromString("actor:a"), copy.getSelf());
+        assertSame(Context.DEFAULT_CHECKPOINT_PAYLOAD, copy.getCheckpointPayload());
+        assertEquals(5000L, copy.getCheckpointTimeout());
+        assertEquals(-3, copy.getCheckpointInstance());
+        assertFalse(copy.getCheckpointUpdated());
+
+        Actor actor = SerializableActor.deserialize(copy);
+        RuleSet ruleSet = actor.context().ruleSet();
+        assertTrue(actor.context().intercept());
+        assertEquals(AccessType.ALLOW, ruleSet.evaluate(Address.fromString("actor:a"), Integer.class));
+        assertEquals(AccessType.ALLOW, ruleSet.evaluate(Address.fromString("actor:b:x"), String.class));
+        assertEquals(AccessType.REJECT, ruleSet.evaluate(Address.fromString("actor:b:x"), Integer.class));
+        assertEquals(AccessType.REJECT, ruleSet.evaluate(Address.fromString("actor:a:c1"), String.class));
+
+        Actor child = actor.getChild("c1");
+        assertEquals(Address.fromString("actor:a:c1"), child.context().self());
+        assertSame(actor.context().outs(), child.context().outs());
+    }
+
+    private static Actor createActorWithChildren(String address, String... childIds) {
+        Context context = new Context(Address.fromString(address));
+        Actor actor = new Actor(null, new CoroutineRunner(cnt -> {}), context);
+        for (String childId : childIds) {
+            Context childContext = new Context(context, childId);
+            Actor child = new Actor(actor, new CoroutineRunner(cnt -> {}), childContext);
+            actor.putChild(childId, child);
+        }
+        return actor;
+    }
+}
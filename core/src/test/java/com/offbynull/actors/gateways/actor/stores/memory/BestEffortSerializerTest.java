@@ -1,6 +1,9 @@
 package com.offbynull.actors.gateways.actor.stores.memory;
 
 import com.offbynull.actors.common.BestEffortSerializer;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -71,6 +74,113 @@ public class BestEffortSerializerTest {
     }
     
     
+    @Test
+    public void mustFallBackWhenPreviouslySerializableClassReferencesNonSerializableObject() {
+        Holder serializableHolder = new Holder(5, "serializable");
+        fixture.deserialize(fixture.serialize(serializableHolder));
+        assertEquals(0L, fixture.getFallbackCount());
+
+        Holder nonSerializableHolder = new Holder(6, new NonSerializableClass());
+        Holder readObj = fixture.deserialize(fixture.serialize(nonSerializableHolder));
+        assertEquals(6, readObj.x);
+        assertTrue(readObj.value instanceof NonSerializableClass);
+        assertTrue(fixture.getFallbackCount() > 0L);
+    }
+
+    @Test
+    public void mustNotFallBackForAlwaysSerializableClass() {
+        FinalFieldsHolder writeObj = new FinalFieldsHolder(7, "value", new int[] { 1, 2, 3 });
+        FinalFieldsHolder readObj = fixture.deserialize(fixture.serialize(writeObj));
+        assertEquals(7, readObj.x);
+        assertEquals("value", readObj.s);
+        assertArrayEquals(new int[] { 1, 2, 3 }, readObj.arr);
+        assertEquals(0L, fixture.getFallbackCount());
+    }
+    
+    @Test
+    public void mustSerializeAndDeserializeArrayOfNonSerializableObjects() {
+        Holder writeObj = new Holder(8, new Object[] { new NonSerializableClass(), "str" });
+        Holder readObj = fixture.deserialize(fixture.serialize(writeObj));
+        Object[] arr = (Object[]) readObj.value;
+        assertEquals(8, readObj.x);
+        assertTrue(arr[0] instanceof NonSerializableClass);
+        assertEquals("str", arr[1]);
+    }
+    
+    @Test
+    public void mustSerializeAndDeserializeDeepGraphWithCyclesBackToAncestors() {
+        Node root = new Node(null);
+        Node last = root;
+        for (int i = 0; i < 500; i++) {
+            Node next = new Node(last);
+            last.child = next;
+            last = next;
+        }
+        
+        Node readRoot = fixture.deserialize(fixture.serialize(root));
+        
+        int depth = 0;
+        for (Node node = readRoot; node.child != null; node = node.child) {
+            assertTrue(node.self == node);
+            assertTrue(node.child.parent == node);
+            assertTrue(node.child.root == readRoot);
+            depth++;
+        }
+        assertEquals(500, depth);
+    }
+    
+    @Test
+    public void mustSerializeToStreamAndDeserializeFromByteBuffer() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(new byte[] { 1, 2, 3 }); // junk at the start, to make sure reads start at the buffer's position
+        fixture.serialize(new Holder(9, new NonSerializableClass()), baos);
+        byte[] data = baos.toByteArray();
+
+        ByteBuffer heapBuffer = ByteBuffer.wrap(data);
+        heapBuffer.position(3);
+        Holder heapObj = fixture.deserialize(heapBuffer);
+        assertEquals(9, heapObj.x);
+        assertEquals(3, heapBuffer.position());
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length);
+        directBuffer.put(data);
+        directBuffer.position(3);
+        Holder directObj = fixture.deserialize(directBuffer);
+        assertEquals(9, directObj.x);
+        assertTrue(directObj.value instanceof NonSerializableClass);
+        assertEquals(3, directBuffer.position());
+
+        Holder deterministicObj = new Holder(10, "value");
+        baos.reset();
+        fixture.serialize(deterministicObj, baos);
+        assertArrayEquals(baos.toByteArray(), fixture.serialize(deterministicObj));
+        assertArrayEquals(baos.toByteArray(), fixture.serialize(deterministicObj)); // buffer reused by 2nd call must start out empty
+    }
+    
+    private static final class Holder implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int x;
+        private final Object value;
+
+        Holder(int x, Object value) {
+            this.x = x;
+            this.value = value;
+        }
+    }
+    
+    private static final class FinalFieldsHolder implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int x;
+        private final String s;
+        private final int[] arr;
+
+        FinalFieldsHolder(int x, String s, int[] arr) {
+            this.x = x;
+            this.s = s;
+            this.arr = arr;
+        }
+    }
+    
     private static final class TestClass {
 
         private transient TestClass self = this;
@@ -122,6 +232,18 @@ public class BestEffortSerializerTest {
         }
     }
 
+    private static final class Node { // not serializable, forces best effort serialization
+        private Node child;
+        private final Node self = this; // written after child, by which point child and everything under it have been written
+        private final Node parent;
+        private final Node root;
+
+        Node(Node parent) {
+            this.parent = parent;
+            this.root = parent == null ? this : parent.root;
+        }
+    }
+
     private static final class NonSerializableClass {
 
         private final double d = Math.random();
@@ -0,0 +1,87 @@
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.CompactSerializer;
+import com.offbynull.actors.shuttle.Message;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CompactSerializerTest {
+
+    private CompactSerializer fixture = CompactSerializer.create(Arrays.asList(TestClass.class));
+
+    @Test
+    public void mustSerializeAndDeserializeRegisteredAndUnregisteredClasses() {
+        TestClass writeObj = new TestClass();
+        writeObj.list.add(new UnregisteredClass(5));
+        writeObj.map.put("key", 10L);
+        writeObj.message = new Message("actor:a", "actor:b:c", 99);
+
+        TestClass readObj = fixture.deserialize(fixture.serialize(writeObj));
+
+        assertEquals(1, readObj.list.size());
+        assertEquals(5, ((UnregisteredClass) readObj.list.get(0)).x);
+        assertEquals(10L, (long) readObj.map.get("key"));
+        assertEquals(writeObj.message.getSourceAddress(), readObj.message.getSourceAddress());
+        assertEquals(writeObj.message.getDestinationAddress(), readObj.message.getDestinationAddress());
+        assertEquals(99, readObj.message.getMessage());
+    }
+
+    @Test
+    public void mustWriteLessThanBestEffortSerializer() {
+        Message message = new Message("actor:a", "actor:b:c", 99);
+        assertTrue(fixture.serialize(message).length < new BestEffortSerializer().serialize(message).length);
+    }
+
+    @Test
+    public void mustFallBackForNonSerializableObjects() {
+        TestClass writeObj = new TestClass();
+        writeObj.other = new NonSerializableClass(7);
+
+        TestClass readObj = fixture.deserialize(fixture.serialize(writeObj));
+
+        assertEquals(7, ((NonSerializableClass) readObj.other).x);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailWhenRegisteringClassMoreThanOnce() {
+        CompactSerializer.create(Arrays.asList(TestClass.class, TestClass.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailWhenRegisteringNonSerializableClass() {
+        CompactSerializer.create(Arrays.asList(NonSerializableClass.class));
+    }
+
+    private static final class TestClass implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<Object> list = new ArrayList<>();
+        private final Map<String, Long> map = new HashMap<>();
+        private Message message;
+        private Object other;
+    }
+
+    private static final class UnregisteredClass implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int x;
+
+        UnregisteredClass(int x) {
+            this.x = x;
+        }
+    }
+
+    private static final class NonSerializableClass {
+        private final int x;
+
+        NonSerializableClass(int x) {
+            this.x = x;
+        }
+    }
+}
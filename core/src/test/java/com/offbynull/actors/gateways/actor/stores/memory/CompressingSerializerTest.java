@@ -0,0 +1,88 @@
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.CompressingSerializer;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CompressingSerializerTest {
+
+    private final BestEffortSerializer backingSerializer = new BestEffortSerializer();
+
+    @Test
+    public void mustCompressLargeBlobs() {
+        CompressingSerializer fixture = CompressingSerializer.create(backingSerializer);
+        TestClass writeObj = new TestClass(1000);
+
+        byte[] data = fixture.serialize(writeObj);
+        TestClass readObj = fixture.deserialize(data);
+
+        assertEquals(writeObj.items, readObj.items);
+        assertTrue(data.length < backingSerializer.serialize(writeObj).length / 2);
+        assertEquals(1L, fixture.getCompressedCount());
+        assertEquals(0L, fixture.getUncompressedCount());
+        assertTrue(fixture.getCompressionRatio() < 0.5);
+        assertTrue(fixture.getBytesAfterCompression() < fixture.getBytesBeforeCompression());
+    }
+
+    @Test
+    public void mustNotCompressBlobsUnderThreshold() {
+        CompressingSerializer fixture = CompressingSerializer.create(backingSerializer);
+
+        byte[] data = fixture.serialize("hi");
+        String readObj = fixture.deserialize(data);
+
+        assertEquals("hi", readObj);
+        assertEquals(backingSerializer.serialize("hi").length + 1, data.length);
+        assertEquals(0L, fixture.getCompressedCount());
+        assertEquals(1L, fixture.getUncompressedCount());
+        assertEquals(1.0, fixture.getCompressionRatio(), 0.0);
+    }
+
+    @Test
+    public void mustCompressBetterWithDictionary() {
+        TestClass dictionaryObj = new TestClass(5);
+        Map<Class<?>, byte[]> dictionaries = new HashMap<>();
+        dictionaries.put(TestClass.class, backingSerializer.serialize(dictionaryObj));
+
+        CompressingSerializer plainFixture = CompressingSerializer.create(backingSerializer, 0, Deflater.BEST_SPEED, new HashMap<>());
+        CompressingSerializer dictionaryFixture = CompressingSerializer.create(backingSerializer, 0, Deflater.BEST_SPEED, dictionaries);
+        TestClass writeObj = new TestClass(6);
+
+        byte[] plainData = plainFixture.serialize(writeObj);
+        byte[] dictionaryData = dictionaryFixture.serialize(writeObj);
+        TestClass readObj = dictionaryFixture.deserialize(dictionaryData);
+
+        assertEquals(writeObj.items, readObj.items);
+        assertTrue(dictionaryData.length < plainData.length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mustFailToDecompressWithoutDictionary() {
+        Map<Class<?>, byte[]> dictionaries = Collections.singletonMap(TestClass.class, backingSerializer.serialize(new TestClass(5)));
+        CompressingSerializer writeFixture = CompressingSerializer.create(backingSerializer, 0, Deflater.BEST_SPEED, dictionaries);
+        CompressingSerializer readFixture = CompressingSerializer.create(backingSerializer, 0, Deflater.BEST_SPEED, new HashMap<>());
+
+        readFixture.deserialize(writeFixture.serialize(new TestClass(6)));
+    }
+
+    private static final class TestClass implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> items = new ArrayList<>();
+
+        TestClass(int count) {
+            for (int i = 0; i < count; i++) {
+                items.add("item number " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.gateways.actor.SerializableActor;
+import com.offbynull.actors.gateways.actor.SerializableActorHelper;
+import com.offbynull.actors.gateways.actor.Store.StoredWork;
+import com.offbynull.actors.shuttle.Message;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.junit.Before;
+
+public class ConcurrentMemoryStoreTest {
+
+    private ConcurrentMemoryStore fixture;
+    
+    @Before
+    public void before() {
+        fixture = ConcurrentMemoryStore.create("actor");
+    }
+    
+    @After
+    public void after() throws Exception {
+        fixture.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailWhenStoringMessageWithDestinationThatHasBadPrefix() {
+        fixture.store(new Message("unknown1:a", "unknown2:b:2:3:4", "payload"));
+    }
+
+    @Test
+    public void mustAllowWhenStoringMessagesWithSourceThatHasAnyPrefix() {
+        fixture.store(new Message("unknown1:a", "actor:b:2:3:4", "payload"));
+    }
+
+    @Test
+    public void mustAllowWhenStoringMessagesWithWithSingleElementSource() {
+        fixture.store(new Message("unknown1", "actor:b:2:3:4", "payload"));
+    }
+
+    @Test
+    public void mustIgnoreMessagesComingInForActorsThatDontExist() {
+        fixture.store(
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"),
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"),
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"),
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"));
+        assertEquals(0, fixture.getStoredMessageCount());
+    }
+
+    @Test
+    public void mustStoreActor() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        assertEquals(1, fixture.getActorCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(0, fixture.getReadyActorCount());
+    }    
+
+    @Test
+    public void mustDropMessagesRejectedByActorWhenFiltering() throws Exception {
+        fixture.close();
+        fixture = ConcurrentMemoryStore.create("actor", true);
+
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b"); // only accepts messages from itself
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a", "actor:b", "payload"),
+                new Message("actor:b", "actor:b:2", "payload"),
+                new Message("actor:b", "actor:b", "payload"));
+        assertEquals(1, fixture.getStoredMessageCount());
+
+        // rules may change while processing, so nothing gets dropped until it's put back
+        fixture.take();
+        fixture.store(new Message("actor:a", "actor:b", "payload"));
+        assertEquals(1, fixture.getStoredMessageCount());
+    }
+
+    @Test
+    public void mustKeepExistingMessageFilterWhenRulesUnchanged() throws Exception {
+        fixture.close();
+        fixture = ConcurrentMemoryStore.create("actor", true);
+
+        fixture.store(SerializableActorHelper.createFake("actor:b")); // only accepts messages from itself
+
+        // flagged as unchanged, so the old filter is kept even though this copy accepts everything
+        SerializableActor unchangedActor = SerializableActorHelper.createFakeAcceptingAll("actor:b");
+        unchangedActor.setMessageFilterUnchanged(true);
+        fixture.store(unchangedActor);
+        fixture.store(new Message("actor:a", "actor:b", "payload"));
+        assertEquals(0, fixture.getStoredMessageCount());
+
+        SerializableActor changedActor = SerializableActorHelper.createFakeAcceptingAll("actor:b");
+        fixture.store(changedActor);
+        fixture.store(new Message("actor:a", "actor:b", "payload"));
+        assertEquals(1, fixture.getStoredMessageCount());
+    }
+
+    @Test
+    public void mustStoreMessagesComingInForActorsThatExist() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"),
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"),
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"),
+                new Message("actor:a:1:2:3", "actor:b:2:3:4", "payload"));
+        assertEquals(4, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getActorCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(1, fixture.getReadyActorCount());
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustPullWork() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:1", "actor:b:2:1", "payload1"),
+                new Message("actor:a:1:2", "actor:b:2:2", "payload2"),
+                new Message("actor:a:1:3", "actor:b:2:3", "payload3"),
+                new Message("actor:a:1:4", "actor:b:2:4", "payload4"));
+        StoredWork work = fixture.take();
+        
+        assertEquals("actor:a:1:1", work.getMessage().getSourceAddress().toString());
+        assertEquals("actor:b:2:1", work.getMessage().getDestinationAddress().toString());
+        assertEquals("payload1", work.getMessage().getMessage());
+        
+        assertEquals(3, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getActorCount());
+        assertEquals(1, fixture.getProcessingActorCount());
+        assertEquals(0, fixture.getReadyActorCount());
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustPullWorkInBatches() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:1", "actor:b:2:1", "payload1"),
+                new Message("actor:a:1:2", "actor:b:2:2", "payload2"),
+                new Message("actor:a:1:3", "actor:b:2:3", "payload3"));
+        StoredWork work = fixture.takeBatch(2);
+        
+        assertEquals(2, work.getMessages().size());
+        assertEquals("payload1", work.getMessages().get(0).getMessage());
+        assertEquals("payload2", work.getMessages().get(1).getMessage());
+        assertEquals(1, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getProcessingActorCount());
+
+        fixture.store(actor);
+        work = fixture.takeBatch(2);
+
+        assertEquals(1, work.getMessages().size());
+        assertEquals("payload3", work.getMessages().get(0).getMessage());
+        assertEquals(0, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getProcessingActorCount());
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustRestoreAfterPulllingWork() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:1", "actor:b:2:1", "payload1"),
+                new Message("actor:a:1:2", "actor:b:2:2", "payload2"),
+                new Message("actor:a:1:3", "actor:b:2:3", "payload3"),
+                new Message("actor:a:1:4", "actor:b:2:4", "payload4"));
+        fixture.take();
+        fixture.store(actor);
+        
+        assertEquals(3, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getActorCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(1, fixture.getReadyActorCount());
+        
+        StoredWork work = fixture.take();
+        
+        assertEquals("actor:a:1:2", work.getMessage().getSourceAddress().toString());
+        assertEquals("actor:b:2:2", work.getMessage().getDestinationAddress().toString());
+        assertEquals("payload2", work.getMessage().getMessage());
+        
+        assertEquals(2, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getActorCount());
+        assertEquals(1, fixture.getProcessingActorCount());
+        assertEquals(0, fixture.getReadyActorCount());
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustReleaseAfterPullingWork() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:1", "actor:b:2:1", "payload1"),
+                new Message("actor:a:1:2", "actor:b:2:2", "payload2"));
+        StoredWork work = fixture.take();
+        
+        assertFalse(fixture.release(work.getActorAddress(), work.getCheckpointInstance() + 1));
+        assertEquals(1, fixture.getProcessingActorCount());
+        assertTrue(fixture.release(work.getActorAddress(), work.getCheckpointInstance()));
+        
+        assertEquals(1, fixture.getStoredMessageCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(1, fixture.getReadyActorCount());
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustOnlyStoreIdleWhenNotProcessing() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(new Message("actor:a:1:1", "actor:b:2:1", "payload1"));
+        
+        fixture.take();
+        assertFalse(fixture.storeIdle(actor));
+        assertEquals(1, fixture.getProcessingActorCount());
+        
+        fixture.store(actor);
+        assertTrue(fixture.storeIdle(actor));
+        assertEquals(0, fixture.getProcessingActorCount());
+        
+        assertFalse(fixture.storeIdle(SerializableActorHelper.createFake("actor:c")));
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustDiscardActor() {
+        SerializableActor actorA = SerializableActorHelper.createFake("actor:a");
+        SerializableActor actorB = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actorA);
+        fixture.store(actorB);
+
+        assertEquals(2, fixture.getActorCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(0, fixture.getReadyActorCount());
+        
+        fixture.discard("actor:b");
+        
+        assertEquals(1, fixture.getActorCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(0, fixture.getReadyActorCount());
+    } 
+
+    @Test(timeout = 2000L)
+    public void mustCheckpointActor() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:a", "timeout_msg", 300L);
+        fixture.store(actor);
+        
+        StoredWork work = fixture.take();
+        
+        assertEquals("actor:a", work.getMessage().getSourceAddress().toString());
+        assertEquals("actor:a", work.getMessage().getDestinationAddress().toString());
+        assertEquals("timeout_msg", work.getMessage().getMessage());
+    } 
+
+    @Test(timeout = 2000L)
+    public void mustNotAllowRecoveryOfOldCheckpointInstanceToBlowAwayState() {
+        boolean stored;
+        
+        SerializableActor initialActor = SerializableActorHelper.createFake("actor:a", "timeout_msg", 300L);
+        stored = fixture.store(initialActor);
+        assertTrue(stored);
+        
+        SerializableActor checkpointHitActor = fixture.take().getActor();
+        assertEquals(1, checkpointHitActor.getCheckpointInstance());
+        
+        // Add the checkpointHit actor back in (with new checkpoint details), and try to replace it with initialActor...
+        
+        stored = fixture.store(checkpointHitActor);
+        assertTrue(stored);
+        stored = fixture.store(initialActor);
+        assertFalse(stored);
+
+        SerializableActor checkpointHitActor2 = fixture.take().getActor();
+        assertEquals(2, checkpointHitActor2.getCheckpointInstance()); // Another checkpoint hit after we put it back in.
+    }
+    
+    @Test(timeout = 2000L)
+    public void mustHitCheckpointEvenIfInTheMiddleOfProcessingAMessage() throws Exception {
+        SerializableActor initialActor = SerializableActorHelper.createFake("actor:a", "timeout_msg", 300L);
+        fixture.store(initialActor);
+        
+        fixture.store(
+                new Message("actor:b:1:1", "actor:a:2:1", "payload1"),
+                new Message("actor:b:1:2", "actor:a:2:2", "payload2"),
+                new Message("actor:b:1:3", "actor:a:2:3", "payload3"),
+                new Message("actor:b:1:4", "actor:a:2:4", "payload4"));
+        
+        SerializableActor msgRecvdActor = fixture.take().getActor();
+        assertEquals(0, msgRecvdActor.getCheckpointInstance());
+        
+        // SLEEP UNTIL THE CHECKPOINT SHOULD TRIGGER THEN GET THE ACTOR AGAIN, RESULT SHOULD BE CHECKPOINT MESSAGE
+        //    note that we aren't putting the actor back in here, so checkpoint time shouldn't reset
+        Thread.sleep(400L);
+        
+        SerializableActor checkpointHitActor = fixture.take().getActor();
+        assertEquals(1, checkpointHitActor.getCheckpointInstance());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustWakeUpWaitingTakeWhenMessageArrives() throws Exception {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        
+        CompletableFuture<StoredWork> future = CompletableFuture.supplyAsync(() -> fixture.take());
+        Thread.sleep(200L);
+        assertFalse(future.isDone());
+        
+        fixture.store(new Message("actor:a:1:1", "actor:b:2:1", "payload1"));
+        StoredWork work = future.get();
+        assertEquals("payload1", work.getMessage().getMessage());
+    }
+    
+    @Test(timeout = 2000L)
+    public void mustWakeUpWaitingTakeWhenClosed() throws Exception {
+        CompletableFuture<StoredWork> future = CompletableFuture.supplyAsync(() -> fixture.take());
+        Thread.sleep(200L);
+        assertFalse(future.isDone());
+        
+        fixture.close();
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(timeout = 2000L)
+    public void mustPreferActorsReadiedByTheSameThread() throws Exception {
+        fixture.store(SerializableActorHelper.createFake("actor:a"));
+        fixture.store(SerializableActorHelper.createFake("actor:b"));
+        fixture.store(SerializableActorHelper.createFake("actor:c"));
+
+        // this thread isn't pulling work yet, so actor:a goes on the shared queue
+        fixture.store(new Message("actor:src", "actor:a", "payload1"));
+        StoredWork work = fixture.take();
+        assertEquals("actor:a", work.getActorAddress().toString());
+        assertEquals(1L, fixture.getSharedTakeCount());
+
+        // actor:c readied by some other thread goes on the shared queue, actor:b readied by this thread goes on this thread's queue
+        CompletableFuture.runAsync(() -> fixture.store(new Message("actor:src", "actor:c", "payload2"))).get();
+        fixture.store(new Message("actor:a", "actor:b", "payload3"));
+        work = fixture.take();
+        assertEquals("actor:b", work.getActorAddress().toString());
+        assertEquals(1L, fixture.getLocalTakeCount());
+
+        work = fixture.take();
+        assertEquals("actor:c", work.getActorAddress().toString());
+        assertEquals(2L, fixture.getSharedTakeCount());
+        assertEquals(0L, fixture.getStealCount());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustStealWorkReadiedByAnotherThread() throws Exception {
+        fixture.store(SerializableActorHelper.createFake("actor:a"));
+        fixture.store(SerializableActorHelper.createFake("actor:b"));
+
+        fixture.store(new Message("actor:src", "actor:a", "payload1"));
+        fixture.take(); // this thread is now pulling work
+
+        fixture.store(new Message("actor:a", "actor:b", "payload2"));
+        StoredWork work = CompletableFuture.supplyAsync(() -> fixture.take()).get();
+        assertEquals("actor:b", work.getActorAddress().toString());
+        assertEquals(1L, fixture.getStealCount());
+    }
+
+    @Test(timeout = 2000L)
+    public void mustNotStarveOldestActorReadiedByTheSameThread() throws Exception {
+        fixture.store(SerializableActorHelper.createFake("actor:a"));
+        for (int i = 0; i < 20; i++) {
+            fixture.store(SerializableActorHelper.createFake("actor:r" + i));
+        }
+
+        fixture.store(new Message("actor:src", "actor:a", "payload"));
+        fixture.take(); // this thread is now pulling work
+
+        for (int i = 0; i < 20; i++) {
+            fixture.store(new Message("actor:a", "actor:r" + i, "payload"));
+        }
+
+        // most recently readied first, but the oldest one must get a turn well before the rest are drained
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            taken.add(fixture.take().getActorAddress().toString());
+        }
+        assertTrue(taken.contains("actor:r0"));
+        assertTrue(taken.contains("actor:r19"));
+    }
+
+    @Test(timeout = 2000L)
+    public void mustMoveQueuedWorkToSharedQueueWhenThreadStopsTaking() throws Exception {
+        fixture.store(SerializableActorHelper.createFake("actor:a"));
+        fixture.store(SerializableActorHelper.createFake("actor:b"));
+        fixture.store(new Message("actor:src", "actor:a", "payload1"));
+
+        CompletableFuture.runAsync(() -> {
+            fixture.take();
+            fixture.store(new Message("actor:a", "actor:b", "payload2")); // goes on that thread's queue
+            fixture.stopTaking();
+        }).get();
+        assertEquals(0, fixture.getWorkerCount());
+
+        StoredWork work = fixture.take();
+        assertEquals("actor:b", work.getActorAddress().toString());
+        assertEquals(2L, fixture.getSharedTakeCount());
+        assertEquals(0L, fixture.getStealCount());
+        assertEquals(1, fixture.getWorkerCount());
+    }
+
+    @Test(timeout = 10000L)
+    public void mustDeliverEveryMessageExactlyOnceWhenAccessedConcurrently() throws Exception {
+        int actorCount = 8;
+        int msgsPerActor = 500;
+        for (int i = 0; i < actorCount; i++) {
+            fixture.store(SerializableActorHelper.createFake("actor:" + i));
+        }
+
+        // 1 producer per actor, 4 consumers pulling work and putting the actors back
+        ExecutorService executor = Executors.newFixedThreadPool(actorCount + 4);
+        try {
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            AtomicInteger receivedCount = new AtomicInteger();
+            List<Future<?>> consumers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                consumers.add(executor.submit(() -> {
+                    while (receivedCount.get() < actorCount * msgsPerActor) {
+                        StoredWork work;
+                        try {
+                            work = fixture.takeBatch(10);
+                        } catch (IllegalStateException ise) {
+                            return; // closed
+                        }
+                        for (Message msg : work.getMessages()) {
+                            assertTrue(received.add((String) msg.getMessage()));
+                            receivedCount.incrementAndGet();
+                        }
+                        assertTrue(fixture.release(work.getActorAddress(), work.getCheckpointInstance()));
+                    }
+                }));
+            }
+            for (int i = 0; i < actorCount; i++) {
+                String dst = "actor:" + i;
+                executor.submit(() -> {
+                    for (int j = 0; j < msgsPerActor; j++) {
+                        fixture.store(new Message("actor:src", dst, dst + ":" + j));
+                    }
+                });
+            }
+
+            while (receivedCount.get() < actorCount * msgsPerActor) {
+                Thread.sleep(10L);
+            }
+            assertEquals(actorCount * msgsPerActor, received.size());
+            assertEquals(0, fixture.getStoredMessageCount());
+
+            fixture.close(); // wake up consumers still waiting
+            for (Future<?> consumer : consumers) {
+                consumer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void mustNeverHandOutSameCheckpointInstanceTwiceWhenCheckpointsHitDuringTakes() throws Exception {
+        int actorCount = 4;
+        for (int i = 0; i < actorCount; i++) {
+            fixture.store(SerializableActorHelper.createFake("actor:" + i, "checkpoint", 1L));
+        }
+
+        // producers keep actors ready while checkpoints keep expiring, consumers put actors back with a fresh checkpoint every time
+        ExecutorService executor = Executors.newFixedThreadPool(actorCount + 4);
+        try {
+            AtomicBoolean stop = new AtomicBoolean();
+            Set<String> held = ConcurrentHashMap.newKeySet(); // address + checkpoint instance of every actor currently pulled
+            AtomicInteger duplicateCount = new AtomicInteger();
+            AtomicInteger checkpointHitCount = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    while (!stop.get()) {
+                        StoredWork work;
+                        try {
+                            work = fixture.takeBatch(10);
+                        } catch (IllegalStateException ise) {
+                            return; // closed
+                        }
+
+                        String key = work.getActorAddress() + "#" + work.getCheckpointInstance();
+                        if (!held.add(key)) {
+                            duplicateCount.incrementAndGet();
+                        }
+                        if (work.isCheckpointHit()) {
+                            checkpointHitCount.incrementAndGet();
+                        }
+
+                        SerializableActor actor = work.getActor();
+                        actor.setCheckpointUpdated(true);
+                        held.remove(key);
+                        try {
+                            fixture.store(actor);
+                        } catch (IllegalStateException ise) {
+                            return; // closed
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < actorCount; i++) {
+                String dst = "actor:" + i;
+                futures.add(executor.submit(() -> {
+                    while (!stop.get()) {
+                        try {
+                            fixture.store(new Message("actor:src", dst, "payload"));
+                        } catch (IllegalStateException ise) {
+                            return; // closed
+                        }
+                    }
+                }));
+            }
+
+            Thread.sleep(2000L);
+            stop.set(true);
+            fixture.close(); // wake up consumers still waiting
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            assertTrue(checkpointHitCount.get() > 0);
+            assertEquals(0, duplicateCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
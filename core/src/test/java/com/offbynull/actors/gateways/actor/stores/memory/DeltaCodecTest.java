@@ -0,0 +1,84 @@
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.common.DeltaCodec;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class DeltaCodecTest {
+
+    @Test
+    public void mustEncodeSmallDeltaForSmallChange() {
+        byte[] base = randomBytes(4096, 0L);
+        byte[] target = base.clone();
+        target[2000]++;
+
+        byte[] delta = DeltaCodec.encode(base, target);
+
+        assertArrayEquals(target, DeltaCodec.decode(base, delta));
+        assertTrue(delta.length < 32);
+    }
+
+    @Test
+    public void mustEncodeSmallDeltaForShiftedData() {
+        byte[] base = randomBytes(4096, 1L);
+        byte[] target = new byte[base.length + 3];
+        System.arraycopy(base, 0, target, 0, 1000);
+        target[1000] = 1;
+        target[1001] = 2;
+        target[1002] = 3;
+        System.arraycopy(base, 1000, target, 1003, base.length - 1000);
+
+        byte[] delta = DeltaCodec.encode(base, target);
+
+        assertArrayEquals(target, DeltaCodec.decode(base, delta));
+        assertTrue(delta.length < 32);
+    }
+
+    @Test
+    public void mustEncodeDeltaForUnrelatedData() {
+        byte[] base = randomBytes(1000, 2L);
+        byte[] target = randomBytes(1500, 3L);
+
+        assertArrayEquals(target, DeltaCodec.decode(base, DeltaCodec.encode(base, target)));
+    }
+
+    @Test
+    public void mustEncodeDeltaForEmptyAndTinyArrays() {
+        byte[] empty = new byte[0];
+        byte[] tiny = new byte[] { 1, 2, 3 };
+
+        assertArrayEquals(empty, DeltaCodec.decode(empty, DeltaCodec.encode(empty, empty)));
+        assertArrayEquals(tiny, DeltaCodec.decode(empty, DeltaCodec.encode(empty, tiny)));
+        assertArrayEquals(empty, DeltaCodec.decode(tiny, DeltaCodec.encode(tiny, empty)));
+        assertArrayEquals(tiny, DeltaCodec.decode(tiny, DeltaCodec.encode(tiny, tiny)));
+    }
+
+    @Test
+    public void mustEncodeDeltaForRepetitiveData() {
+        byte[] base = new byte[1000];
+        Arrays.fill(base, (byte) 7);
+        byte[] target = new byte[1200];
+        Arrays.fill(target, (byte) 7);
+        target[600] = 8;
+
+        assertArrayEquals(target, DeltaCodec.decode(base, DeltaCodec.encode(base, target)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailWhenDecodingAgainstWrongBase() {
+        byte[] base = randomBytes(4096, 4L);
+        byte[] target = base.clone();
+        target[10]++;
+
+        DeltaCodec.decode(new byte[100], DeltaCodec.encode(base, target));
+    }
+
+    private static byte[] randomBytes(int len, long seed) {
+        byte[] ret = new byte[len];
+        new Random(seed).nextBytes(ret);
+        return ret;
+    }
+}
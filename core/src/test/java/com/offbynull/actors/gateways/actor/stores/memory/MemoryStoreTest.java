@@ -1,13 +1,17 @@
 package com.offbynull.actors.gateways.actor.stores.memory;
 
+import com.offbynull.actors.common.CompactSerializer;
 import com.offbynull.actors.gateways.actor.SerializableActor;
 import com.offbynull.actors.gateways.actor.SerializableActorHelper;
 import com.offbynull.actors.gateways.actor.Store.StoredWork;
 import com.offbynull.actors.shuttle.Message;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 import org.junit.Before;
 
@@ -59,6 +63,45 @@ public class MemoryStoreTest {
         assertEquals(0, fixture.getReadyActorCount());
     }    
 
+    @Test
+    public void mustDropMessagesRejectedByActorWhenFiltering() throws Exception {
+        fixture.close();
+        fixture = MemoryStore.create("actor", 2, true);
+
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b"); // only accepts messages from itself
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a", "actor:b", "payload"),
+                new Message("actor:b", "actor:b:2", "payload"),
+                new Message("actor:b", "actor:b", "payload"));
+        assertEquals(1, fixture.getStoredMessageCount());
+
+        // rules may change while processing, so nothing gets dropped until it's put back
+        fixture.take();
+        fixture.store(new Message("actor:a", "actor:b", "payload"));
+        assertEquals(1, fixture.getStoredMessageCount());
+    }
+
+    @Test
+    public void mustKeepExistingMessageFilterWhenRulesUnchanged() throws Exception {
+        fixture.close();
+        fixture = MemoryStore.create("actor", 2, true);
+
+        fixture.store(SerializableActorHelper.createFake("actor:b")); // only accepts messages from itself
+
+        // flagged as unchanged, so the old filter is kept even though this copy accepts everything
+        SerializableActor unchangedActor = SerializableActorHelper.createFakeAcceptingAll("actor:b");
+        unchangedActor.setMessageFilterUnchanged(true);
+        fixture.store(unchangedActor);
+        fixture.store(new Message("actor:a", "actor:b", "payload"));
+        assertEquals(0, fixture.getStoredMessageCount());
+
+        SerializableActor changedActor = SerializableActorHelper.createFakeAcceptingAll("actor:b");
+        fixture.store(changedActor);
+        fixture.store(new Message("actor:a", "actor:b", "payload"));
+        assertEquals(1, fixture.getStoredMessageCount());
+    }
+
     @Test
     public void mustStoreMessagesComingInForActorsThatExist() {
         SerializableActor actor = SerializableActorHelper.createFake("actor:b");
@@ -95,6 +138,46 @@ public class MemoryStoreTest {
         assertEquals(0, fixture.getReadyActorCount());
     } 
 
+    @Test(timeout = 1000L)
+    public void mustPullWorkWithSuppliedSerializer() throws Exception {
+        fixture.close();
+        fixture = MemoryStore.create("actor", 2, false, CompactSerializer.create());
+
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(new Message("actor:a:1:1", "actor:b:2:1", "payload1"));
+        StoredWork work = fixture.take();
+
+        assertEquals("actor:b", work.getActor().getSelf().toString());
+        assertEquals("actor:a:1:1", work.getMessage().getSourceAddress().toString());
+        assertEquals("payload1", work.getMessage().getMessage());
+    }
+
+    @Test(timeout = 1000L)
+    public void mustPullWorkInBatches() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:1", "actor:b:2:1", "payload1"),
+                new Message("actor:a:1:2", "actor:b:2:2", "payload2"),
+                new Message("actor:a:1:3", "actor:b:2:3", "payload3"));
+        StoredWork work = fixture.takeBatch(2);
+        
+        assertEquals(2, work.getMessages().size());
+        assertEquals("payload1", work.getMessages().get(0).getMessage());
+        assertEquals("payload2", work.getMessages().get(1).getMessage());
+        assertEquals(1, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getProcessingActorCount());
+
+        fixture.store(actor);
+        work = fixture.takeBatch(2);
+
+        assertEquals(1, work.getMessages().size());
+        assertEquals("payload3", work.getMessages().get(0).getMessage());
+        assertEquals(0, fixture.getStoredMessageCount());
+        assertEquals(1, fixture.getProcessingActorCount());
+    } 
+
     @Test(timeout = 1000L)
     public void mustRestoreAfterPulllingWork() {
         SerializableActor actor = SerializableActorHelper.createFake("actor:b");
@@ -124,6 +207,41 @@ public class MemoryStoreTest {
         assertEquals(0, fixture.getReadyActorCount());
     } 
 
+    @Test(timeout = 1000L)
+    public void mustReleaseAfterPullingWork() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(
+                new Message("actor:a:1:1", "actor:b:2:1", "payload1"),
+                new Message("actor:a:1:2", "actor:b:2:2", "payload2"));
+        StoredWork work = fixture.take();
+        
+        assertFalse(fixture.release(work.getActorAddress(), work.getCheckpointInstance() + 1));
+        assertEquals(1, fixture.getProcessingActorCount());
+        assertTrue(fixture.release(work.getActorAddress(), work.getCheckpointInstance()));
+        
+        assertEquals(1, fixture.getStoredMessageCount());
+        assertEquals(0, fixture.getProcessingActorCount());
+        assertEquals(1, fixture.getReadyActorCount());
+    } 
+
+    @Test(timeout = 1000L)
+    public void mustOnlyStoreIdleWhenNotProcessing() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        fixture.store(new Message("actor:a:1:1", "actor:b:2:1", "payload1"));
+        
+        fixture.take();
+        assertFalse(fixture.storeIdle(actor));
+        assertEquals(1, fixture.getProcessingActorCount());
+        
+        fixture.store(actor);
+        assertTrue(fixture.storeIdle(actor));
+        assertEquals(0, fixture.getProcessingActorCount());
+        
+        assertFalse(fixture.storeIdle(SerializableActorHelper.createFake("actor:c")));
+    } 
+
     @Test(timeout = 1000L)
     public void mustDiscardActor() {
         SerializableActor actorA = SerializableActorHelper.createFake("actor:a");
@@ -197,4 +315,51 @@ public class MemoryStoreTest {
         SerializableActor checkpointHitActor = fixture.take().getActor();
         assertEquals(1, checkpointHitActor.getCheckpointInstance());
     }
+
+    @Test(timeout = 2000L)
+    public void mustWakeUpWaitingTakeWhenMessageArrives() throws Exception {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        
+        CompletableFuture<StoredWork> future = CompletableFuture.supplyAsync(() -> fixture.take());
+        Thread.sleep(200L);
+        assertFalse(future.isDone());
+        
+        fixture.store(new Message("actor:a:1:1", "actor:b:2:1", "payload1"));
+        StoredWork work = future.get();
+        assertEquals("payload1", work.getMessage().getMessage());
+    }
+    
+    @Test(timeout = 2000L)
+    public void mustWakeUpWaitingTakeWhenClosed() throws Exception {
+        CompletableFuture<StoredWork> future = CompletableFuture.supplyAsync(() -> fixture.take());
+        Thread.sleep(200L);
+        assertFalse(future.isDone());
+        
+        fixture.close();
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(timeout = 2000L)
+    public void mustNotTickWhenNoActorsHaveCheckpoints() throws Exception {
+        try (MemoryStore idleStore = MemoryStore.create("idle", 2)) {
+            for (int i = 0; i < 10; i++) {
+                idleStore.store(SerializableActorHelper.createFake("idle:" + i)); // default timeout -- checkpoint never hits
+            }
+            
+            Thread.sleep(200L);
+
+            // ticker should be parked indefinitely, not waking up every tick
+            Thread ticker = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().equals("MemoryStore-idle"))
+                    .findAny()
+                    .get();
+            assertEquals(Thread.State.WAITING, ticker.getState());
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.shuttle.Message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MessageCodecTest {
+
+    private final BestEffortSerializer serializer = new BestEffortSerializer();
+    private final MessageCodec fixture = MessageCodec.create(serializer);
+
+    @Test
+    public void mustEncodeAndDecodeMessage() {
+        assertRoundTrip(new Message("actor:a:b", "actor:a:c:d", "payload"));
+    }
+
+    @Test
+    public void mustEncodeAndDecodeMessageWithNoSharedPrefix() {
+        assertRoundTrip(new Message("actor:a", "direct:x", 5));
+    }
+
+    @Test
+    public void mustEncodeAndDecodeMessageWithDestinationThatIsPrefixOfSource() {
+        assertRoundTrip(new Message("actor:a:b:c", "actor:a", 5L));
+    }
+
+    @Test
+    public void mustEncodeAndDecodeMessageWithEscapedAndEmptyElements() {
+        assertRoundTrip(new Message(Address.of("actor", "a\\b"), Address.of("actor", "a:b", ""), 'c'));
+    }
+
+    @Test
+    public void mustEncodeSmallerThanSerializingEntireMessage() {
+        Message message = new Message("actor:sender:child", "actor:receiver", 1);
+        int codecSize = fixture.encode(message).length;
+        int serializerSize = serializer.serialize(message).length;
+        assertTrue("codec " + codecSize + " vs serializer " + serializerSize, codecSize * 2 < serializerSize);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mustFailOnCorruptData() {
+        fixture.decode(new byte[] { 1, 100 });
+    }
+
+    private void assertRoundTrip(Message message) {
+        Message decoded = fixture.decode(fixture.encode(message));
+        assertEquals(message.getSourceAddress(), decoded.getSourceAddress());
+        assertEquals(message.getDestinationAddress(), decoded.getDestinationAddress());
+        assertEquals(message.getMessage(), decoded.getMessage());
+    }
+}
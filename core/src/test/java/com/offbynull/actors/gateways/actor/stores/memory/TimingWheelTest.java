@@ -0,0 +1,85 @@
+package com.offbynull.actors.gateways.actor.stores.memory;
+
+import com.offbynull.actors.gateways.actor.stores.memory.TimingWheel.Timeout;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private LinkedBlockingQueue<String> fired;
+    private TimingWheel<String> fixture;
+    private Thread ticker;
+
+    @Before
+    public void before() {
+        fired = new LinkedBlockingQueue<>();
+        fixture = new TimingWheel<>(5L, TimeUnit.MILLISECONDS, 8, t -> fired.add(t.getValue()));
+        ticker = new Thread(fixture);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @After
+    public void after() throws InterruptedException {
+        fixture.close();
+        ticker.join();
+    }
+
+    @Test
+    public void mustFireInDeadlineOrder() throws InterruptedException {
+        long start = System.nanoTime();
+        fixture.schedule("c", 150L); // wraps around the wheel multiple times
+        fixture.schedule("a", 20L);
+        fixture.schedule("b", 60L);
+
+        assertEquals("a", fired.poll(1L, TimeUnit.SECONDS));
+        assertEquals("b", fired.poll(1L, TimeUnit.SECONDS));
+        assertEquals("c", fired.poll(1L, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150L));
+        assertEquals(0, fixture.size());
+    }
+
+    @Test
+    public void mustNotFireCancelledTimeout() throws InterruptedException {
+        Timeout<String> cancelled = fixture.schedule("a", 20L);
+        fixture.schedule("b", 40L);
+
+        assertTrue(fixture.cancel(cancelled));
+        assertFalse(fixture.cancel(cancelled));
+
+        assertEquals("b", fired.poll(1L, TimeUnit.SECONDS));
+        assertNull(fired.poll(50L, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void mustFireAfterSittingEmpty() throws InterruptedException {
+        fixture.schedule("a", 0L);
+        assertEquals("a", fired.poll(1L, TimeUnit.SECONDS));
+
+        Thread.sleep(100L);
+
+        long start = System.nanoTime();
+        fixture.schedule("b", 30L);
+        assertEquals("b", fired.poll(1L, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30L));
+    }
+
+    @Test
+    public void mustWakeUpEarlyForTimeoutDueBeforeCurrentSleep() throws InterruptedException {
+        fixture.schedule("late", 500L);
+        Thread.sleep(20L); // let the ticker go to sleep until "late" (or the end of the rotation)
+
+        long start = System.nanoTime();
+        fixture.schedule("early", 10L);
+        assertEquals("early", fired.poll(1L, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200L));
+        assertEquals("late", fired.poll(1L, TimeUnit.SECONDS));
+    }
+}
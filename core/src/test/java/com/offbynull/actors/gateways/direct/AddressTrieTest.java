@@ -0,0 +1,118 @@
+package com.offbynull.actors.gateways.direct;
+
+import com.offbynull.actors.address.Address;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AddressTrieTest {
+
+    @Test
+    public void mustFindLongestPrefix() {
+        AddressTrie<String> trie = new AddressTrie<>();
+        trie.putIfAbsent(Address.fromString("a"), "1");
+        trie.putIfAbsent(Address.fromString("a:b:c"), "3");
+
+        assertEquals("1", trie.getLongestPrefix(Address.fromString("a")));
+        assertEquals("1", trie.getLongestPrefix(Address.fromString("a:b")));
+        assertEquals("3", trie.getLongestPrefix(Address.fromString("a:b:c")));
+        assertEquals("3", trie.getLongestPrefix(Address.fromString("a:b:c:d")));
+        assertNull(trie.getLongestPrefix(Address.fromString("b:b:c")));
+    }
+
+    @Test
+    public void mustVisitEveryPrefixLongestFirst() {
+        AddressTrie<String> trie = new AddressTrie<>();
+        trie.putIfAbsent(Address.fromString("a"), "1");
+        trie.putIfAbsent(Address.fromString("a:b"), "2");
+        trie.putIfAbsent(Address.fromString("a:b:c:d"), "4");
+        trie.putIfAbsent(Address.fromString("a:x"), "x");
+
+        List<String> visited = new ArrayList<>();
+        trie.forEachPrefix(Address.fromString("a:b:c:d:e"), visited::add);
+        assertEquals(Arrays.asList("4", "2", "1"), visited);
+    }
+
+    @Test
+    public void mustNotOverwriteOnPutIfAbsentAndMustRemove() {
+        AddressTrie<String> trie = new AddressTrie<>();
+        assertNull(trie.putIfAbsent(Address.fromString("a:b"), "1"));
+        assertEquals("1", trie.putIfAbsent(Address.fromString("a:b"), "2"));
+        assertEquals("1", trie.get(Address.fromString("a:b")));
+        assertNull(trie.get(Address.fromString("a")));
+
+        assertEquals("1", trie.remove(Address.fromString("a:b")));
+        assertNull(trie.remove(Address.fromString("a:b")));
+        assertNull(trie.getLongestPrefix(Address.fromString("a:b:c")));
+        assertNull(trie.putIfAbsent(Address.fromString("a:b"), "2"));
+        assertEquals("2", trie.get(Address.fromString("a:b")));
+    }
+
+    @Test
+    public void mustPruneNodesLeftEmptyOnRemove() {
+        AddressTrie<String> trie = new AddressTrie<>();
+        trie.putIfAbsent(Address.fromString("a"), "1");
+        trie.putIfAbsent(Address.fromString("a:b:c"), "3");
+        trie.putIfAbsent(Address.fromString("a:x:y"), "y");
+
+        assertEquals("3", trie.remove(Address.fromString("a:b:c")));
+        assertEquals("1", trie.get(Address.fromString("a")));
+        assertEquals("y", trie.get(Address.fromString("a:x:y")));
+        assertFalse(trie.isEmpty());
+
+        assertEquals("1", trie.remove(Address.fromString("a")));
+        assertEquals("y", trie.get(Address.fromString("a:x:y")));
+        assertFalse(trie.isEmpty());
+
+        assertEquals("y", trie.remove(Address.fromString("a:x:y")));
+        assertTrue(trie.isEmpty());
+    }
+
+    @Test
+    public void mustNotLoseValuesWhenPuttingAndRemovingConcurrently() throws Exception {
+        AddressTrie<String> trie = new AddressTrie<>();
+        int threadCount = 8;
+        int iterations = 20000;
+
+        AtomicBoolean failed = new AtomicBoolean();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            String owned = "thread" + t;
+            Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    for (int i = 0; i < iterations; i++) {
+                        // every thread shares the a:b prefix (and so the nodes that get pruned), but the leaf is its own
+                        Address address = Address.fromString("a:b:" + owned + ":" + (i % 4));
+                        if (trie.putIfAbsent(address, owned) != null
+                                || !owned.equals(trie.get(address))
+                                || !owned.equals(trie.remove(address))) {
+                            failed.set(true);
+                            return;
+                        }
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(failed.get());
+        assertTrue(trie.isEmpty());
+    }
+}
@@ -21,6 +21,8 @@ import com.offbynull.actors.address.Address;
 import com.offbynull.actors.shuttle.Message;
 import com.offbynull.actors.gateways.actor.Store;
 import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
 import static com.offbynull.actors.jdbcclient.JdbcUtils.commitFinally;
 import static com.offbynull.actors.jdbcclient.JdbcUtils.retry;
 import java.io.IOException;
@@ -32,8 +34,14 @@ import static java.sql.ResultSet.CONCUR_UPDATABLE;
 import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import static java.util.stream.Collectors.toList;
 import javax.sql.DataSource;
+import org.apache.commons.collections4.list.UnmodifiableList;
+import static org.apache.commons.collections4.list.UnmodifiableList.unmodifiableList;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -83,7 +91,8 @@ public final class JdbcStore implements Store {
     
     private final String prefix;
     private final DataSource dataSource;
-    private final BestEffortSerializer serializer;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
     
     private volatile boolean closed;
 
@@ -96,17 +105,32 @@ public final class JdbcStore implements Store {
      * @throws IllegalArgumentException if {@code port} is invalid
      */
     public static JdbcStore create(String prefix, DataSource dataSource) {
+        return create(prefix, dataSource, new BestEffortSerializer());
+    }
+
+    /**
+     * Creates a {@link JdbcStore} object.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param dataSource JDBC data source to generate connections
+     * @param serializer serializer to use for actors and messages
+     * @return new JDBC store
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static JdbcStore create(String prefix, DataSource dataSource, Serializer serializer) {
         Validate.notNull(prefix);
         Validate.notNull(dataSource);
-        return new JdbcStore(prefix, dataSource);
+        Validate.notNull(serializer);
+        return new JdbcStore(prefix, dataSource, serializer);
     }
 
-    private JdbcStore(String prefix, DataSource dataSource) {
+    private JdbcStore(String prefix, DataSource dataSource, Serializer serializer) {
         Validate.notNull(prefix);
         Validate.notNull(dataSource);
+        Validate.notNull(serializer);
         this.prefix = prefix;
         this.dataSource = dataSource;
-        this.serializer = new BestEffortSerializer();
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
     }
 
     
@@ -145,7 +169,7 @@ public final class JdbcStore implements Store {
         byte[] checkpointPayloadData;
         if (checkpointUpdated) {
             Object checkpointPayload = actor.getCheckpointPayload();
-            checkpointPayloadData = serializer.serialize(new Message(actorAddr, actorAddr, checkpointPayload));
+            checkpointPayloadData = messageCodec.encode(new Message(actorAddr, actorAddr, checkpointPayload));
         } else {
             checkpointPayloadData = null;
         }
@@ -219,6 +243,84 @@ public final class JdbcStore implements Store {
     
     
     
+    private static final String UPDATE_IDLE_ACTOR
+            = "UPDATE ACTOR\n"
+            + "SET\n"
+            + "    DATA = ?\n"
+            + "WHERE\n"
+            + "    ADDRESS = ? AND CHECKPOINT_INSTANCE = ? AND IDLE <> 0\n";
+
+    @Override
+    public boolean storeIdle(SerializableActor actor) {
+        Validate.notNull(actor);
+        
+        Address actorAddr = actor.getSelf();
+        Validate.isTrue(actorAddr.size() == 2, "Actor address has unexpected number of elements: %s", actorAddr);
+        Validate.isTrue(actorAddr.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, actorAddr);
+
+        Validate.validState(!closed, "Store closed");
+        
+        byte[] actorData = serializer.serialize(actor);
+        int checkpointInstance = actor.getCheckpointInstance();
+        String actorAddrStr = actorAddr.toString();
+        
+        return retry(() -> {
+            Validate.isTrue(!closed, "Store closed");
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                conn.setTransactionIsolation(TRANSACTION_READ_COMMITTED);
+
+                try (PreparedStatement ps = conn.prepareStatement(UPDATE_IDLE_ACTOR)) {
+                    ps.setBytes(1, actorData);
+                    ps.setString(2, actorAddrStr);
+                    ps.setInt(3, checkpointInstance);
+                    return ps.executeUpdate() == 1;
+                } finally {
+                    commitFinally(conn);
+                }
+            }
+        });
+    }
+    
+    
+    
+    private static final String RELEASE_ACTOR
+            = "UPDATE ACTOR\n"
+            + "SET\n"
+            + "    IDLE = ?\n"
+            + "WHERE\n"
+            + "    ADDRESS = ? AND CHECKPOINT_INSTANCE = ?\n";
+
+    @Override
+    public boolean release(Address address, int checkpointInstance) {
+        Validate.notNull(address);
+        Validate.isTrue(address.size() == 2, "Actor address has unexpected number of elements: %s", address);
+        Validate.isTrue(address.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, address);
+
+        Validate.validState(!closed, "Store closed");
+        
+        String addrStr = address.toString();
+        
+        return retry(() -> {
+            Validate.isTrue(!closed, "Store closed");
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                conn.setTransactionIsolation(TRANSACTION_READ_COMMITTED);
+
+                try (PreparedStatement ps = conn.prepareStatement(RELEASE_ACTOR)) {
+                    ps.setInt(1, 1); // idle = true
+                    ps.setString(2, addrStr);
+                    ps.setInt(3, checkpointInstance);
+                    return ps.executeUpdate() == 1;
+                } finally {
+                    commitFinally(conn);
+                }
+            }
+        });
+    }
+    
+    
+    
     private static final String INSERT_MESSAGE = "INSERT INTO MESSAGE_QUEUE (ADDRESS, DATA) VALUES (?, ?)";
     
     @Override
@@ -234,7 +336,7 @@ public final class JdbcStore implements Store {
 
         for (Message message : messages) {
             String dstAddrStr = Address.of(prefix, message.getDestinationAddress().getElement(1)).toString();
-            byte[] messageData = serializer.serialize(message);
+            byte[] messageData = messageCodec.encode(message);
 
             retry(() -> {
                 Validate.isTrue(!closed, "Store closed");
@@ -289,7 +391,8 @@ public final class JdbcStore implements Store {
     
     
     @Override
-    public StoredWork take() {
+    public StoredWork takeBatch(int maxMessages) {
+        Validate.isTrue(maxMessages > 0);
         Validate.validState(!closed, "Store closed");
         
         Work work = retry(() -> {
@@ -300,23 +403,35 @@ public final class JdbcStore implements Store {
                     return checkpointWork;
                 }
 
-                Work msgWork = takeMessage();
+                Work msgWork = takeMessages(maxMessages);
                 if (msgWork != null) {
                     return msgWork;
                 }
             }
         });
 
-        byte[] actorData = work.getActorData();
-        byte[] messageData = work.getMessageData();
+        List<byte[]> messageData = work.getMessageData();
 
-        SerializableActor actor = serializer.deserialize(actorData);
-        Message msg = serializer.deserialize(messageData);
+        List<Message> msgs = new ArrayList<>(messageData.size());
+        for (byte[] data : messageData) {
+            Message msg = messageCodec.decode(data);
+            msgs.add(msg);
+        }
         
-        actor.setCheckpointInstance(work.getCheckpointInstance());
-        actor.setCheckpointUpdated(true);
-
-        return new StoredWork(msg, actor);
+        // Actor is only deserialized if it's asked for -- the caller may already have it
+        Address actorAddr = Address.of(prefix, msgs.get(0).getDestinationAddress().getElement(1));
+        int checkpointInstance = work.getCheckpointInstance();
+        boolean checkpointHit = work.isCheckpointHit();
+        return new StoredWork(msgs, actorAddr, checkpointInstance, checkpointHit, () -> {
+            byte[] actorData = work.getActorData();
+            SerializableActor actor = serializer.deserialize(actorData);
+
+            // If a checkpoint hit, set checkpoint updated flag so the checkpoint message and timeout that was set get re-applied
+            actor.setCheckpointInstance(checkpointInstance);
+            actor.setCheckpointUpdated(checkpointHit);
+            
+            return actor;
+        });
     }
 
 
@@ -328,16 +443,18 @@ public final class JdbcStore implements Store {
             + "    GROUP BY m.ADDRESS";
     private static final String SELECT_ACTOR_FOR_IDLE_UPDATE
             = "SELECT ADDRESS, IDLE, DATA, CHECKPOINT_INSTANCE FROM ACTOR WHERE ADDRESS = ? AND IDLE <> 0 FOR UPDATE";
+    // use ps.setMaxRows to limit to the batch size
+    private static final String GET_MESSAGES_FOR_ACTOR
+            = "SELECT MSG_NUMBER FROM MESSAGE_QUEUE WHERE ADDRESS = ? ORDER BY MSG_NUMBER";
     private static final String SELECT_MESSAGE_FOR_DELETE
             = "SELECT MSG_NUMBER, DATA FROM MESSAGE_QUEUE WHERE MSG_NUMBER = ? FOR UPDATE";
 
-    private Work takeMessage() throws SQLException {
+    private Work takeMessages(int maxMessages) throws SQLException {
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
             conn.setTransactionIsolation(TRANSACTION_READ_COMMITTED);
 
             
-            int msgId;
             String actorAddr;
             try (PreparedStatement ps = conn.prepareStatement(GET_NEXT_MESSAGE)) {
                 ps.setMaxRows(1);
@@ -346,7 +463,6 @@ public final class JdbcStore implements Store {
                         return null;
                     }
                     
-                    msgId = rs.getInt(1); // will be 0 if null, but will never be null because column is non-null
                     actorAddr = rs.getString(2);
                 }
             } finally {
@@ -368,7 +484,7 @@ public final class JdbcStore implements Store {
                     checkpointInstance = rs.getInt(4);                         // read checkpoint instance
                     actorData = rs.getBytes(3);                                // read serialized actor data
 
-                    rs.updateInt(2, 1);                                        // update actor so it's set to procesing
+                    rs.updateInt(2, 0);                                        // update actor so it's set to procesing
 
                     rs.updateRow();                                            // apply changes to DB
                 }
@@ -378,24 +494,45 @@ public final class JdbcStore implements Store {
 
             
             
-            byte[] messageData;
-            try (PreparedStatement ps = conn.prepareStatement(SELECT_MESSAGE_FOR_DELETE, TYPE_FORWARD_ONLY, CONCUR_UPDATABLE)) {
-                ps.setMaxRows(1);
-                ps.setInt(1, msgId);
+            // Now that the actor is set to processing, nothing else will be pulling messages for it -- grab the ids of the next batch of
+            // messages and remove them one by one
+            List<Integer> msgIds = new ArrayList<>(maxMessages);
+            try (PreparedStatement ps = conn.prepareStatement(GET_MESSAGES_FOR_ACTOR)) {
+                ps.setMaxRows(maxMessages);
+                ps.setString(1, actorAddr);
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) { // message was already removed, so try getting another message
-                        return null;
+                    while (rs.next()) {
+                        msgIds.add(rs.getInt(1));
                     }
-                    
-                    messageData = rs.getBytes(2);
-
-                    rs.deleteRow(); // delete the message because we're about to start processing it
                 }
             } finally {
                 commitFinally(conn);
             }
+            
+            List<byte[]> messageData = new ArrayList<>(msgIds.size());
+            for (int msgId : msgIds) {
+                try (PreparedStatement ps = conn.prepareStatement(SELECT_MESSAGE_FOR_DELETE, TYPE_FORWARD_ONLY, CONCUR_UPDATABLE)) {
+                    ps.setMaxRows(1);
+                    ps.setInt(1, msgId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) { // message was already removed (actor discarded?), so skip it
+                            continue;
+                        }
+
+                        messageData.add(rs.getBytes(2));
+
+                        rs.deleteRow(); // delete the message because we're about to start processing it
+                    }
+                } finally {
+                    commitFinally(conn);
+                }
+            }
+            
+            if (messageData.isEmpty()) { // messages were already removed, so try getting another message
+                return null;
+            }
 
-            return new Work(actorData, messageData, checkpointInstance);
+            return new Work(actorData, messageData, checkpointInstance, false);
         }
     }
 
@@ -427,10 +564,10 @@ public final class JdbcStore implements Store {
                     checkpointInstance++;
                     
                     rs.updateInt(2, checkpointInstance); // update to incremented checkpointInstance
-                    rs.updateInt(5, 1);                  // update to not idle
+                    rs.updateInt(5, 0);                  // update to not idle
                     rs.updateRow(); // force row to update
 
-                    return new Work(checkpointData, checkpointMessageData, checkpointInstance);
+                    return new Work(checkpointData, Collections.singletonList(checkpointMessageData), checkpointInstance, true);
                 }
             } finally {
                 commitFinally(conn);
@@ -440,29 +577,38 @@ public final class JdbcStore implements Store {
     
     private static final class Work {
         private final byte[] actorData;
-        private final byte[] messageData;
+        private final UnmodifiableList<byte[]> messageData;
         private final int checkpointInstance;
+        private final boolean checkpointHit;
 
-        private Work(byte[] actorData, byte[] messageData, int checkpointInstance) {
+        private Work(byte[] actorData, List<byte[]> messageData, int checkpointInstance, boolean checkpointHit) {
             Validate.notNull(actorData);
             Validate.notNull(messageData);
+            Validate.noNullElements(messageData);
+            Validate.isTrue(!messageData.isEmpty());
 
             this.actorData = actorData.clone();
-            this.messageData = messageData.clone();
+            this.messageData = (UnmodifiableList<byte[]>) unmodifiableList(
+                    messageData.stream().map(x -> x.clone()).collect(toList()));
             this.checkpointInstance = checkpointInstance;
+            this.checkpointHit = checkpointHit;
         }
 
         private byte[] getActorData() {
             return actorData.clone();
         }
 
-        private byte[] getMessageData() {
-            return messageData.clone();
+        private List<byte[]> getMessageData() {
+            return messageData.stream().map(x -> x.clone()).collect(toList());
         }
 
         private int getCheckpointInstance() {
             return checkpointInstance;
         }
+
+        private boolean isCheckpointHit() {
+            return checkpointHit;
+        }
     }
     
     @Override
@@ -17,6 +17,8 @@
 package com.offbynull.actors.gateways.servlet.stores.jdbc;
 
 import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
 import com.offbynull.actors.gateways.servlet.Store;
 import com.offbynull.actors.shuttle.Message;
 import java.io.IOException;
@@ -81,7 +83,8 @@ public final class JdbcStore implements Store {
     //    SELECT FOR UPDATES need to include the pk column even though they aren't needed, otherwise you can't update/delete the row
     //
     
-    private final BestEffortSerializer serializer;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
     
     private final InQueue inQueue;
     private final OutQueue outQueue;
@@ -97,15 +100,30 @@ public final class JdbcStore implements Store {
      * @throws IllegalArgumentException if {@code port} is invalid
      */
     public static JdbcStore create(String prefix, DataSource dataSource) {
+        return create(prefix, dataSource, new BestEffortSerializer());
+    }
+
+    /**
+     * Creates a {@link JdbcStore} object.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param dataSource JDBC data source to generate connections
+     * @param serializer serializer to use for messages
+     * @return new JDBC store
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static JdbcStore create(String prefix, DataSource dataSource, Serializer serializer) {
         Validate.notNull(prefix);
         Validate.notNull(dataSource);
-        return new JdbcStore(prefix, dataSource);
+        Validate.notNull(serializer);
+        return new JdbcStore(prefix, dataSource, serializer);
     }
 
-    private JdbcStore(String prefix, DataSource dataSource) {
+    private JdbcStore(String prefix, DataSource dataSource, Serializer serializer) {
         Validate.notNull(prefix);
         Validate.notNull(dataSource);
-        this.serializer = new BestEffortSerializer();
+        Validate.notNull(serializer);
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
         this.closed = new AtomicBoolean();
         this.inQueue = new InQueue(prefix, dataSource, closed);
         this.outQueue = new OutQueue(prefix, dataSource, closed);
@@ -118,7 +136,7 @@ public final class JdbcStore implements Store {
         Validate.noNullElements(messages);
 
         List<byte[]> serializedMessages = messages.stream()
-                .map(m -> serializer.serialize(m))
+                .map(m -> messageCodec.encode(m))
                 .collect(toList());
         outQueue.queueOut(id, serializedMessages);
     }
@@ -130,7 +148,7 @@ public final class JdbcStore implements Store {
 
         List<byte[]> serializedMessages = outQueue.dequeueOut(id, offset);
         return serializedMessages.stream()
-                .map(d -> (Message) serializer.deserialize(d))
+                .map(d -> messageCodec.decode(d))
                 .collect(toList());
     }
 
@@ -141,7 +159,7 @@ public final class JdbcStore implements Store {
         Validate.noNullElements(messages);
 
         List<byte[]> serializedMessages = messages.stream()
-                .map(m -> serializer.serialize(m))
+                .map(m -> messageCodec.encode(m))
                 .collect(toList());
         inQueue.queueIn(id, offset, serializedMessages);
     }
@@ -152,7 +170,7 @@ public final class JdbcStore implements Store {
 
         List<byte[]> serializedMessages = inQueue.dequeueIn(id);
         return serializedMessages.stream()
-                .map(d -> (Message) serializer.deserialize(d))
+                .map(d -> messageCodec.decode(d))
                 .collect(toList());
     }
 
@@ -210,4 +210,24 @@ public class JdbcStoreTest {
         SerializableActor checkpointHitActor = fixture.take().getActor();
         assertEquals(1, checkpointHitActor.getCheckpointInstance());
     }
+
+    @Test(timeout = 2000L)
+    public void mustOnlyFlagCheckpointWorkAsCheckpointHit() throws Exception {
+        SerializableActor initialActor = SerializableActorHelper.createFake("actor:a", "timeout_msg", 300L);
+        fixture.store(initialActor);
+        fixture.store(new Message("actor:b", "actor:a", "payload"));
+
+        StoredWork msgWork = fixture.take();
+        assertEquals("payload", msgWork.getMessage().getMessage());
+        assertFalse(msgWork.isCheckpointHit());
+        assertFalse(msgWork.getActor().getCheckpointUpdated());
+        assertTrue(fixture.release(msgWork.getActorAddress(), msgWork.getCheckpointInstance()));
+
+        Thread.sleep(400L);
+
+        StoredWork checkpointWork = fixture.take();
+        assertEquals("timeout_msg", checkpointWork.getMessage().getMessage());
+        assertTrue(checkpointWork.isCheckpointHit());
+        assertTrue(checkpointWork.getActor().getCheckpointUpdated());
+    }
 }
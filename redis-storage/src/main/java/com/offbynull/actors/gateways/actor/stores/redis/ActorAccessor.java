@@ -17,13 +17,20 @@
 package com.offbynull.actors.gateways.actor.stores.redis;
 
 import com.offbynull.actors.address.Address;
+import com.offbynull.actors.common.DeltaCodec;
 import com.offbynull.actors.redisclient.Connection;
 import com.offbynull.actors.redisclient.ConnectionException;
 import static com.offbynull.actors.redisclient.RedisUtils.toClusterKey;
 import com.offbynull.actors.redisclient.Transaction;
 import com.offbynull.actors.redisclient.TransactionResult;
 import com.offbynull.actors.redisclient.Watch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import static java.util.stream.Collectors.toList;
+import org.apache.commons.collections4.list.UnmodifiableList;
+import static org.apache.commons.collections4.list.UnmodifiableList.unmodifiableList;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -46,6 +53,7 @@ final class ActorAccessor {
     private static final String CHECKPOINT_TIME_KEY_SUFFIX = ":checkpointtime";
     private static final String CHECKPOINT_INSTANCE_KEY_SUFFIX = ":checkpointinstance";
     private static final String DATA_KEY_SUFFIX = ":data";
+    private static final String DATA_DELTA_KEY_SUFFIX = ":datadelta";
     private static final String MSG_QUEUE_SUFFIX = ":msgqueue";
     private static final String STATE_KEY_SUFFIX = ":state";
     
@@ -58,6 +66,7 @@ final class ActorAccessor {
     private final String checkpointTimeKey;
     private final String checkpointInstanceKey;
     private final String dataKey;
+    private final String dataDeltaKey; // list of deltas to apply on top of dataKey (in order) to get the actor's current data
     private final String msgQueueKey;
     private final String stateKey;
 
@@ -72,12 +81,22 @@ final class ActorAccessor {
         this.checkpointTimeKey = toClusterKey(KEY_PREFIX, address, CHECKPOINT_TIME_KEY_SUFFIX);
         this.checkpointInstanceKey = toClusterKey(KEY_PREFIX, address, CHECKPOINT_INSTANCE_KEY_SUFFIX);
         this.dataKey = toClusterKey(KEY_PREFIX, address, DATA_KEY_SUFFIX);
+        this.dataDeltaKey = toClusterKey(KEY_PREFIX, address, DATA_DELTA_KEY_SUFFIX);
         this.msgQueueKey = toClusterKey(KEY_PREFIX, address, MSG_QUEUE_SUFFIX);
         this.stateKey = toClusterKey(KEY_PREFIX, address, STATE_KEY_SUFFIX);
     }
 
     boolean update(byte[] data, byte[] checkpointPayload, long checkpointTime, int checkpointInstance) throws ConnectionException {
+        return update(data, null, -1, checkpointPayload, checkpointTime, checkpointInstance);
+    }
+
+    // data is always the full data for the actor (it's what gets written as the checkpoint data). If dataDelta is set, dataDelta gets
+    // appended to the actor's delta list instead of data being written in full -- this only happens if the delta list is at
+    // expectedDeltaCount (the delta is against the data that was read out, so nothing may have been written since).
+    boolean update(byte[] data, byte[] dataDelta, int expectedDeltaCount, byte[] checkpointPayload, long checkpointTime,
+            int checkpointInstance) throws ConnectionException {
         Validate.notNull(data);
+        Validate.isTrue(dataDelta == null || expectedDeltaCount >= 0);
         Validate.isTrue(
                 !(checkpointPayload == null ^ checkpointTime < 0L),
                 "If checkpoingPayload is set checkpointTime must be > 0 and vice versa");
@@ -101,7 +120,12 @@ final class ActorAccessor {
         TransactionResult res = connection.transaction(
                 new Transaction(true, queue -> {
                     queue.set(checkpointInstanceKey, checkpointInstance);
-                    queue.set(dataKey, data);
+                    if (dataDelta == null) {
+                        queue.set(dataKey, data);
+                        queue.del(dataDeltaKey);
+                    } else {
+                        queue.rpush(dataDeltaKey, dataDelta);
+                    }
                     queue.set(stateKey, STATE_IDLE);
                     if (checkpointPayload != null) {
                         queue.set(checkpointDataKey, data);
@@ -114,6 +138,43 @@ final class ActorAccessor {
                     Integer existingCheckpointInstance = connection.get(checkpointInstanceKey, ConversionUtils::stringToInt);
                     return Objects.equals(expectedCheckpointInstance, existingCheckpointInstance);
                 }),
+                // If writing a delta, make sure the data it's against didn't change
+                new Watch(dataDeltaKey, false, () -> dataDelta == null || connection.llen(dataDeltaKey) == expectedDeltaCount),
+                // Make sure to watch all keys for this actor -- this is required for clustering because keys could be moving while the
+                // transaction is happening. The idea with doing this is that, by watching all the keys (after the legitment watches),
+                // it'll either hold off the server from moving the key or fail the MULTI/EXEC transaction while it is moving.
+                new Watch(checkpointMsgKey, true, () -> true),
+                new Watch(checkpointDataKey, true, () -> true),
+                new Watch(checkpointTimeKey, true, () -> true),
+                new Watch(checkpointInstanceKey, true, () -> true),
+                new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
+                new Watch(msgQueueKey, true, () -> true),
+                new Watch(stateKey, true, () -> true)
+        );
+
+        return res != null;
+    }
+
+    boolean updateIdle(byte[] data, int checkpointInstance) throws ConnectionException {
+        Validate.notNull(data);
+        // checkpointInstance can be anything
+
+        TransactionResult res = connection.transaction(
+                new Transaction(true, queue -> {
+                    queue.set(dataKey, data);
+                    queue.del(dataDeltaKey);
+                }),
+                // Make sure the actor exists and is at the same checkpoint instance
+                new Watch(checkpointInstanceKey, false, () -> {
+                    Integer existingCheckpointInstance = connection.get(checkpointInstanceKey, ConversionUtils::stringToInt);
+                    return Objects.equals(checkpointInstance, existingCheckpointInstance);
+                }),
+                // Make sure the actor isn't processing a message (is idle)
+                new Watch(stateKey, false, () -> {
+                    String state = connection.get(stateKey, ConversionUtils::byteArrayToString);
+                    return STATE_IDLE.equals(state);
+                }),
                 // Make sure to watch all keys for this actor -- this is required for clustering because keys could be moving while the
                 // transaction is happening. The idea with doing this is that, by watching all the keys (after the legitment watches),
                 // it'll either hold off the server from moving the key or fail the MULTI/EXEC transaction while it is moving.
@@ -122,6 +183,35 @@ final class ActorAccessor {
                 new Watch(checkpointTimeKey, true, () -> true),
                 new Watch(checkpointInstanceKey, true, () -> true),
                 new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
+                new Watch(msgQueueKey, true, () -> true),
+                new Watch(stateKey, true, () -> true)
+        );
+
+        return res != null;
+    }
+
+    boolean release(int checkpointInstance) throws ConnectionException {
+        // checkpointInstance can be anything
+
+        TransactionResult res = connection.transaction(
+                new Transaction(true, queue -> {
+                    queue.set(stateKey, STATE_IDLE);
+                }),
+                // Make sure the actor exists and is at the same checkpoint instance
+                new Watch(checkpointInstanceKey, false, () -> {
+                    Integer existingCheckpointInstance = connection.get(checkpointInstanceKey, ConversionUtils::stringToInt);
+                    return Objects.equals(checkpointInstance, existingCheckpointInstance);
+                }),
+                // Make sure to watch all keys for this actor -- this is required for clustering because keys could be moving while the
+                // transaction is happening. The idea with doing this is that, by watching all the keys (after the legitment watches),
+                // it'll either hold off the server from moving the key or fail the MULTI/EXEC transaction while it is moving.
+                new Watch(checkpointMsgKey, true, () -> true),
+                new Watch(checkpointDataKey, true, () -> true),
+                new Watch(checkpointTimeKey, true, () -> true),
+                new Watch(checkpointInstanceKey, true, () -> true),
+                new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
                 new Watch(msgQueueKey, true, () -> true),
                 new Watch(stateKey, true, () -> true)
         );
@@ -145,18 +235,24 @@ final class ActorAccessor {
                 new Watch(checkpointTimeKey, true, () -> true),
                 new Watch(checkpointInstanceKey, true, () -> true),
                 new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
                 new Watch(msgQueueKey, true, () -> true),
                 new Watch(stateKey, true, () -> true)
         );
     }
     
-    public Work nextMessage() throws ConnectionException {
+    public Work nextMessages(int maxMessages) throws ConnectionException {
+        Validate.isTrue(maxMessages > 0);
+
         TransactionResult ret = connection.transaction(
                 // if the multi/exec block fails, do retry (retries the whole thing, including the watches)
                 new Transaction(true, queue -> {
                     queue.get(checkpointInstanceKey, ConversionUtils::stringToInt);
-                    queue.rpop(msgQueueKey);
+                    for (int i = 0; i < maxMessages; i++) {
+                        queue.rpop(msgQueueKey); // pops past the end of the list come back as null
+                    }
                     queue.get(dataKey);
+                    queue.lrange(dataDeltaKey, 0, Integer.MAX_VALUE);
                     queue.set(stateKey, STATE_PROCESSING);
                 }),
                 // Make sure message queue is not empty and the actor isn't processing a message (is idle)
@@ -173,6 +269,7 @@ final class ActorAccessor {
                 new Watch(checkpointTimeKey, true, () -> true),
                 new Watch(checkpointInstanceKey, true, () -> true),
                 new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
                 new Watch(msgQueueKey, true, () -> true),
                 new Watch(stateKey, true, () -> true)
         );
@@ -181,12 +278,30 @@ final class ActorAccessor {
             return null;
         }
 
-        Validate.validState(ret.size() == 4); // sanity check
+        Validate.validState(ret.size() == maxMessages + 4); // sanity check
+        
+        List<byte[]> messageData = new ArrayList<>(maxMessages);
+        for (int i = 0; i < maxMessages; i++) {
+            byte[] data = ret.get(i + 1);
+            if (data == null) {
+                break;
+            }
+            messageData.add(data);
+        }
+
+        // Rebuild the actor's current data by applying its deltas in order
+        byte[] actorData = ret.get(maxMessages + 1);
+        List<byte[]> actorDataDeltas = ret.get(maxMessages + 2);
+        for (byte[] actorDataDelta : actorDataDeltas) {
+            actorData = DeltaCodec.decode(actorData, actorDataDelta);
+        }
 
         return new Work(
-                (byte[]) ret.get(2),
-                (byte[]) ret.get(1),
-                ((Integer) ret.get(0)));
+                actorData,
+                actorDataDeltas.size(),
+                messageData,
+                ((Integer) ret.get(0)),
+                false);
     }
     
 
@@ -205,6 +320,7 @@ final class ActorAccessor {
                 new Watch(checkpointTimeKey, true, () -> true),
                 new Watch(checkpointInstanceKey, true, () -> true),
                 new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
                 new Watch(msgQueueKey, true, () -> true),
                 new Watch(stateKey, true, () -> true)
         );
@@ -239,6 +355,7 @@ final class ActorAccessor {
                 new Watch(checkpointTimeKey, true, () -> true),
                 new Watch(checkpointInstanceKey, true, () -> true),
                 new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
                 new Watch(msgQueueKey, true, () -> true),
                 new Watch(stateKey, true, () -> true)
         );
@@ -250,8 +367,10 @@ final class ActorAccessor {
         Validate.validState(ret.size() == 5); // sanity check
         return new Work(
                 (byte[]) ret.get(3),
-                (byte[]) ret.get(2),
-                ((Long) ret.get(0)).intValue()
+                -1, // checkpoint data isn't what's in dataKey+dataDeltaKey, so deltas can't be written against it
+                Collections.singletonList((byte[]) ret.get(2)),
+                ((Long) ret.get(0)).intValue(),
+                true
         );
     }
     
@@ -263,6 +382,7 @@ final class ActorAccessor {
                     queue.del(checkpointTimeKey);
                     queue.del(checkpointInstanceKey);
                     queue.del(dataKey);
+                    queue.del(dataDeltaKey);
                     queue.del(msgQueueKey);
                     queue.del(stateKey);
                 }),
@@ -273,6 +393,7 @@ final class ActorAccessor {
                 new Watch(checkpointTimeKey, true, () -> true),
                 new Watch(checkpointInstanceKey, true, () -> true),
                 new Watch(dataKey, true, () -> true),
+                new Watch(dataDeltaKey, true, () -> true),
                 new Watch(msgQueueKey, true, () -> true),
                 new Watch(stateKey, true, () -> true)
         );
@@ -290,28 +411,45 @@ final class ActorAccessor {
     
     static final class Work {
         private final byte[] actorData;
-        private final byte[] messageData;
+        private final int actorDataDeltaCount;
+        private final UnmodifiableList<byte[]> messageData;
         private final int checkpointInstance;
+        private final boolean checkpointHit;
 
-        Work(byte[] actorData, byte[] messageData, int checkpointInstance) {
+        Work(byte[] actorData, int actorDataDeltaCount, List<byte[]> messageData, int checkpointInstance, boolean checkpointHit) {
             Validate.notNull(actorData);
             Validate.notNull(messageData);
+            Validate.noNullElements(messageData);
+            Validate.isTrue(!messageData.isEmpty());
 
             this.actorData = actorData.clone();
-            this.messageData = messageData.clone();
+            this.actorDataDeltaCount = actorDataDeltaCount;
+            this.messageData = (UnmodifiableList<byte[]>) unmodifiableList(
+                    messageData.stream().map(x -> x.clone()).collect(toList()));
             this.checkpointInstance = checkpointInstance;
+            this.checkpointHit = checkpointHit;
         }
 
         byte[] getActorData() {
             return actorData.clone();
         }
 
-        byte[] getMessageData() {
-            return messageData.clone();
+        // Number of deltas stored on top of the actor's data, or -1 if actor data isn't the actor's stored data (deltas can't be written)
+        int getActorDataDeltaCount() {
+            return actorDataDeltaCount;
+        }
+
+        List<byte[]> getMessageData() {
+            return messageData.stream().map(x -> x.clone()).collect(toList());
         }
 
         int getCheckpointInstance() {
             return checkpointInstance;
         }
+
+        // true if this is the checkpoint message for the actor's checkpoint data, false if these are messages from the actor's queue
+        boolean isCheckpointHit() {
+            return checkpointHit;
+        }
     }
 }
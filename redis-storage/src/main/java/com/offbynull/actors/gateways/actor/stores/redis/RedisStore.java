@@ -22,10 +22,15 @@ import com.offbynull.actors.shuttle.Message;
 import com.offbynull.actors.gateways.actor.Store;
 import com.offbynull.actors.redisclients.jedis.JedisPoolConnector;
 import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.DeltaCodec;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
 import com.offbynull.actors.gateways.actor.stores.redis.ActorAccessor.Work;
 import com.offbynull.actors.redisclient.Connection;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.apache.commons.lang3.Validate;
 import com.offbynull.actors.redisclient.Connector;
 import static com.offbynull.actors.redisclient.RedisUtils.retry;
@@ -33,6 +38,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A storage engine that keeps all actors and messages serialized in Redis.
@@ -51,17 +57,28 @@ import java.util.Random;
  * to work with a clustered Redis instance: Redis hash tags are used to keep keys that are accessed together on the same Redis node, such
  * that they can all be queried/changed consistently in a WATCH/MULTI/EXEC transaction. These WATCH/MULTI/EXEC transactions also make sure
  * that a failure doesn't happen from data migrating between nodes.
+ * <p>
+ * To cut down on the amount of data sent to Redis, an actor that was pulled out of this storage engine for processing can be written back
+ * as a binary delta against the data it was pulled out with (rather than being written back in full). Deltas pile up on top of the
+ * actor's last full write, and a full write happens again once a maximum number of deltas have piled up (or when a delta wouldn't be
+ * much smaller than a full write). Checkpoint data is always written in full.
  * @author Kasra Faghihi
  */
 public final class RedisStore implements Store {
     
     // This storage engine has been designed to work with a single Redis server, but can easily be extended to work with a Redis cluster.
     
+    private static final int DEFAULT_MAX_DELTA_COUNT = 8;
+    
     private final String prefix;
     private final Connector connector;
-    private final BestEffortSerializer serializer;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
     private final Random random;
     
+    private final int maxDeltaCount;
+    private final ConcurrentHashMap<Address, Snapshot> snapshots; // data of actors that were pulled out, for writing deltas against
+    
     private final QueueCountController readTimestampQueueCount;
     private final QueueCountController writeTimestampQueueCount;
     
@@ -129,28 +146,88 @@ public final class RedisStore implements Store {
             Connector connector,
             QueueCountController readTimestampQueueCount,
             QueueCountController writeTimestampQueueCount) {
+        return create(prefix, connector, readTimestampQueueCount, writeTimestampQueueCount, new BestEffortSerializer());
+    }
+    
+    /**
+     * Creates a {@link RedisStore} object. Same as
+     * {@link #create(java.lang.String, com.offbynull.actors.redisclient.Connector, QueueCountController, QueueCountController) }, but
+     * allows you to supply the {@link Serializer} used to write out actors and messages.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param connector connector to use for creating redis connections
+     * @param readTimestampQueueCount number of timestamp queues to read from (will access randomly queues from 0 to
+     * {@code readTimestampQueueCount-1}}
+     * @param writeTimestampQueueCount number of timestamp queues to write to (will access randomly queues from 0 to
+     * {@code writeTimestampQueueCount-1}}
+     * @param serializer serializer to use for actors and messages
+     * @return new redis store
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static RedisStore create(
+            String prefix,
+            Connector connector,
+            QueueCountController readTimestampQueueCount,
+            QueueCountController writeTimestampQueueCount,
+            Serializer serializer) {
+        return create(prefix, connector, readTimestampQueueCount, writeTimestampQueueCount, serializer, DEFAULT_MAX_DELTA_COUNT);
+    }
+    
+    /**
+     * Creates a {@link RedisStore} object. Same as
+     * {@link #create(java.lang.String, com.offbynull.actors.redisclient.Connector, QueueCountController, QueueCountController,
+     * com.offbynull.actors.common.Serializer) }, but allows you to supply the maximum number of deltas that can pile up on top of an
+     * actor's last full write.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param connector connector to use for creating redis connections
+     * @param readTimestampQueueCount number of timestamp queues to read from (will access randomly queues from 0 to
+     * {@code readTimestampQueueCount-1}}
+     * @param writeTimestampQueueCount number of timestamp queues to write to (will access randomly queues from 0 to
+     * {@code writeTimestampQueueCount-1}}
+     * @param serializer serializer to use for actors and messages
+     * @param maxDeltaCount maximum number of deltas written for an actor before it gets written in full again ({@code 0} to always write
+     * actors in full)
+     * @return new redis store
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code maxDeltaCount < 0}
+     */
+    public static RedisStore create(
+            String prefix,
+            Connector connector,
+            QueueCountController readTimestampQueueCount,
+            QueueCountController writeTimestampQueueCount,
+            Serializer serializer,
+            int maxDeltaCount) {
         Validate.notNull(prefix);
         Validate.notNull(connector);
         Validate.notNull(readTimestampQueueCount);
         Validate.notNull(writeTimestampQueueCount);
-        return new RedisStore(prefix, connector, readTimestampQueueCount, writeTimestampQueueCount);
+        Validate.notNull(serializer);
+        Validate.isTrue(maxDeltaCount >= 0);
+        return new RedisStore(prefix, connector, readTimestampQueueCount, writeTimestampQueueCount, serializer, maxDeltaCount);
     }
     
     private RedisStore(
             String prefix,
             Connector connector,
             QueueCountController readTimestampQueueCount,
-            QueueCountController writeTimestampQueueCount) {
+            QueueCountController writeTimestampQueueCount,
+            Serializer serializer,
+            int maxDeltaCount) {
         Validate.notNull(prefix);
         Validate.notNull(connector);
         Validate.notNull(readTimestampQueueCount);
         Validate.notNull(writeTimestampQueueCount);
+        Validate.notNull(serializer);
+        Validate.isTrue(maxDeltaCount >= 0);
         
         this.prefix = prefix;
         this.connector = connector;
-        this.serializer = new BestEffortSerializer();
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
         this.readTimestampQueueCount = readTimestampQueueCount;
         this.writeTimestampQueueCount = writeTimestampQueueCount;
+        this.maxDeltaCount = maxDeltaCount;
+        this.snapshots = new ConcurrentHashMap<>();
         try {
             this.random = SecureRandom.getInstance("SHA1PRNG");
         } catch (NoSuchAlgorithmException nsae) {
@@ -171,10 +248,24 @@ public final class RedisStore implements Store {
         
         int checkpointInstance = actor.getCheckpointInstance();
         boolean checkpointUpdated = actor.getCheckpointUpdated();
+
+        // Write a delta instead of the full data if the actor was pulled out of here and the delta is worth it
+        Snapshot snapshot = snapshots.remove(actorAddr);
+        byte[] actorDataDelta = null;
+        int expectedDeltaCount = -1;
+        if (snapshot != null && snapshot.checkpointInstance == checkpointInstance && snapshot.deltaCount < maxDeltaCount) {
+            byte[] delta = DeltaCodec.encode(snapshot.data, actorData);
+            if (delta.length < actorData.length / 2) {
+                actorDataDelta = delta;
+                expectedDeltaCount = snapshot.deltaCount;
+            }
+        }
+        byte[] finalActorDataDelta = actorDataDelta;
+        int finalExpectedDeltaCount = expectedDeltaCount;
         byte[] checkpointPayloadData;
         if (checkpointUpdated) {
             Object checkpointPayload = actor.getCheckpointPayload();
-            checkpointPayloadData = serializer.serialize(new Message(actorAddr, actorAddr, checkpointPayload));
+            checkpointPayloadData = messageCodec.encode(new Message(actorAddr, actorAddr, checkpointPayload));
         } else {
             checkpointPayloadData = null;
         }
@@ -192,7 +283,8 @@ public final class RedisStore implements Store {
                 }
                 
                 ActorAccessor actorAccessor = new ActorAccessor(connection, actorAddr);
-                boolean written = actorAccessor.update(actorData, checkpointPayloadData, checkpointTime, checkpointInstance);
+                boolean written = actorAccessor.update(actorData, finalActorDataDelta, finalExpectedDeltaCount, checkpointPayloadData,
+                        checkpointTime, checkpointInstance);
 
                 randomWriteMessageQueue(connection).insert(currentTime, actorAddr);
                 if (written && checkpointUpdated) {
@@ -204,6 +296,54 @@ public final class RedisStore implements Store {
         });
     }
 
+    @Override
+    public boolean storeIdle(SerializableActor actor) {
+        Validate.notNull(actor);
+        Validate.validState(!closed, "Store closed");
+
+        Address actorAddr = actor.getSelf();
+        Validate.isTrue(actorAddr.size() == 2, "Actor address has unexpected number of elements: %s", actorAddr);
+        Validate.isTrue(actorAddr.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, actorAddr);
+        
+        byte[] actorData = serializer.serialize(actor);
+        int checkpointInstance = actor.getCheckpointInstance();
+        snapshots.remove(actorAddr);
+
+        return retry(() -> {
+            Validate.validState(!closed, "Store closed");
+            
+            try (Connection connection = connector.getConnection()) {
+                ActorAccessor actorAccessor = new ActorAccessor(connection, actorAddr);
+                return actorAccessor.updateIdle(actorData, checkpointInstance);
+            }
+        });
+    }
+
+    @Override
+    public boolean release(Address address, int checkpointInstance) {
+        Validate.notNull(address);
+        Validate.validState(!closed, "Store closed");
+        Validate.isTrue(address.size() == 2, "Actor address has unexpected number of elements: %s", address);
+        Validate.isTrue(address.getElement(0).equals(prefix), "Actor address must start with %s: %s", prefix, address);
+        
+        snapshots.remove(address);
+
+        return retry(() -> {
+            Validate.validState(!closed, "Store closed");
+            
+            try (Connection connection = connector.getConnection()) {
+                long currentTime = Instant.now().toEpochMilli();
+
+                ActorAccessor actorAccessor = new ActorAccessor(connection, address);
+                boolean released = actorAccessor.release(checkpointInstance);
+
+                randomWriteMessageQueue(connection).insert(currentTime, address);
+                
+                return released;
+            }
+        });
+    }
+
     @Override
     public void store(Collection<Message> messages) {
         Validate.notNull(messages);
@@ -217,7 +357,7 @@ public final class RedisStore implements Store {
 
         for (Message message : messages) {
             Address dstAddr = Address.of(prefix, message.getDestinationAddress().getElement(1));
-            byte[] messageData = serializer.serialize(message);
+            byte[] messageData = messageCodec.encode(message);
 
             retry(() -> {
                 Validate.validState(!closed, "Store closed");
@@ -241,6 +381,8 @@ public final class RedisStore implements Store {
         Validate.isTrue(address.size() == 2);
         Validate.isTrue(address.getElement(0).equals(prefix));
         Validate.validState(!closed, "Store closed");
+        
+        snapshots.remove(address);
 
         retry(() -> {
             Validate.validState(!closed, "Store closed");
@@ -253,7 +395,8 @@ public final class RedisStore implements Store {
     }
 
     @Override
-    public StoredWork take() {
+    public StoredWork takeBatch(int maxMessages) {
+        Validate.isTrue(maxMessages > 0);
         Validate.validState(!closed, "Store closed");
         
         Work work = retry(() -> {
@@ -289,7 +432,7 @@ public final class RedisStore implements Store {
                     address = randomReadMessageQueue(connection).remove(currentTime);
                     if (address != null) {
                         ActorAccessor actorAccessor = new ActorAccessor(connection, address);
-                        Work messageWork = actorAccessor.nextMessage();
+                        Work messageWork = actorAccessor.nextMessages(maxMessages);
 
                         // if we pulled work, return it...
                         if (messageWork != null) {
@@ -305,23 +448,64 @@ public final class RedisStore implements Store {
             }
         });
 
-        byte[] actorData = work.getActorData();
-        byte[] messageData = work.getMessageData();
+        List<byte[]> messageData = work.getMessageData();
 
-        SerializableActor actor = serializer.deserialize(actorData);
-        Message msg = serializer.deserialize(messageData);
+        List<Message> msgs = new ArrayList<>(messageData.size());
+        for (byte[] data : messageData) {
+            Message msg = messageCodec.decode(data);
+            msgs.add(msg);
+        }
+        
+        // Actor is only deserialized if it's asked for -- the caller may already have it
+        Address actorAddr = Address.of(prefix, msgs.get(0).getDestinationAddress().getElement(1));
+        int checkpointInstance = work.getCheckpointInstance();
         
-        actor.setCheckpointInstance(work.getCheckpointInstance());
-        actor.setCheckpointUpdated(true);
+        // Hold on to the data so the actor can be written back as a delta against it. The same copy backs the lazy deserialization below
+        // -- neither side modifies it.
+        byte[] actorData = work.getActorData();
+        int actorDataDeltaCount = work.getActorDataDeltaCount();
+        Snapshot snapshot;
+        if (maxDeltaCount > 0 && actorDataDeltaCount >= 0) {
+            snapshot = new Snapshot(actorData, actorDataDeltaCount, checkpointInstance);
+            snapshots.put(actorAddr, snapshot);
+        } else {
+            snapshot = null;
+            snapshots.remove(actorAddr);
+        }
+        
+        boolean checkpointHit = work.isCheckpointHit();
+        return new StoredWork(msgs, actorAddr, checkpointInstance, checkpointHit, () -> {
+            SerializableActor actor;
+            try {
+                actor = serializer.deserialize(actorData);
+            } catch (RuntimeException re) {
+                // actor can't be processed, so it'll never be written back -- don't hold on to its data
+                if (snapshot != null) {
+                    snapshots.remove(actorAddr, snapshot);
+                }
+                throw re;
+            }
 
-        return new StoredWork(msg, actor);
+            // If a checkpoint hit, set checkpoint updated flag so the checkpoint message and timeout that was set get re-applied
+            actor.setCheckpointInstance(checkpointInstance);
+            actor.setCheckpointUpdated(checkpointHit);
+            
+            return actor;
+        });
     }
 
     @Override
     public void close() throws IOException {
         closed = true;
+        snapshots.clear();
         connector.close();
     }
+
+    // Number of actors being held on to for writing deltas against
+    int getSnapshotCount() {
+        return snapshots.size();
+    }
+    
     
     
     
@@ -329,6 +513,17 @@ public final class RedisStore implements Store {
     
     
     
+    private static final class Snapshot {
+        private final byte[] data;
+        private final int deltaCount;
+        private final int checkpointInstance;
+
+        Snapshot(byte[] data, int deltaCount, int checkpointInstance) {
+            this.data = data;
+            this.deltaCount = deltaCount;
+            this.checkpointInstance = checkpointInstance;
+        }
+    }
     
     private static long calculateCheckpointTime(Instant currentInstant, long timeout) {
         try {
@@ -17,6 +17,7 @@
 package com.offbynull.actors.gateways.actor.stores.redis;
 
 import com.offbynull.actors.address.Address;
+import com.offbynull.actors.address.AddressInterner;
 import org.apache.commons.lang3.Validate;
 import java.util.Collection;
 import com.offbynull.actors.redisclient.Connection;
@@ -39,6 +40,9 @@ import com.offbynull.actors.redisclient.Watch;
  */
 final class TimestampQueue {
     private static final String KEY_PREFIX = "timestampqueue:";
+    
+    // The same actor addresses come out of these queues over and over again -- intern them so they don't get re-parsed each time
+    private static final AddressInterner ADDRESSES = AddressInterner.create(4096);
 
     private final Connection connection;
     private final String queueKey;
@@ -75,7 +79,7 @@ final class TimestampQueue {
         Collection<String> zrangeResult = res.get(0);
         if (zrangeResult != null && !zrangeResult.isEmpty()) {
             String addrStr = zrangeResult.iterator().next();
-            return Address.fromString(addrStr);
+            return ADDRESSES.fromString(addrStr);
         }
 
         return null;
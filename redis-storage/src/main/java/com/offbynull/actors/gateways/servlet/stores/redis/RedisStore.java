@@ -17,6 +17,8 @@
 package com.offbynull.actors.gateways.servlet.stores.redis;
 
 import com.offbynull.actors.common.BestEffortSerializer;
+import com.offbynull.actors.common.MessageCodec;
+import com.offbynull.actors.common.Serializer;
 import com.offbynull.actors.gateways.servlet.Store;
 import com.offbynull.actors.redisclient.Connection;
 import com.offbynull.actors.redisclient.Connector;
@@ -46,7 +48,8 @@ public final class RedisStore implements Store {
 
     private final String prefix;
     private final Connector connector;
-    private final BestEffortSerializer serializer;
+    private final Serializer serializer;
+    private final MessageCodec messageCodec;
     private final long timeout;
 
     private volatile boolean closed;
@@ -96,21 +99,38 @@ public final class RedisStore implements Store {
      * @throws IllegalArgumentException if {@code timeout < 0}
      */
     public static RedisStore create(String prefix, Connector connector, long timeout) {
+        return create(prefix, connector, timeout, new BestEffortSerializer());
+    }
+
+    /**
+     * Creates a {@link RedisStore} object.
+     * @param prefix prefix for the actor gateway that this storage engine belongs to
+     * @param connector connector to use for creating redis connections
+     * @param timeout amount of message queue for an id will be retained without more messages being added to it (in milliseconds)
+     * @param serializer serializer to use for messages
+     * @return new redis store
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code timeout < 0}
+     */
+    public static RedisStore create(String prefix, Connector connector, long timeout, Serializer serializer) {
         Validate.notNull(prefix);
         Validate.notNull(connector);
+        Validate.notNull(serializer);
         Validate.isTrue(timeout >= 0L);
-        return new RedisStore(prefix, connector, timeout);
+        return new RedisStore(prefix, connector, timeout, serializer);
     }
     
-    private RedisStore(String prefix, Connector connector, long timeout) {
+    private RedisStore(String prefix, Connector connector, long timeout, Serializer serializer) {
         Validate.notNull(prefix);
         Validate.notNull(connector);
         Validate.notNull(timeout);
+        Validate.notNull(serializer);
         Validate.isTrue(timeout >= 0L);
 
         this.prefix = prefix;
         this.connector = connector;
-        this.serializer = new BestEffortSerializer();
+        this.serializer = serializer;
+        this.messageCodec = MessageCodec.create(serializer);
         this.timeout = timeout;
     }
 
@@ -124,7 +144,7 @@ public final class RedisStore implements Store {
         Address clientAddr = Address.of(prefix, id);
         
         List<byte[]> serializedMessages = messages.stream()
-                .map(m -> serializer.serialize(m))
+                .map(m -> messageCodec.encode(m))
                 .collect(toList());
         retry(() -> {
             Validate.validState(!closed, "Store closed");
@@ -154,7 +174,7 @@ public final class RedisStore implements Store {
         });
         
         return ret.stream()
-                .map(d -> (Message) serializer.deserialize(d))
+                .map(d -> messageCodec.decode(d))
                 .collect(toList());
     }
 
@@ -169,7 +189,7 @@ public final class RedisStore implements Store {
         Address clientAddr = Address.of(prefix, id);
         
         List<byte[]> serializedMessages = messages.stream()
-                .map(m -> serializer.serialize(m))
+                .map(m -> messageCodec.encode(m))
                 .collect(toList());
         retry(() -> {
             Validate.validState(!closed, "Store closed");
@@ -198,7 +218,7 @@ public final class RedisStore implements Store {
         });
         
         return ret.stream()
-                .map(d -> (Message) serializer.deserialize(d))
+                .map(d -> messageCodec.decode(d))
                 .collect(toList());
     }
 
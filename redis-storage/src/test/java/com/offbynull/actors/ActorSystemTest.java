@@ -1,11 +1,19 @@
 package com.offbynull.actors;
 
+import com.offbynull.actors.address.Address;
+import com.offbynull.actors.gateways.actor.ActorGateway;
 import com.offbynull.actors.gateways.actor.Context;
+import com.offbynull.actors.gateways.actor.SerializableActor;
+import com.offbynull.actors.gateways.actor.Store;
 import com.offbynull.actors.gateways.actor.stores.redis.RedisStore;
 import com.offbynull.actors.gateways.actor.stores.redis.QueueCountController;
 import com.offbynull.actors.redisclient.Connector;
 import com.offbynull.actors.redisclients.test.TestConnector;
+import com.offbynull.actors.shuttle.Message;
 import com.offbynull.coroutines.user.Coroutine;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
 import org.junit.Before;
@@ -86,4 +94,125 @@ public class ActorSystemTest {
         assertEquals("echo_msg", directMsg);
     }
     
+    @Test(timeout = 5000L)
+    public void mustReleaseRatherThanRewriteActorWhenMessageIsRejected() throws Exception {
+        Coroutine quiet = cnt -> {
+            Context ctx = (Context) cnt.getContext();
+            ctx.allow("direct:test", false);
+
+            ctx.out("direct:test", "ready");
+            while (true) {
+                cnt.suspend();
+                ctx.out("direct:test", ctx.in());
+            }
+        };
+
+        CountingStore store = new CountingStore(
+                RedisStore.create("actor", new TestConnector(), new QueueCountController(1), new QueueCountController(1)));
+        try (ActorSystem countingActorSystem = ActorSystem.builder()
+                .withDirectGateway()
+                .withGatewayFactory(() -> ActorGateway.create("actor", 1, store, 4))
+                .build()) {
+            countingActorSystem.getDirectGateway().listen("direct:test");
+
+            countingActorSystem.getActorGateway().addActor("quiet", quiet, new Object());
+            assertEquals("ready", countingActorSystem.getDirectGateway().readMessagePayloadOnly("direct:test"));
+            int storedActorCount = store.storedActorCount.get();
+            int releasedActorCount = store.releasedActorCount.get();
+
+            // rejected by the actor's rules, so nothing about the actor changes -- it should only be released
+            countingActorSystem.getDirectGateway().writeMessage("direct:other", "actor:quiet", "ignored");
+            while (store.releasedActorCount.get() == releasedActorCount) {
+                Thread.sleep(10L);
+            }
+            assertEquals(storedActorCount, store.storedActorCount.get());
+
+            countingActorSystem.getDirectGateway().writeMessage("direct:test", "actor:quiet", "echo");
+            assertEquals("echo", countingActorSystem.getDirectGateway().readMessagePayloadOnly("direct:test"));
+            assertEquals(storedActorCount + 1, store.storedActorCount.get());
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void mustDeliverMessagesToSelfWithoutGoingThroughStore() throws Exception {
+        Coroutine looper = cnt -> {
+            Context ctx = (Context) cnt.getContext();
+            ctx.allow();
+
+            ctx.out("direct:test", "ready");
+            cnt.suspend();
+
+            ctx.out("actor:looper", "loop");
+            cnt.suspend();
+
+            ctx.out("direct:test", ctx.in());
+        };
+
+        CountingStore store = new CountingStore(
+                RedisStore.create("actor", new TestConnector(), new QueueCountController(1), new QueueCountController(1)));
+        try (ActorSystem countingActorSystem = ActorSystem.builder()
+                .withDirectGateway()
+                .withGatewayFactory(() -> ActorGateway.create("actor", 1, store, 4))
+                .build()) {
+            countingActorSystem.getDirectGateway().listen("direct:test");
+
+            countingActorSystem.getActorGateway().addActor("looper", looper, new Object());
+            assertEquals("ready", countingActorSystem.getDirectGateway().readMessagePayloadOnly("direct:test"));
+
+            countingActorSystem.getDirectGateway().writeMessage("direct:test", "actor:looper", "go");
+            assertEquals("loop", countingActorSystem.getDirectGateway().readMessagePayloadOnly("direct:test"));
+            assertEquals(0, store.storedSelfMessageCount.get());
+        }
+    }
+
+    private static final class CountingStore implements Store {
+        private final Store backing;
+        private final AtomicInteger storedActorCount = new AtomicInteger();
+        private final AtomicInteger releasedActorCount = new AtomicInteger();
+        private final AtomicInteger storedSelfMessageCount = new AtomicInteger();
+
+        CountingStore(Store backing) {
+            this.backing = backing;
+        }
+
+        @Override
+        public boolean store(SerializableActor actor) {
+            storedActorCount.incrementAndGet();
+            return backing.store(actor);
+        }
+
+        @Override
+        public boolean storeIdle(SerializableActor actor) {
+            return backing.storeIdle(actor);
+        }
+
+        @Override
+        public boolean release(Address address, int checkpointInstance) {
+            releasedActorCount.incrementAndGet();
+            return backing.release(address, checkpointInstance);
+        }
+
+        @Override
+        public void store(Collection<Message> messages) {
+            messages.stream()
+                    .filter(m -> m.getSourceAddress().equals(m.getDestinationAddress()))
+                    .forEach(m -> storedSelfMessageCount.incrementAndGet());
+            backing.store(messages);
+        }
+
+        @Override
+        public void discard(Address address) {
+            backing.discard(address);
+        }
+
+        @Override
+        public StoredWork takeBatch(int maxMessages) {
+            return backing.takeBatch(maxMessages);
+        }
+
+        @Override
+        public void close() throws IOException {
+            backing.close();
+        }
+    }
 }
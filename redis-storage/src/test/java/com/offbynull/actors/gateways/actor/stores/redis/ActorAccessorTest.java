@@ -1,13 +1,18 @@
 package com.offbynull.actors.gateways.actor.stores.redis;
 
+import com.offbynull.actors.common.DeltaCodec;
 import com.offbynull.actors.gateways.actor.stores.redis.ActorAccessor.Work;
 import com.offbynull.actors.redisclient.Connection;
 import static com.offbynull.actors.address.Address.fromString;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import com.offbynull.actors.redisclient.Connector;
 import com.offbynull.actors.redisclients.test.TestConnector;
 import org.junit.After;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -46,22 +51,89 @@ public final class ActorAccessorTest {
         raa.putMessage(msgData2);
         
         ActorAccessor.Work pm;
-        pm = raa.nextMessage();
-        assertArrayEquals(msgData1, pm.getMessageData());
+        pm = raa.nextMessages(1);
+        assertArrayEquals(msgData1, pm.getMessageData().get(0));
         assertArrayEquals(actorData, pm.getActorData());
         raa.putMessage(msgData3);
         
-        pm = raa.nextMessage();
+        pm = raa.nextMessages(1);
         assertNull(pm);
         
         raa.update(actorData, null, -1L, 0);
-        pm = raa.nextMessage();
-        assertArrayEquals(msgData2, pm.getMessageData());
+        pm = raa.nextMessages(1);
+        assertArrayEquals(msgData2, pm.getMessageData().get(0));
         assertArrayEquals(actorData, pm.getActorData());
         
         raa.remove();
     }
 
+    @Test
+    public void mustApplyDeltasWhenReadingActorData() throws Exception {
+        byte[] actorData1 = "first version of actor data".getBytes(UTF_8);
+        byte[] actorData2 = "second version of actor data".getBytes(UTF_8);
+        byte[] actorData3 = "third version of actor data!".getBytes(UTF_8);
+
+        ActorAccessor raa = new ActorAccessor(connection, fromString("test1:a"));
+        raa.remove();
+
+        raa.update(actorData1, null, -1L, 0);
+        raa.putMessage(new byte[] { 1 });
+        ActorAccessor.Work pm = raa.nextMessages(1);
+        assertArrayEquals(actorData1, pm.getActorData());
+        assertEquals(0, pm.getActorDataDeltaCount());
+
+        assertTrue(raa.update(actorData2, DeltaCodec.encode(actorData1, actorData2), 0, null, -1L, 0));
+        raa.putMessage(new byte[] { 2 });
+        pm = raa.nextMessages(1);
+        assertArrayEquals(actorData2, pm.getActorData());
+        assertEquals(1, pm.getActorDataDeltaCount());
+
+        assertFalse(raa.update(actorData3, DeltaCodec.encode(actorData2, actorData3), 0, null, -1L, 0)); // wrong delta count
+        assertTrue(raa.update(actorData3, DeltaCodec.encode(actorData2, actorData3), 1, null, -1L, 0));
+        raa.putMessage(new byte[] { 3 });
+        pm = raa.nextMessages(1);
+        assertArrayEquals(actorData3, pm.getActorData());
+        assertEquals(2, pm.getActorDataDeltaCount());
+
+        assertTrue(raa.update(actorData1, null, -1L, 0)); // full write clears deltas
+        raa.putMessage(new byte[] { 4 });
+        pm = raa.nextMessages(1);
+        assertArrayEquals(actorData1, pm.getActorData());
+        assertEquals(0, pm.getActorDataDeltaCount());
+
+        raa.remove();
+    }
+
+    @Test
+    public void mustProperlyReadMessagesInBatches() throws Exception {
+        byte[] actorData = new byte[] { 1, 2, 3 };
+        byte[] msgData1 = new byte[] { 3, 4, 5 };
+        byte[] msgData2 = new byte[] { 5, 6, 7 };
+        byte[] msgData3 = new byte[] { 8, 9, 10 };
+
+        ActorAccessor raa = new ActorAccessor(connection, fromString("test1:c"));
+        raa.remove();
+
+        raa.update(actorData, null, -1L, 0);
+        raa.putMessage(msgData1);
+        raa.putMessage(msgData2);
+        raa.putMessage(msgData3);
+        
+        ActorAccessor.Work pm;
+        pm = raa.nextMessages(2);
+        assertEquals(2, pm.getMessageData().size());
+        assertArrayEquals(msgData1, pm.getMessageData().get(0));
+        assertArrayEquals(msgData2, pm.getMessageData().get(1));
+        assertArrayEquals(actorData, pm.getActorData());
+        
+        raa.update(actorData, null, -1L, 0);
+        pm = raa.nextMessages(2);
+        assertEquals(1, pm.getMessageData().size());
+        assertArrayEquals(msgData3, pm.getMessageData().get(0));
+        
+        raa.remove();
+    }
+
     @Test
     public void mustProperlyHitCheckpoint() throws Exception {
         byte[] actorData1 = new byte[] { 1, 2, 3 };
@@ -76,14 +148,14 @@ public final class ActorAccessorTest {
         
         Work pm;
 
-        pm = raa.nextMessage();
+        pm = raa.nextMessages(1);
         assertNull(pm);
         
         pm = raa.checkpointMessage(0L);
-        assertArrayEquals(checkpointMsg, pm.getMessageData());
+        assertArrayEquals(checkpointMsg, pm.getMessageData().get(0));
         assertArrayEquals(actorData1, pm.getActorData());
 
-        pm = raa.nextMessage();
+        pm = raa.nextMessages(1);
         assertNull(pm);
 
         raa.remove();
@@ -110,6 +110,39 @@ public class RedisStoreTest {
         assertEquals("payload2", work.getMessage().getMessage());
     } 
 
+    @Test(timeout = 2000L)
+    public void mustRestoreAfterPullingWorkRepeatedly() {
+        SerializableActor actor = SerializableActorHelper.createFake("actor:b");
+        fixture.store(actor);
+        for (int i = 0; i < 20; i++) { // enough to go past the maximum number of deltas and force full writes
+            fixture.store(new Message("actor:a", "actor:b", "payload" + i));
+            StoredWork work = fixture.take();
+            assertEquals("payload" + i, work.getMessage().getMessage());
+            SerializableActor pulledActor = work.getActor();
+            assertEquals("actor:b", pulledActor.getSelf().toString());
+            pulledActor.setCheckpointUpdated(i % 2 == 0);
+            assertTrue(fixture.store(pulledActor));
+        }
+    } 
+
+    @Test(timeout = 2000L)
+    public void mustDropSnapshotsWhenActorIsPutBackOrStoreIsClosed() throws Exception {
+        fixture.store(SerializableActorHelper.createFake("actor:a"));
+        fixture.store(SerializableActorHelper.createFake("actor:b"));
+        fixture.store(new Message("actor:z", "actor:a", "payload"));
+        fixture.store(new Message("actor:z", "actor:b", "payload"));
+
+        StoredWork work1 = fixture.take();
+        fixture.take();
+        assertEquals(2, fixture.getSnapshotCount());
+
+        assertTrue(fixture.store(work1.getActor()));
+        assertEquals(1, fixture.getSnapshotCount());
+
+        fixture.close();
+        assertEquals(0, fixture.getSnapshotCount());
+    }
+
     @Test(timeout = 1000L)
     public void mustDiscardActor() {
         SerializableActor actorA = SerializableActorHelper.createFake("actor:a");
@@ -175,4 +208,24 @@ public class RedisStoreTest {
         SerializableActor checkpointHitActor = fixture.take().getActor();
         assertEquals(1, checkpointHitActor.getCheckpointInstance());
     }
+
+    @Test(timeout = 2000L)
+    public void mustOnlyFlagCheckpointWorkAsCheckpointHit() throws Exception {
+        SerializableActor initialActor = SerializableActorHelper.createFake("actor:a", "timeout_msg", 300L);
+        fixture.store(initialActor);
+        fixture.store(new Message("actor:b", "actor:a", "payload"));
+
+        StoredWork msgWork = fixture.take();
+        assertEquals("payload", msgWork.getMessage().getMessage());
+        assertFalse(msgWork.isCheckpointHit());
+        assertFalse(msgWork.getActor().getCheckpointUpdated());
+        assertTrue(fixture.release(msgWork.getActorAddress(), msgWork.getCheckpointInstance()));
+
+        Thread.sleep(400L);
+
+        StoredWork checkpointWork = fixture.take();
+        assertEquals("timeout_msg", checkpointWork.getMessage().getMessage());
+        assertTrue(checkpointWork.isCheckpointHit());
+        assertTrue(checkpointWork.getActor().getCheckpointUpdated());
+    }
 }